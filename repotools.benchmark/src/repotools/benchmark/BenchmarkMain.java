@@ -0,0 +1,41 @@
+package repotools.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/// <summary>
+/// Run the benchmarks with the usual JMH command line, except that the
+/// results are written as JSON to a dated file unless -rf or -rff says
+/// otherwise, so there is always something to compare with CompareResults.
+/// </summary>
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+		ChainedOptionsBuilder builder =
+			new OptionsBuilder().parent(commandLineOptions);
+
+		if (commandLineOptions.getResultFormat().hasValue() == false)
+		{
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+
+		if (commandLineOptions.getResult().hasValue() == false)
+		{
+			builder.result(
+				"jmh-result-" +
+				new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) +
+				".json");
+		}
+
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,108 @@
+package repotools.benchmark;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/// <summary>
+/// Compare two JMH JSON result files, for example from two releases.  Each
+/// benchmark and parameter combination found in both is listed with its
+/// old and new score and the ratio between them.
+///
+/// Usage: CompareResults old.json new.json
+/// </summary>
+public class CompareResults
+{
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length != 2)
+		{
+			System.out.println("Usage: CompareResults old.json new.json");
+			System.exit(1);
+		}
+
+		Map<String, JsonObject> oldResults = readResults(args[0]);
+		Map<String, JsonObject> newResults = readResults(args[1]);
+
+		for (String nextKey : newResults.keySet())
+		{
+			JsonObject newMetric = newResults.get(nextKey);
+			JsonObject oldMetric = oldResults.get(nextKey);
+
+			if (oldMetric == null)
+			{
+				System.out.println(nextKey + "  new: " + formatScore(newMetric));
+				continue;
+			}
+
+			double oldScore = oldMetric.get("score").getAsDouble();
+			double newScore = newMetric.get("score").getAsDouble();
+
+			System.out.println(
+				nextKey +
+				"  old: " + formatScore(oldMetric) +
+				"  new: " + formatScore(newMetric) +
+				"  ratio: " + String.format("%.3f", newScore / oldScore));
+		}
+	}
+
+	/// <returns>
+	/// The primary metric of each result, keyed by the benchmark name and
+	/// its parameters
+	/// </returns>
+	protected static Map<String, JsonObject> readResults(String fileName) throws IOException
+	{
+		Map<String, JsonObject> results = new LinkedHashMap<String, JsonObject>();
+
+		Reader reader = new FileReader(fileName);
+
+		try
+		{
+			JsonArray resultArray = new JsonParser().parse(reader).getAsJsonArray();
+
+			for (JsonElement nextElement : resultArray)
+			{
+				JsonObject nextResult = nextElement.getAsJsonObject();
+
+				StringBuilder key = new StringBuilder(
+					nextResult.get("benchmark").getAsString());
+
+				if (nextResult.has("params"))
+				{
+					for (Map.Entry<String, JsonElement> nextParam :
+						nextResult.getAsJsonObject("params").entrySet())
+					{
+						key.append(" " + nextParam.getKey() + "=" +
+							nextParam.getValue().getAsString());
+					}
+				}
+
+				results.put(
+					key.toString(),
+					nextResult.getAsJsonObject("primaryMetric"));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return results;
+	}
+
+	protected static String formatScore(JsonObject metric)
+	{
+		return String.format(
+			"%.3f +- %.3f %s",
+			metric.get("score").getAsDouble(),
+			metric.get("scoreError").getAsDouble(),
+			metric.get("scoreUnit").getAsString());
+	}
+}
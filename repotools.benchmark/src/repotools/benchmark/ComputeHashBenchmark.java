@@ -0,0 +1,197 @@
+package repotools.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import repotools.utilities.ArgUtilities;
+import repotools.utilities.CryptUtilities;
+import repotools.utilities.HashReadOptions;
+import repotools.utilities.ReadPipeline;
+import repotools.utilities.ReadStrategy;
+
+/// <summary>
+/// Time CryptUtilities.computeHash for one file, across file sizes, hash
+/// methods, read strategies and buffer sizes.  The file is written once
+/// for each combination, to a tmpfs directory where there is one, so that
+/// the results measure the code rather than the disk.
+///
+/// The default matrix is kept small, at 10 trials with files of up to 64MB.
+/// Larger files, other methods and buffer sizes, the directory, and DIRECT
+/// are chosen with -p.  DIRECT needs a directory on a file system with
+/// direct I/O, which tmpfs doesn't have, and a trial of it fails straight
+/// away with the reason where it can't be used.
+/// </summary>
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComputeHashBenchmark
+{
+	/// <summary>
+	/// Sizes such as 4K, 1M or 4G
+	/// </summary>
+	@Param({ "64K", "64M" })
+	public String fileSize;
+
+	@Param({ "MD5" })
+	public String hashType;
+
+	/// <summary>
+	/// A ReadStrategy, or DIRECT to read around the page cache
+	/// </summary>
+	@Param({ "STREAM", "CHANNEL", "MAPPED", "PIPELINED", "AUTO" })
+	public String strategy;
+
+	@Param({ "1048576" })
+	public int bufferSize;
+
+	/// <summary>
+	/// The directory for the file, or empty for the default from
+	/// getBenchmarkDirectory
+	/// </summary>
+	@Param({ "" })
+	public String directory;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		File benchmarkDirectory = getBenchmarkDirectory(directory);
+		
+		file = File.createTempFile("repotools-bench-", ".dat", benchmarkDirectory);
+		writeRandomFile(file, ArgUtilities.parseSize(fileSize));
+
+		options = new HashReadOptions();
+		options.setBufferSize(bufferSize);
+
+		if (strategy.equals("DIRECT"))
+		{
+			// Otherwise the file would quietly be read through the cache
+			if (CryptUtilities.isDirectSupported(file) == false)
+			{
+				file.delete();
+				
+				throw new IllegalStateException(
+					"DIRECT isn't supported in " + benchmarkDirectory +
+					", so give another with -p directory=...");
+			}
+			
+			options.setDirect(true);
+		}
+		else
+		{
+			options.setStrategy(ReadStrategy.fromName(strategy));
+		}
+
+		if (options.getStrategy() == ReadStrategy.PIPELINED)
+		{
+			options.setPipeline(new ReadPipeline(
+				1,
+				ReadPipeline.defaultBuffersPerFile,
+				bufferSize));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		if (options.getPipeline() != null)
+		{
+			options.getPipeline().close();
+		}
+
+		file.delete();
+	}
+
+	@Benchmark
+	public byte[] computeHash() throws Exception
+	{
+		return CryptUtilities.computeHash(file, hashType, options);
+	}
+
+	/// <summary>
+	/// The directory for the temporary files.  The repotools.benchmark.dir
+	/// system property overrides the default of /dev/shm, if it exists, or
+	/// else the normal temporary directory.
+	/// </summary>
+	protected static File getBenchmarkDirectory()
+	{
+		return getBenchmarkDirectory(System.getProperty("repotools.benchmark.dir"));
+	}
+
+	/// <param name="directoryName">
+	/// The directory to use, or null or empty for the default
+	/// </param>
+	protected static File getBenchmarkDirectory(String directoryName)
+	{
+		if (directoryName != null && directoryName.isEmpty() == false)
+		{
+			return new File(directoryName);
+		}
+		
+		directoryName = System.getProperty("repotools.benchmark.dir");
+		if (directoryName != null)
+		{
+			return new File(directoryName);
+		}
+
+		File sharedMemory = new File("/dev/shm");
+		if (sharedMemory.isDirectory() && sharedMemory.canWrite())
+		{
+			return sharedMemory;
+		}
+
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/// <summary>
+	/// Fill a file with pseudo-random bytes, the same for every run
+	/// </summary>
+	protected static void writeRandomFile(File file, long length) throws IOException
+	{
+		Random random = new Random(length);
+		byte[] chunk = new byte[1024 * 1024];
+
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+
+		try
+		{
+			long remaining = length;
+			while (remaining > 0)
+			{
+				random.nextBytes(chunk);
+
+				int take = (int) Math.min(chunk.length, remaining);
+				output.write(chunk, 0, take);
+				remaining -= take;
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	private File file;
+	private HashReadOptions options;
+}
@@ -0,0 +1,105 @@
+package repotools.benchmark;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import repotools.manifest.FileHash;
+
+/// <summary>
+/// Time FileHash.equals and hashCode, which dominate the work of finding
+/// moved and duplicate files in a large manifest.
+/// </summary>
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHashBenchmark
+{
+	@Param({ "MD5", "SHA256" })
+	public String hashType;
+
+	@Setup
+	public void setup()
+	{
+		int hashLength = hashType.equals("MD5") ? 16 : 32;
+		Random random = new Random(hashLength);
+
+		hashData = new byte[hashLength];
+		random.nextBytes(hashData);
+
+		hash = new FileHash(hashData, hashType);
+		sameHash = new FileHash(hashData.clone(), hashType);
+
+		// Differs only in the last byte, so equals has to compare it all
+		byte[] differentData = hashData.clone();
+		differentData[hashLength - 1] ^= 1;
+		differentHash = new FileHash(differentData, hashType);
+
+		hashMap = new HashMap<FileHash, FileHash>();
+		for (int i = 0; i < mapSize; i++)
+		{
+			byte[] nextData = new byte[hashLength];
+			random.nextBytes(nextData);
+
+			FileHash nextHash = new FileHash(nextData, hashType);
+			hashMap.put(nextHash, nextHash);
+		}
+		hashMap.put(hash, hash);
+	}
+
+	@Benchmark
+	public boolean equalsSame()
+	{
+		return hash.equals(sameHash);
+	}
+
+	@Benchmark
+	public boolean equalsDifferent()
+	{
+		return hash.equals(differentHash);
+	}
+
+	/// <summary>
+	/// The hash code is cached after the first call
+	/// </summary>
+	@Benchmark
+	public int hashCodeCached()
+	{
+		return hash.hashCode();
+	}
+
+	@Benchmark
+	public int hashCodeNew()
+	{
+		return new FileHash(hashData, hashType).hashCode();
+	}
+
+	@Benchmark
+	public FileHash mapLookup()
+	{
+		return hashMap.get(sameHash);
+	}
+
+	private byte[] hashData;
+	private FileHash hash;
+	private FileHash sameHash;
+	private FileHash differentHash;
+	private HashMap<FileHash, FileHash> hashMap;
+
+	private static final int mapSize = 100000;
+}
@@ -0,0 +1,95 @@
+package repotools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import repotools.utilities.HashEngine;
+import repotools.utilities.HashReadOptions;
+
+/// <summary>
+/// Time hashing a batch of small files with MD5, one at a time and all
+/// together with HashEngine.computeSmallFileHashes.  The file sizes are
+/// spread evenly up to the maximum, like a directory of thumbnails or
+/// source files.
+/// </summary>
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmallFileBenchmark
+{
+	@Param({ "4096", "20480", "65536" })
+	public int maxFileSize;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		Random random = new Random(maxFileSize);
+
+		files = new File[HashEngine.smallFileBatchSize];
+		for (int i = 0; i < files.length; i++)
+		{
+			files[i] = File.createTempFile(
+				"repotools-bench-",
+				".dat",
+				ComputeHashBenchmark.getBenchmarkDirectory());
+
+			ComputeHashBenchmark.writeRandomFile(
+				files[i],
+				1 + random.nextInt(maxFileSize));
+		}
+
+		engine = new HashEngine(new HashReadOptions());
+		engine.setSlowFileCount(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		for (File nextFile : files)
+		{
+			nextFile.delete();
+		}
+	}
+
+	@Benchmark
+	public byte[][] oneAtATime() throws Exception
+	{
+		byte[][] hashes = new byte[files.length][];
+		String[] hashTypes = { "MD5" };
+
+		for (int i = 0; i < files.length; i++)
+		{
+			hashes[i] = engine.computeHashes(files[i], hashTypes)[0];
+		}
+
+		return hashes;
+	}
+
+	@Benchmark
+	public byte[][] batched()
+	{
+		return engine.computeSmallFileHashes(files, "MD5");
+	}
+
+	private File[] files;
+	private HashEngine engine;
+}
@@ -0,0 +1,62 @@
+package repotools.manifest;
+
+/// <summary>
+/// The saved state of the hash of a file part way through, at the length
+/// the file had when it was last hashed.  If the file has only been added
+/// to since, its new hash can be computed by restoring the state and
+/// reading just the new part.  The sample hash, of the start and end of
+/// the part already hashed, is a quick check that it hasn't changed.
+/// </summary>
+public class AppendCheckpoint
+{
+	public AppendCheckpoint(
+		String hashType,
+		long length,
+		byte[] state,
+		byte[] sampleHash)
+	{
+		this.hashType = hashType;
+		this.length = length;
+		this.state = state;
+		this.sampleHash = sampleHash;
+	}
+
+	/// <summary>
+	/// Whether the checkpoint can be used to hash the file with the given
+	/// method and current length
+	/// </summary>
+	public boolean isUsable(String otherHashType, long fileLength)
+	{
+		return
+			hashType.equals(otherHashType) &&
+			state != null &&
+			sampleHash != null &&
+			length > 0 &&
+			length <= fileLength;
+	}
+
+	public String getHashType()
+	{
+		return hashType;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public byte[] getState()
+	{
+		return state;
+	}
+
+	public byte[] getSampleHash()
+	{
+		return sampleHash;
+	}
+
+	private String hashType;
+	private long length;
+	private byte[] state;
+	private byte[] sampleHash;
+}
@@ -0,0 +1,37 @@
+package repotools.manifest;
+
+/// <summary>
+/// An inclusive range of bytes within a file
+/// </summary>
+public class BlockRange
+{
+	public BlockRange(long start, long end)
+	{
+		this.start = start;
+		this.end = end;
+	}
+
+	public long getStart()
+	{
+		return start;
+	}
+
+	public long getEnd()
+	{
+		return end;
+	}
+
+	public void setEnd(long end)
+	{
+		this.end = end;
+	}
+
+	@Override
+	public String toString()
+	{
+		return start + "-" + end;
+	}
+
+	private long start;
+	private long end;
+}
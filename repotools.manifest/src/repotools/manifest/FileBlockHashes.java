@@ -0,0 +1,106 @@
+package repotools.manifest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// <summary>
+/// Hashes of the fixed-size blocks of a large file, along with the Merkle
+/// root computed from them.  The root can be compared with the root from
+/// another replica as long as the block size and hash method are the same.
+/// </summary>
+public class FileBlockHashes
+{
+	public FileBlockHashes(
+		String hashType,
+		long blockSize,
+		byte[] rootHash,
+		List<byte[]> blockHashes)
+	{
+		this.hashType = hashType;
+		this.blockSize = blockSize;
+		this.rootHash = rootHash;
+		this.blockHashes = new ArrayList<byte[]>(blockHashes);
+	}
+	
+	/// <summary>
+	/// Compare with block hashes computed from the current file contents
+	/// </summary>
+	/// <param name="otherBlockHashes">
+	/// Block hashes computed with the same block size and hash method
+	/// </param>
+	/// <param name="fileLength">
+	/// Current length of the file
+	/// </param>
+	/// <returns>
+	/// The byte ranges which are different, with adjacent blocks combined
+	/// into a single range
+	/// </returns>
+	public ArrayList<BlockRange> findDifferentRanges(
+		List<byte[]> otherBlockHashes,
+		long fileLength)
+	{
+		ArrayList<BlockRange> ranges = new ArrayList<BlockRange>();
+		int blockCount = Math.max(blockHashes.size(), otherBlockHashes.size());
+		
+		BlockRange currentRange = null;
+		for (int i = 0; i < blockCount; i++)
+		{
+			boolean same =
+				i < blockHashes.size() &&
+				i < otherBlockHashes.size() &&
+				Arrays.equals(blockHashes.get(i), otherBlockHashes.get(i));
+			
+			if (same)
+			{
+				currentRange = null;
+				continue;
+			}
+			
+			long start = i * blockSize;
+			long end = Math.max(start, Math.min(start + blockSize, fileLength) - 1);
+			
+			if (currentRange == null)
+			{
+				currentRange = new BlockRange(start, end);
+				ranges.add(currentRange);
+			}
+			else
+			{
+				currentRange.setEnd(end);
+			}
+		}
+		
+		return ranges;
+	}
+	
+	public boolean isComparable(String otherHashType, long otherBlockSize)
+	{
+		return hashType.equals(otherHashType) && blockSize == otherBlockSize;
+	}
+
+	public String getHashType()
+	{
+		return hashType;
+	}
+
+	public long getBlockSize()
+	{
+		return blockSize;
+	}
+
+	public byte[] getRootHash()
+	{
+		return rootHash;
+	}
+
+	public ArrayList<byte[]> getBlockHashes()
+	{
+		return blockHashes;
+	}
+
+	private String hashType;
+	private long blockSize;
+	private byte[] rootHash;
+	private ArrayList<byte[]> blockHashes;
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.Arrays;
 
 import repotools.utilities.CryptUtilities;
+import repotools.utilities.HashReadOptions;
 
 public class FileHash
 {
@@ -58,7 +59,54 @@ public class FileHash
 	@Override
 	public String toString()
 	{
-		return javax.xml.bind.DatatypeConverter.printHexBinary(hashData);
+		return toHex(hashData);
+	}
+	
+	/// <summary>
+	/// Upper case hexadecimal digits, two for each byte
+	/// </summary>
+	static public String toHex(byte[] data)
+	{
+		StringBuilder hex = new StringBuilder(2 * data.length);
+		
+		for (byte nextByte : data)
+		{
+			hex.append(hexDigits[(nextByte >> 4) & 0xF]);
+			hex.append(hexDigits[nextByte & 0xF]);
+		}
+		
+		return hex.toString();
+	}
+	
+	/// <summary>
+	/// The bytes written by toHex, in either case
+	/// </summary>
+	/// <exception cref="IllegalArgumentException">
+	/// If the text isn't pairs of hexadecimal digits
+	/// </exception>
+	static public byte[] parseHex(String hex)
+	{
+		if (hex.length() % 2 != 0)
+		{
+			throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+		}
+		
+		byte[] data = new byte[hex.length() / 2];
+		
+		for (int i = 0; i < data.length; i++)
+		{
+			int high = Character.digit(hex.charAt(2 * i), 16);
+			int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			
+			if (high < 0 || low < 0)
+			{
+				throw new IllegalArgumentException("Not a hex number: " + hex);
+			}
+			
+			data[i] = (byte) ((high << 4) | low);
+		}
+		
+		return data;
 	}
 
 	private String hashType;
@@ -68,6 +116,12 @@ public class FileHash
 	}
 
 	private byte[] hashData;
+	public byte[] getHashData()
+	{
+		return hashData;
+	}
+	
+	private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
 	
 	private transient int objectHash;
 	private transient boolean objectHashIsSet;
@@ -83,4 +137,36 @@ public class FileHash
 			CryptUtilities.computeHash(file, hashType),
 			hashType);
 	}
+	
+	static public FileHash computeHash(
+		File file,
+		String hashType,
+		HashReadOptions readOptions) throws Exception
+	{
+		return new FileHash(
+			CryptUtilities.computeHash(file, hashType, readOptions),
+			hashType);
+	}
+	
+	/// <summary>
+	/// Compute several kinds of hash with a single read of the file
+	/// </summary>
+	static public FileHash[] computeHashes(
+		File file,
+		String[] hashTypes,
+		HashReadOptions readOptions) throws Exception
+	{
+		byte[][] hashData = CryptUtilities.computeHashes(
+			file,
+			hashTypes,
+			readOptions);
+		
+		FileHash[] hashes = new FileHash[hashTypes.length];
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			hashes[i] = new FileHash(hashData[i], hashTypes[i]);
+		}
+		
+		return hashes;
+	}
 }
@@ -0,0 +1,302 @@
+package repotools.manifest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import repotools.utilities.FileStamp;
+
+/// <summary>
+/// Persistent cache of file hashes, keyed by the FileStamp of the file and
+/// the hash method.  The least recently used entries are dropped once the
+/// cache is full.
+///
+/// New entries are appended to the cache file as they are stored, and
+/// flushed every so often, so that an interrupted run loses at most the
+/// last few of them.  The file is rewritten without the dropped and
+/// replaced entries when the cache is closed, or when it is opened if
+/// most of the records in it are no longer used, as after a run which
+/// was interrupted.
+/// </summary>
+public class HashCache
+{
+	public HashCache(File cacheFile, int maxEntries)
+	{
+		this.cacheFile = cacheFile;
+		this.maxEntries = maxEntries;
+		
+		entries = new LinkedHashMap<CacheKey, byte[]>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, byte[]> eldest)
+			{
+				return size() > HashCache.this.maxEntries;
+			}
+		};
+	}
+	
+	/// <summary>
+	/// Read the cache file if it exists, and prepare to append to it
+	/// </summary>
+	public synchronized void open() throws IOException
+	{
+		if (cacheFile.exists())
+		{
+			long recordCount = 0;
+			
+			DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(cacheFile)));
+			
+			try
+			{
+				if (input.readInt() != fileMagic)
+				{
+					throw new IOException("Not a hash cache file: " + cacheFile);
+				}
+				
+				while (true)
+				{
+					CacheKey key;
+					byte[] hashData;
+					
+					try
+					{
+						key = readKey(input);
+						hashData = new byte[input.readUnsignedShort()];
+						input.readFully(hashData);
+					}
+					catch (EOFException ex)
+					{
+						// Normal end, or a partial entry from an interrupted
+						// run which we ignore.
+						break;
+					}
+					
+					entries.put(key, hashData);
+					recordCount++;
+				}
+			}
+			finally
+			{
+				input.close();
+			}
+			
+			if (recordCount > minCompactRecords &&
+				recordCount > entries.size() * compactRatio)
+			{
+				rewrite();
+			}
+			
+			appendStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(cacheFile, true)));
+		}
+		else
+		{
+			appendStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(cacheFile)));
+			
+			appendStream.writeInt(fileMagic);
+			appendStream.flush();
+		}
+		
+		unflushedEntries = 0;
+		lastFlushMillis = System.currentTimeMillis();
+	}
+	
+	/// <summary>
+	/// Look up the hash of a file
+	/// </summary>
+	/// <returns>
+	/// The hash, or null if it isn't cached for this version of the file
+	/// </returns>
+	public synchronized FileHash lookup(FileStamp stamp, String hashType)
+	{
+		byte[] hashData = entries.get(new CacheKey(stamp, hashType));
+		
+		if (hashData == null)
+		{
+			return null;
+		}
+		
+		return new FileHash(hashData, hashType);
+	}
+	
+	public synchronized void store(FileStamp stamp, FileHash fileHash)
+	{
+		CacheKey key = new CacheKey(stamp, fileHash.getHashType());
+		entries.put(key, fileHash.getHashData());
+		
+		if (appendStream != null)
+		{
+			try
+			{
+				writeEntry(appendStream, key, fileHash.getHashData());
+				flushOccasionally();
+			}
+			catch (IOException ex)
+			{
+				// The entry is still usable for this run
+			}
+		}
+	}
+	
+	/// <summary>
+	/// Flush after enough entries, or enough time, since the last flush
+	/// </summary>
+	protected void flushOccasionally() throws IOException
+	{
+		unflushedEntries++;
+		
+		long now = System.currentTimeMillis();
+		if (unflushedEntries >= flushEntryInterval ||
+			now - lastFlushMillis >= flushMilliseconds)
+		{
+			appendStream.flush();
+			unflushedEntries = 0;
+			lastFlushMillis = now;
+		}
+	}
+	
+	/// <summary>
+	/// Rewrite the cache file with only the entries that are still cached
+	/// </summary>
+	public synchronized void close() throws IOException
+	{
+		if (appendStream == null)
+		{
+			return;
+		}
+		
+		appendStream.close();
+		appendStream = null;
+		
+		rewrite();
+	}
+	
+	protected void rewrite() throws IOException
+	{
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream output = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(tempFile)));
+		
+		try
+		{
+			output.writeInt(fileMagic);
+			
+			// Least recently used first, so the order survives a reload
+			for (Map.Entry<CacheKey, byte[]> nextEntry : entries.entrySet())
+			{
+				writeEntry(output, nextEntry.getKey(), nextEntry.getValue());
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		
+		Files.move(
+			tempFile.toPath(),
+			cacheFile.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+	
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+	
+	protected static CacheKey readKey(DataInputStream input) throws IOException
+	{
+		FileStamp stamp = new FileStamp(
+			input.readLong(),
+			input.readLong(),
+			input.readLong(),
+			input.readLong(),
+			input.readLong());
+		
+		return new CacheKey(stamp, input.readUTF());
+	}
+	
+	protected static void writeEntry(
+		DataOutputStream output,
+		CacheKey key,
+		byte[] hashData) throws IOException
+	{
+		output.writeLong(key.stamp.getDevice());
+		output.writeLong(key.stamp.getInode());
+		output.writeLong(key.stamp.getSize());
+		output.writeLong(key.stamp.getModifiedNanos());
+		output.writeLong(key.stamp.getChangedNanos());
+		output.writeUTF(key.hashType);
+		output.writeShort(hashData.length);
+		output.write(hashData);
+	}
+	
+	protected static class CacheKey
+	{
+		CacheKey(FileStamp stamp, String hashType)
+		{
+			this.stamp = stamp;
+			this.hashType = hashType;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return stamp.hashCode() * 31 + hashType.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if ((obj instanceof CacheKey) == false)
+			{
+				return false;
+			}
+			
+			CacheKey other = (CacheKey) obj;
+			return stamp.equals(other.stamp) && hashType.equals(other.hashType);
+		}
+		
+		FileStamp stamp;
+		String hashType;
+	}
+	
+	private File cacheFile;
+	private int maxEntries;
+	private LinkedHashMap<CacheKey, byte[]> entries;
+	private DataOutputStream appendStream;
+	private int unflushedEntries;
+	private long lastFlushMillis;
+	
+	private static final int fileMagic = 0x52544843;
+	
+	/// <summary>
+	/// The file is compacted when it is opened if it has more than this
+	/// many records for each entry still in use
+	/// </summary>
+	private static final int compactRatio = 2;
+	private static final int minCompactRecords = 10000;
+	
+	private static final int flushEntryInterval = 1000;
+	private static final long flushMilliseconds = 1000;
+	
+	public static final int defaultMaxEntries = 1000000;
+}
@@ -91,6 +91,8 @@ public class Manifest
 		manifestInfoLastModifiedUtc = other.manifestInfoLastModifiedUtc;
 		ignoreList = new ArrayList<String>(other.ignoreList);
 		defaultHashMethod = other.defaultHashMethod;
+		blockHashSize = other.blockHashSize;
+		quickHashMethod = other.quickHashMethod;
 	}
 
 	public Manifest cloneFromPrototype()
@@ -224,6 +226,64 @@ public class Manifest
 		return byteCount;
 	}
 	
+	/// <summary>
+	/// List every file in the manifest
+	/// </summary>
+	public ArrayList<ManifestFileInfo> listFiles()
+	{
+		ArrayList<ManifestFileInfo> fileList = new ArrayList<ManifestFileInfo>();
+		listFilesRecursive(rootDirectory, fileList);
+		return fileList;
+	}
+
+	protected void listFilesRecursive(
+		ManifestDirectoryInfo currentDir,
+		ArrayList<ManifestFileInfo> fileList)
+	{
+		fileList.addAll(currentDir.getFiles().values());
+		
+		for (ManifestDirectoryInfo nextDirInfo :
+			currentDir.getSubdirectories().values())
+		{
+			listFilesRecursive(nextDirInfo, fileList);
+		}
+	}
+	
+	/// <summary>
+	/// Find the entry in this manifest which has the same path as an entry
+	/// from another copy of the manifest.
+	/// </summary>
+	/// <param name="otherFileInfo">
+	/// The entry from the other manifest
+	/// </param>
+	/// <returns>
+	/// The matching entry, or null if there is none
+	/// </returns>
+	public ManifestFileInfo findMatchingFileInfo(ManifestFileInfo otherFileInfo)
+	{
+		ArrayList<String> directoryNames = new ArrayList<String>();
+		
+		for (ManifestDirectoryInfo nextDir = otherFileInfo.getParentDirectory();
+			nextDir != null && nextDir.getParentDirectory() != null;
+			nextDir = nextDir.getParentDirectory())
+		{
+			directoryNames.add(0, nextDir.getName());
+		}
+		
+		ManifestDirectoryInfo currentDir = rootDirectory;
+		for (String nextName : directoryNames)
+		{
+			currentDir = currentDir.getSubdirectories().get(nextName);
+			
+			if (currentDir == null)
+			{
+				return null;
+			}
+		}
+		
+		return currentDir.getFiles().get(otherFileInfo.getName());
+	}
+	
 	private static Gson makeGson()
 	{
 		return new GsonBuilder()
@@ -361,6 +421,47 @@ public class Manifest
 		this.defaultHashMethod = defaultHashMethod;
 	}
 
+	/// <summary>
+	/// Files larger than this also get a hash for each block of this size.
+	/// Zero means that block hashes are not kept.
+	/// </summary>
+	public long getBlockHashSize()
+	{
+		if (blockHashSize == null)
+		{
+			return 0;
+		}
+		
+		return blockHashSize;
+	}
+
+	public void setBlockHashSize(long blockHashSize)
+	{
+		if (blockHashSize > 0)
+		{
+			this.blockHashSize = blockHashSize;
+		}
+		else
+		{
+			// Leave it out of the manifest file altogether
+			this.blockHashSize = null;
+		}
+	}
+
+	/// <summary>
+	/// A cheap checksum kept for each file alongside its hash, which
+	/// validate -quick checks instead.  Null means that none is kept.
+	/// </summary>
+	public String getQuickHashMethod()
+	{
+		return quickHashMethod;
+	}
+
+	public void setQuickHashMethod(String quickHashMethod)
+	{
+		this.quickHashMethod = quickHashMethod;
+	}
+
 	public UUID getGuid()
 	{
 		return guid;
@@ -392,6 +493,8 @@ public class Manifest
 	private Date manifestInfoLastModifiedUtc;
 	private ArrayList<String> ignoreList;
 	private String defaultHashMethod;
+	private Long blockHashSize;
+	private String quickHashMethod;
 	
 	
 	// Static
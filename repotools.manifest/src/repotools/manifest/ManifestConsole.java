@@ -66,16 +66,19 @@ public class ManifestConsole extends repotools.utilities.Console
 		}
 	}
 
+	/// <summary>
+	/// Show groups of files, such as duplicates keyed by their hash
+	/// </summary>
 	public void detailFiles(
-		Map<FileHash, ArrayList<ManifestFileInfo>> files)
+		Map<?, ArrayList<ManifestFileInfo>> files)
 	{
 		if (detail)
 		{
-			for (FileHash nextHash : files.keySet())
+			for (Object nextKey : files.keySet())
 			{
-				writeLine("   " + nextHash.toString());
+				writeLine("   " + nextKey.toString());
 				
-				for (ManifestFileInfo nextFile : files.get(nextHash))
+				for (ManifestFileInfo nextFile : files.get(nextKey))
 				{
 					writeLine("      " + Manifest.makeStandardPathString(nextFile));
 				}
@@ -85,4 +88,25 @@ public class ManifestConsole extends repotools.utilities.Console
 			writeLine();
 		}
 	}
+
+	public void detailBlockRanges(
+		Map<ManifestFileInfo, ArrayList<BlockRange>> fileRanges)
+	{
+		if (detail)
+		{
+			for (ManifestFileInfo nextFile : fileRanges.keySet())
+			{
+				write("   " + Manifest.makeStandardPathString(nextFile) + " bytes");
+				
+				for (BlockRange nextRange : fileRanges.get(nextFile))
+				{
+					write(" " + nextRange.toString());
+				}
+				
+				writeLine();
+			}
+			
+			writeLine();
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package repotools.manifest;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +21,8 @@ public class ManifestDirectoryInfo extends ManifestObjectInfo
 	{
 		super(original.getName(), parentDirectory);
 		
+		this.lastModifiedUtc = original.lastModifiedUtc;
+		this.entryCount = original.entryCount;
 		this.files = new HashMap<String , ManifestFileInfo>();
 		this.subdirectories = new HashMap<String , ManifestDirectoryInfo>();
 
@@ -51,6 +54,33 @@ public class ManifestDirectoryInfo extends ManifestObjectInfo
 			this.subdirectories.size() == 0;
 	}
 
+	/// <summary>
+	/// The last modified date the directory had when it was last listed,
+	/// or null if it wasn't recorded.  Adding, removing or renaming an
+	/// entry changes it, but changing the contents of a file doesn't.
+	/// </summary>
+	public Date getLastModifiedUtc()
+	{
+		return lastModifiedUtc;
+	}
+	public void setLastModifiedUtc(Date lastModifiedUtc)
+	{
+		this.lastModifiedUtc = lastModifiedUtc;
+	}
+
+	/// <summary>
+	/// The number of entries the directory had when it was last listed,
+	/// including ignored files, or null if it wasn't recorded
+	/// </summary>
+	public Integer getEntryCount()
+	{
+		return entryCount;
+	}
+	public void setEntryCount(Integer entryCount)
+	{
+		this.entryCount = entryCount;
+	}
+
 	public Map<String, ManifestFileInfo> getFiles()
 	{
 		return files;
@@ -61,6 +91,8 @@ public class ManifestDirectoryInfo extends ManifestObjectInfo
 		return subdirectories;
 	}
 
+	private Date lastModifiedUtc;
+	private Integer entryCount;
 	private Map<String , ManifestFileInfo> files;
 	private Map<String , ManifestDirectoryInfo> subdirectories;
 }
@@ -21,6 +21,11 @@ public class ManifestFileInfo extends ManifestObjectInfo
 			this.lastModifiedUtc = original.lastModifiedUtc;
 			this.registeredUtc = original.registeredUtc;
 			this.fileHash = original.fileHash;
+			this.blockHashes = original.blockHashes;
+			this.lastValidatedUtc = original.lastValidatedUtc;
+			this.partialHash = original.partialHash;
+			this.appendCheckpoint = original.appendCheckpoint;
+			this.quickHash = original.quickHash;
 	}
 
 	public long getFileLength()
@@ -56,8 +61,93 @@ public class ManifestFileInfo extends ManifestObjectInfo
 		this.fileHash = fileHash;
 	}
 
+	public FileBlockHashes getBlockHashes()
+	{
+		return blockHashes;
+	}
+	public void setBlockHashes(FileBlockHashes blockHashes)
+	{
+		this.blockHashes = blockHashes;
+	}
+
+	public Date getLastValidatedUtc()
+	{
+		return lastValidatedUtc;
+	}
+	public void setLastValidatedUtc(Date lastValidatedUtc)
+	{
+		this.lastValidatedUtc = lastValidatedUtc;
+	}
+
+	public FileHash getPartialHash()
+	{
+		return partialHash;
+	}
+	public void setPartialHash(FileHash partialHash)
+	{
+		this.partialHash = partialHash;
+	}
+
+	public AppendCheckpoint getAppendCheckpoint()
+	{
+		return appendCheckpoint;
+	}
+	public void setAppendCheckpoint(AppendCheckpoint appendCheckpoint)
+	{
+		this.appendCheckpoint = appendCheckpoint;
+	}
+
+	public FileHash getQuickHash()
+	{
+		return quickHash;
+	}
+	public void setQuickHash(FileHash quickHash)
+	{
+		this.quickHash = quickHash;
+	}
+
+	/// <summary>
+	/// The date used to decide which files to scrub first.  Files which
+	/// have never been validated count from when they were registered.
+	/// </summary>
+	public Date getValidationOrderDate()
+	{
+		if (lastValidatedUtc != null)
+		{
+			return lastValidatedUtc;
+		}
+		
+		if (registeredUtc != null)
+		{
+			return registeredUtc;
+		}
+		
+		return new Date(0);
+	}
+
 	private long fileLength;
 	private Date lastModifiedUtc;
 	private Date registeredUtc;
 	private FileHash fileHash;
+	
+	// Only present for large files when the manifest has a block size
+	private FileBlockHashes blockHashes;
+	
+	// When the contents were last checked against the hash, or null if
+	// they never have been
+	private Date lastValidatedUtc;
+	
+	// Hash of just the start and end of the file, to rule out most files
+	// of the same size as moves without reading them in full.  Only
+	// present for files which are larger than the two samples.
+	private FileHash partialHash;
+	
+	// Only present for large files which have grown since they were
+	// registered, which are likely to be logs or archives that are only
+	// ever added to
+	private AppendCheckpoint appendCheckpoint;
+	
+	// Cheap checksum of the same contents as the hash, made in the same
+	// read, when the manifest has a quick hash method
+	private FileHash quickHash;
 }
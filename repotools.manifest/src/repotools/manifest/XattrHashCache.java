@@ -0,0 +1,170 @@
+package repotools.manifest;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+
+import repotools.utilities.FileStamp;
+
+/// <summary>
+/// Keeps the hash of each file in a user extended attribute of the file
+/// itself, along with the size and last modified time it had when it was
+/// hashed.  The hash then moves with the file when it is renamed, and can
+/// be read by other tools.  The attribute for MD5 is user.repotool.MD5,
+/// and holds the size, the last modified time in nanoseconds and the hash
+/// in hex, separated by spaces.
+///
+/// Writing an attribute changes the change time of the file, so unlike
+/// HashCache the change time isn't checked.  Files on filesystems without
+/// user attributes, or which can't be written, are quietly skipped.  The
+/// cache is read only until it is made writable, so that a command which
+/// doesn't change the repository doesn't change the files either.
+/// </summary>
+public class XattrHashCache
+{
+	public XattrHashCache()
+	{
+		writable = false;
+	}
+
+	/// <summary>
+	/// Look up the hash of a file
+	/// </summary>
+	/// <returns>
+	/// The hash, or null if the file doesn't have one for its current
+	/// size and last modified time
+	/// </returns>
+	public FileHash lookup(File file, FileStamp stamp, String hashType)
+	{
+		String value = readAttribute(file, getAttributeName(hashType));
+		if (value == null)
+		{
+			return null;
+		}
+
+		String[] fields = value.trim().split(" ");
+		if (fields.length != 3)
+		{
+			return null;
+		}
+
+		try
+		{
+			if (Long.parseLong(fields[0]) != stamp.getSize() ||
+				Long.parseLong(fields[1]) != stamp.getModifiedNanos())
+			{
+				return null;
+			}
+
+			byte[] hashData = FileHash.parseHex(fields[2]);
+
+			return new FileHash(hashData, hashType);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Includes NumberFormatException, for a value written by
+			// something else
+			return null;
+		}
+	}
+
+	/// <summary>
+	/// Store the hash of a file, which had the given stamp when it was
+	/// read.  An attribute which already holds the same value is left alone.
+	/// </summary>
+	public void store(File file, FileStamp stamp, FileHash hash)
+	{
+		if (writable == false)
+		{
+			return;
+		}
+
+		String value =
+			stamp.getSize() + " " +
+			stamp.getModifiedNanos() + " " +
+			hash.toString();
+
+		String name = getAttributeName(hash.getHashType());
+
+		if (value.equals(readAttribute(file, name)))
+		{
+			return;
+		}
+
+		try
+		{
+			UserDefinedFileAttributeView view = getView(file);
+			if (view != null)
+			{
+				view.write(name, StandardCharsets.US_ASCII.encode(value));
+			}
+		}
+		catch (Exception ex)
+		{
+			// Read only, or the filesystem doesn't support it
+		}
+	}
+
+	protected String readAttribute(File file, String name)
+	{
+		try
+		{
+			UserDefinedFileAttributeView view = getView(file);
+			if (view == null)
+			{
+				return null;
+			}
+
+			int size = view.size(name);
+			if (size > maxValueLength)
+			{
+				return null;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			view.read(name, buffer);
+			buffer.flip();
+
+			return StandardCharsets.US_ASCII.decode(buffer).toString();
+		}
+		catch (Exception ex)
+		{
+			// Usually because the file has no such attribute
+			return null;
+		}
+	}
+
+	protected UserDefinedFileAttributeView getView(File file)
+	{
+		return Files.getFileAttributeView(
+			file.toPath(),
+			UserDefinedFileAttributeView.class);
+	}
+
+	/// <summary>
+	/// The name of the attribute, without the "user." namespace which the
+	/// view adds
+	/// </summary>
+	public static String getAttributeName(String hashType)
+	{
+		return attributePrefix + hashType;
+	}
+
+	public boolean isWritable()
+	{
+		return writable;
+	}
+
+	public void setWritable(boolean writable)
+	{
+		this.writable = writable;
+	}
+
+	private boolean writable;
+
+	public static final String attributePrefix = "repotool.";
+
+	private static final int maxValueLength = 1024;
+}
@@ -0,0 +1,81 @@
+package repotools.manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FileBlockHashesTest
+{
+	@Test
+	public void sameBlocksHaveNoRanges()
+	{
+		FileBlockHashes stored = makeBlockHashes(1, 2, 3);
+		
+		assertTrue(stored.findDifferentRanges(makeHashes(1, 2, 3), 2500).isEmpty());
+	}
+
+	@Test
+	public void adjacentBlocksAreCombined()
+	{
+		FileBlockHashes stored = makeBlockHashes(1, 2, 3, 4, 5);
+		
+		List<BlockRange> ranges =
+			stored.findDifferentRanges(makeHashes(1, 9, 9, 4, 9), 4500);
+		
+		assertEquals(2, ranges.size());
+		checkRange(ranges.get(0), 1000, 2999);
+		checkRange(ranges.get(1), 4000, 4499);
+	}
+
+	@Test
+	public void grownFileEndsAtItsLength()
+	{
+		FileBlockHashes stored = makeBlockHashes(1, 2);
+		
+		List<BlockRange> ranges =
+			stored.findDifferentRanges(makeHashes(1, 2, 3, 4), 3200);
+		
+		assertEquals(1, ranges.size());
+		checkRange(ranges.get(0), 2000, 3199);
+	}
+
+	@Test
+	public void shrunkFileStillReportsMissingBlocks()
+	{
+		FileBlockHashes stored = makeBlockHashes(1, 2, 3);
+		
+		List<BlockRange> ranges =
+			stored.findDifferentRanges(makeHashes(1), 1000);
+		
+		assertEquals(1, ranges.size());
+		assertEquals(1000, ranges.get(0).getStart());
+	}
+
+	protected static void checkRange(BlockRange range, long start, long end)
+	{
+		assertEquals(start, range.getStart());
+		assertEquals(end, range.getEnd());
+	}
+
+	protected static FileBlockHashes makeBlockHashes(int... values)
+	{
+		return new FileBlockHashes("MD5", 1000, new byte[16], makeHashes(values));
+	}
+
+	protected static List<byte[]> makeHashes(int... values)
+	{
+		List<byte[]> hashes = new ArrayList<byte[]>();
+		for (int nextValue : values)
+		{
+			byte[] hash = new byte[16];
+			hash[0] = (byte) nextValue;
+			hashes.add(hash);
+		}
+		
+		return hashes;
+	}
+}
@@ -0,0 +1,71 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import repotools.manifest.BlockRange;
+import repotools.manifest.FileBlockHashes;
+import repotools.utilities.CryptUtilities;
+import repotools.utilities.HashEngine;
+
+/// <summary>
+/// Checks a file against the block hashes in the manifest, without
+/// computing its whole-file hash.  The blocks are read in parallel where
+/// the read options allow, and the root of their hashes is compared with
+/// the stored root.
+/// </summary>
+public class BlockVerifier
+{
+	public BlockVerifier(HashEngine hashEngine)
+	{
+		this.hashEngine = hashEngine;
+	}
+
+	/// <param name="expectedLength">
+	/// The length of the file in the manifest
+	/// </param>
+	/// <returns>
+	/// The ranges of the file which differ from the manifest, or null if
+	/// the file matches
+	/// </returns>
+	public ArrayList<BlockRange> verify(
+		File file,
+		FileBlockHashes storedBlocks,
+		long expectedLength) throws Exception
+	{
+		List<byte[]> blockHashes = Arrays.asList(
+			hashEngine.computeBlockHashes(
+				file,
+				storedBlocks.getHashType(),
+				storedBlocks.getBlockSize()));
+
+		byte[] rootHash = CryptUtilities.computeMerkleRoot(
+			blockHashes,
+			storedBlocks.getHashType());
+
+		if (file.length() == expectedLength &&
+			Arrays.equals(rootHash, storedBlocks.getRootHash()))
+		{
+			return null;
+		}
+
+		ArrayList<BlockRange> ranges = storedBlocks.findDifferentRanges(
+			blockHashes,
+			file.length());
+
+		if (ranges.isEmpty())
+		{
+			// Every block matches, so it is the manifest which doesn't
+			// agree with itself
+			throw new Exception(
+				"The root of the block hashes in the manifest " +
+				"doesn't match the block hashes.");
+		}
+
+		return ranges;
+	}
+
+	private HashEngine hashEngine;
+}
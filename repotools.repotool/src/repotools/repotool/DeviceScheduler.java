@@ -0,0 +1,232 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/// <summary>
+/// Orders hashing work to suit the storage devices it reads from.  Work is
+/// grouped by the device that holds each file, and each device has its own
+/// cap on concurrent reads: a single stream for a spinning disk, so that it
+/// doesn't seek back and forth between files, and several for solid state
+/// or unknown devices.  Within a device, pending work is started in inode
+/// order, which roughly follows the layout of the files on disk.
+/// </summary>
+public class DeviceScheduler
+{
+	/// <param name="executor">
+	/// Runs the work once it has been scheduled
+	/// </param>
+	/// <param name="streamsPerDevice">
+	/// Concurrent reads allowed for a device which isn't a spinning disk
+	/// </param>
+	/// <param name="streamsPerRotationalDevice">
+	/// Concurrent reads allowed for a spinning disk
+	/// </param>
+	public DeviceScheduler(
+		Executor executor,
+		int streamsPerDevice,
+		int streamsPerRotationalDevice)
+	{
+		this.executor = executor;
+		this.streamsPerDevice = Math.max(1, streamsPerDevice);
+		this.streamsPerRotationalDevice = Math.max(1, streamsPerRotationalDevice);
+		
+		devices = new HashMap<Object, DeviceQueue>();
+		sequence = 0;
+	}
+	
+	/// <summary>
+	/// Queue work which reads the given file
+	/// </summary>
+	public void schedule(Runnable work, File file)
+	{
+		Object deviceKey = unknownDevice;
+		long inode = 0;
+		
+		if (file != null)
+		{
+			try
+			{
+				Map<String, Object> attributes =
+					Files.readAttributes(file.toPath(), "unix:dev,ino");
+				
+				deviceKey = attributes.get("dev");
+				inode = (Long) attributes.get("ino");
+			}
+			catch (Exception ex)
+			{
+				// Not a unix filesystem, so we can't tell devices apart
+			}
+		}
+		
+		synchronized (this)
+		{
+			DeviceQueue device = devices.get(deviceKey);
+			if (device == null)
+			{
+				device = new DeviceQueue(
+					deviceKey == unknownDevice ? "unknown" : deviceKey.toString(),
+					isRotational(file) ?
+						streamsPerRotationalDevice :
+						streamsPerDevice);
+				
+				devices.put(deviceKey, device);
+			}
+			
+			device.queue.add(new ScheduledWork(work, inode, sequence++));
+			dispatch(device);
+		}
+	}
+	
+	protected synchronized void dispatch(final DeviceQueue device)
+	{
+		while (device.active < device.maxActive &&
+			device.queue.isEmpty() == false)
+		{
+			final ScheduledWork next = device.queue.remove();
+			device.active++;
+			
+			try
+			{
+				start(device, next);
+			}
+			catch (RejectedExecutionException ex)
+			{
+				// The executor has been shut down, so nothing more will run.
+				// Work still queued at that point is only block reading
+				// helpers whose file has already been read.
+				device.active--;
+				device.queue.clear();
+			}
+		}
+	}
+	
+	protected void start(final DeviceQueue device, final ScheduledWork next)
+	{
+		executor.execute(
+			new Runnable()
+			{
+				public void run()
+				{
+					// Show which device the thread is reading from,
+					// for thread dumps and profilers
+					Thread thread = Thread.currentThread();
+					String threadName = thread.getName();
+					thread.setName(threadName + " device " + device.name);
+					
+					try
+					{
+						next.work.run();
+					}
+					finally
+					{
+						thread.setName(threadName);
+						completed(device);
+					}
+				}
+			});
+	}
+	
+	protected synchronized void completed(DeviceQueue device)
+	{
+		device.active--;
+		dispatch(device);
+	}
+	
+	/// <summary>
+	/// Check whether the file is on a spinning disk.  This only works on
+	/// Linux, where the kernel reports it under /sys/class/block.
+	/// </summary>
+	protected static boolean isRotational(File file)
+	{
+		if (file == null)
+		{
+			return false;
+		}
+		
+		try
+		{
+			FileStore store = Files.getFileStore(file.toPath());
+			String deviceName = new File(store.name()).getName();
+			
+			Path blockPath = Paths.get("/sys/class/block", deviceName);
+			Path rotationalPath = blockPath.resolve("queue/rotational");
+			
+			if (Files.exists(rotationalPath) == false)
+			{
+				// A partition, so look at the disk which contains it
+				rotationalPath = blockPath.toRealPath().getParent().resolve(
+					"queue/rotational");
+			}
+			
+			if (Files.exists(rotationalPath))
+			{
+				String value = new String(Files.readAllBytes(rotationalPath)).trim();
+				return value.equals("1");
+			}
+		}
+		catch (Exception ex)
+		{
+			// Treat as not rotational
+		}
+		
+		return false;
+	}
+	
+	protected static class DeviceQueue
+	{
+		DeviceQueue(String name, int maxActive)
+		{
+			this.name = name;
+			this.maxActive = maxActive;
+			this.active = 0;
+			this.queue = new PriorityQueue<ScheduledWork>();
+		}
+		
+		String name;
+		int maxActive;
+		int active;
+		PriorityQueue<ScheduledWork> queue;
+	}
+	
+	protected static class ScheduledWork implements Comparable<ScheduledWork>
+	{
+		ScheduledWork(Runnable work, long inode, long sequence)
+		{
+			this.work = work;
+			this.inode = inode;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public int compareTo(ScheduledWork other)
+		{
+			if (inode != other.inode)
+			{
+				return Long.compare(inode, other.inode);
+			}
+			
+			return Long.compare(sequence, other.sequence);
+		}
+		
+		Runnable work;
+		long inode;
+		long sequence;
+	}
+	
+	private Executor executor;
+	private int streamsPerDevice;
+	private int streamsPerRotationalDevice;
+	private Map<Object, DeviceQueue> devices;
+	private long sequence;
+	
+	private static final Object unknownDevice = new Object();
+}
@@ -0,0 +1,324 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import repotools.utilities.ScannedFile;
+
+/// <summary>
+/// Lists directories for the walk.  With more than one thread, the
+/// subdirectories of each directory are listed in parallel on a fork/join
+/// pool, ahead of the walk, and each of those forks the listing of its own
+/// subdirectories, so that the whole tree is listed at once.  The walk
+/// still visits the directories in its own order, taking each listing as
+/// it gets there, so the reports are the same as with a single thread.
+///
+/// The listings which are done but not yet taken are limited to a total
+/// number of entries.  Beyond that, no more listings are started until the
+/// walk catches up, which it does whenever hashing holds it up.  Listings
+/// which the walk never takes, because it skipped the directory or didn't
+/// need to list it, are dropped along with everything forked from them
+/// once the walk has finished their parent.
+/// </summary>
+public class DirectoryScanner
+{
+	/// <param name="threads">
+	/// Number of threads listing directories at once.  With one, each
+	/// directory is only listed when the walk gets to it.
+	/// </param>
+	public DirectoryScanner(int threads)
+	{
+		this(threads, defaultMaxPendingEntries);
+	}
+
+	public DirectoryScanner(int threads, long maxPendingEntries)
+	{
+		this.maxPendingEntries = maxPendingEntries;
+		readStamps = false;
+
+		pendingTasks = new ConcurrentHashMap<String, ScanTask>();
+		pendingEntries = new AtomicLong(0);
+		walkedTasks = new ConcurrentHashMap<String, List<ScanTask>>();
+
+		pool = null;
+		if (threads > 1)
+		{
+			pool = new ForkJoinPool(threads);
+		}
+	}
+
+	/// <summary>
+	/// List the entries of a directory, reading the attributes of each one
+	/// once, so that the walk doesn't have to ask for them again
+	/// </summary>
+	public List<ScannedFile> scan(File directory) throws IOException
+	{
+		ScanTask task = pendingTasks.remove(directory.getPath());
+
+		if (task == null)
+		{
+			List<ScannedFile> entries = listDirectory(directory, readStamps);
+			keepForkedTasks(directory, forkSubdirectories(entries));
+			return entries;
+		}
+
+		task.join();
+		pendingEntries.addAndGet(-task.getEntryCount());
+
+		if (task.getError() != null)
+		{
+			throw task.getError();
+		}
+
+		keepForkedTasks(directory, task.getForkedTasks());
+		return task.getEntries();
+	}
+	
+	/// <summary>
+	/// Called by the walk when it is done with a directory and everything
+	/// under it, to drop the listings of its subdirectories which it didn't
+	/// take
+	/// </summary>
+	public void finishDirectory(File directory)
+	{
+		List<ScanTask> forkedTasks = walkedTasks.remove(directory.getPath());
+
+		if (forkedTasks != null)
+		{
+			discardTasks(forkedTasks);
+		}
+	}
+	
+	protected void keepForkedTasks(File directory, List<ScanTask> forkedTasks)
+	{
+		if (forkedTasks.isEmpty() == false)
+		{
+			walkedTasks.put(directory.getPath(), forkedTasks);
+		}
+	}
+	
+	/// <summary>
+	/// Drop the listings which haven't been taken, and those forked from them
+	/// </summary>
+	protected void discardTasks(List<ScanTask> tasks)
+	{
+		for (ScanTask nextTask : tasks)
+		{
+			if (pendingTasks.remove(nextTask.getDirectory().getPath(), nextTask))
+			{
+				// Nothing waits for it, so one which hasn't started needn't
+				nextTask.cancel(false);
+				discardTasks(nextTask.discard());
+			}
+		}
+	}
+
+	/// <summary>
+	/// Start listing the subdirectories ahead of the walk, unless there are
+	/// too many listings waiting already
+	/// </summary>
+	/// <returns>
+	/// The listings started
+	/// </returns>
+	protected List<ScanTask> forkSubdirectories(List<ScannedFile> entries)
+	{
+		List<ScanTask> forkedTasks = new ArrayList<ScanTask>();
+		
+		if (pool == null ||
+			pendingEntries.get() >= maxPendingEntries)
+		{
+			return forkedTasks;
+		}
+
+		for (ScannedFile nextEntry : entries)
+		{
+			if (nextEntry.isDirectory())
+			{
+				ScanTask task = new ScanTask(nextEntry);
+				pendingTasks.put(nextEntry.getPath(), task);
+				forkedTasks.add(task);
+
+				if (ForkJoinTask.getPool() == pool)
+				{
+					task.fork();
+				}
+				else
+				{
+					pool.execute(task);
+				}
+			}
+		}
+		
+		return forkedTasks;
+	}
+
+	/// <summary>
+	/// Stop listing, and forget the listings which the walk didn't take
+	/// </summary>
+	public void shutdown()
+	{
+		if (pool != null)
+		{
+			pool.shutdownNow();
+		}
+
+		pendingTasks.clear();
+		pendingEntries.set(0);
+		walkedTasks.clear();
+	}
+
+	/// <summary>
+	/// Read the FileStamp of each entry along with its attributes
+	/// </summary>
+	public void setReadStamps(boolean readStamps)
+	{
+		this.readStamps = readStamps;
+	}
+
+	public static List<ScannedFile> listDirectory(
+		File directory,
+		boolean readStamps) throws IOException
+	{
+		List<ScannedFile> entries = new ArrayList<ScannedFile>();
+
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath());
+
+		try
+		{
+			for (Path nextPath : stream)
+			{
+				entries.add(ScannedFile.scan(nextPath, readStamps));
+			}
+		}
+		catch (DirectoryIteratorException ex)
+		{
+			throw ex.getCause();
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		return entries;
+	}
+
+	/// <summary>
+	/// The listing of one directory, which forks the listings of its
+	/// subdirectories when it is done
+	/// </summary>
+	protected class ScanTask extends RecursiveAction
+	{
+		public ScanTask(File directory)
+		{
+			this.directory = directory;
+			forkedTasks = new ArrayList<ScanTask>();
+			discarded = false;
+		}
+
+		@Override
+		protected void compute()
+		{
+			List<ScannedFile> listedEntries;
+			
+			try
+			{
+				listedEntries = listDirectory(directory, readStamps);
+			}
+			catch (IOException ex)
+			{
+				error = ex;
+				return;
+			}
+
+			synchronized (this)
+			{
+				if (discarded)
+				{
+					return;
+				}
+				
+				entries = listedEntries;
+				pendingEntries.addAndGet(entries.size());
+				forkedTasks = forkSubdirectories(entries);
+			}
+		}
+		
+		/// <summary>
+		/// Forget the listing, which the walk won't take
+		/// </summary>
+		/// <returns>
+		/// The listings forked from this one, to be dropped as well
+		/// </returns>
+		public synchronized List<ScanTask> discard()
+		{
+			discarded = true;
+			pendingEntries.addAndGet(-getEntryCount());
+			entries = null;
+			
+			return forkedTasks;
+		}
+		
+		public File getDirectory()
+		{
+			return directory;
+		}
+
+		public List<ScannedFile> getEntries()
+		{
+			return entries;
+		}
+
+		public synchronized int getEntryCount()
+		{
+			if (entries == null)
+			{
+				return 0;
+			}
+
+			return entries.size();
+		}
+		
+		public synchronized List<ScanTask> getForkedTasks()
+		{
+			return forkedTasks;
+		}
+
+		public IOException getError()
+		{
+			return error;
+		}
+
+		private File directory;
+		private List<ScannedFile> entries;
+		private IOException error;
+		private List<ScanTask> forkedTasks;
+		private boolean discarded;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private ForkJoinPool pool;
+	private ConcurrentHashMap<String, ScanTask> pendingTasks;
+	private AtomicLong pendingEntries;
+	
+	/// <summary>
+	/// The listings forked from each directory the walk has taken, until
+	/// the walk is done with it
+	/// </summary>
+	private ConcurrentHashMap<String, List<ScanTask>> walkedTasks;
+	private long maxPendingEntries;
+	private boolean readStamps;
+
+	public static final long defaultMaxPendingEntries = 1000000;
+}
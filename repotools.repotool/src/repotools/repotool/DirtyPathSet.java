@@ -0,0 +1,588 @@
+package repotools.repotool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import repotools.manifest.Manifest;
+
+/// <summary>
+/// The paths which have changed in a repository since its manifest was
+/// last updated, as kept by "rt watch".  The watcher appends to the file
+/// next to the manifest about once a second, with the changes since the
+/// last time and a heartbeat, whether or not anything changed.  Once enough
+/// has been appended, the file is replaced by one with just the current
+/// set.  Each path is recorded with the time the change was seen, as a
+/// standard path like "./dir/file".  A path may be a file or a directory,
+/// and may no longer exist.
+///
+/// An update which is done while the watcher is running acknowledges it,
+/// in a second small file, with the time up to which the manifest now
+/// covers the changes.  The watcher then forgets the paths changed before
+/// that, and the next status or update only needs to look at the rest.  The
+/// set is only trusted when the watcher was running throughout, as shown by
+/// a recent heartbeat and an acknowledgement of the manifest as it is now
+/// from the same run of the watcher, and when no changes were lost because
+/// the watch overflowed.
+/// </summary>
+public class DirtyPathSet
+{
+	public DirtyPathSet(long startedMillis)
+	{
+		this.startedMillis = startedMillis;
+		heartbeatMillis = startedMillis;
+		overflowMillis = 0;
+		paths = new LinkedHashMap<String, Long>();
+		
+		changeBuffer = new ByteArrayOutputStream();
+		changes = new DataOutputStream(changeBuffer);
+		appendStream = null;
+		appendedBytes = 0;
+		compactedBytes = 0;
+	}
+
+	/// <summary>
+	/// Record that a path changed
+	/// </summary>
+	public synchronized void markDirty(String standardPath, long timeMillis)
+	{
+		applyDirty(standardPath, timeMillis);
+		
+		try
+		{
+			changes.writeByte(dirtyRecord);
+			changes.writeUTF(standardPath);
+			changes.writeLong(timeMillis);
+		}
+		catch (IOException ex)
+		{
+			// Can't happen when writing to memory
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	protected void applyDirty(String standardPath, long timeMillis)
+	{
+		// Keep the path in the order of its latest change
+		paths.remove(standardPath);
+		paths.put(standardPath, timeMillis);
+	}
+
+	/// <summary>
+	/// Record that changes were lost, so that only a full scan can be
+	/// trusted until the next update
+	/// </summary>
+	public synchronized void markOverflow(long timeMillis)
+	{
+		if (overflowMillis == timeMillis)
+		{
+			return;
+		}
+		
+		overflowMillis = timeMillis;
+		
+		try
+		{
+			changes.writeByte(overflowRecord);
+			changes.writeLong(timeMillis);
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/// <summary>
+	/// Forget the changes which an update has taken into account
+	/// </summary>
+	public synchronized void acknowledge(Acknowledgement ack)
+	{
+		if (ack.getStartedMillis() != startedMillis)
+		{
+			return;
+		}
+		
+		applyAcknowledgement(ack.getCoveredMillis());
+		
+		try
+		{
+			changes.writeByte(acknowledgeRecord);
+			changes.writeLong(ack.getCoveredMillis());
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	protected void applyAcknowledgement(long coveredMillis)
+	{
+		Iterator<Map.Entry<String, Long>> iterator = paths.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().getValue() <= coveredMillis)
+			{
+				iterator.remove();
+			}
+		}
+
+		if (overflowMillis <= coveredMillis)
+		{
+			overflowMillis = 0;
+		}
+	}
+
+	/// <summary>
+	/// Find the paths which need to be checked to bring a manifest up to
+	/// date
+	/// </summary>
+	/// <param name="ack">
+	/// The last acknowledgement, or null if there is none
+	/// </param>
+	/// <param name="manifestLastUpdate">
+	/// The date of the last update of the manifest
+	/// </param>
+	/// <returns>
+	/// The paths, or null if the whole repository has to be scanned
+	/// </returns>
+	public synchronized List<String> getChangedPaths(
+		Acknowledgement ack,
+		Date manifestLastUpdate)
+	{
+		if (ack == null ||
+			ack.getStartedMillis() != startedMillis ||
+			manifestLastUpdate == null ||
+			Manifest.compareManifestDates(
+				manifestLastUpdate,
+				new Date(ack.getManifestUpdateMillis())) == false)
+		{
+			return null;
+		}
+
+		if (overflowMillis > ack.getCoveredMillis())
+		{
+			return null;
+		}
+
+		List<String> changedPaths = new ArrayList<String>();
+		for (Map.Entry<String, Long> nextEntry : paths.entrySet())
+		{
+			if (nextEntry.getValue() > ack.getCoveredMillis())
+			{
+				changedPaths.add(nextEntry.getKey());
+			}
+		}
+
+		return changedPaths;
+	}
+
+	/// <summary>
+	/// Append the changes since the last write to the file, with a new
+	/// heartbeat.  The first time, and once the file has grown enough, it is
+	/// replaced all at once by one with just the current set, so a reader
+	/// never sees part of it.  A reader may still see part of the last
+	/// record appended, which it ignores.
+	/// </summary>
+	public synchronized void write(File file, long heartbeatMillis) throws IOException
+	{
+		this.heartbeatMillis = heartbeatMillis;
+		
+		if (appendStream == null ||
+			appendedBytes > Math.max(minCompactBytes, compactedBytes))
+		{
+			compact(file);
+			return;
+		}
+		
+		changes.writeByte(heartbeatRecord);
+		changes.writeLong(heartbeatMillis);
+		changes.flush();
+		
+		changeBuffer.writeTo(appendStream);
+		appendStream.flush();
+		
+		appendedBytes += changes.size();
+		changeBuffer.reset();
+		changes = new DataOutputStream(changeBuffer);
+	}
+	
+	/// <summary>
+	/// Stop appending to the file
+	/// </summary>
+	public synchronized void close() throws IOException
+	{
+		if (appendStream != null)
+		{
+			appendStream.close();
+			appendStream = null;
+		}
+	}
+	
+	protected void compact(File file) throws IOException
+	{
+		close();
+		
+		File tempFile = new File(file.getPath() + tempFileSuffix);
+
+		DataOutputStream output = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+		try
+		{
+			output.writeInt(fileMagic);
+			output.writeLong(startedMillis);
+			output.writeLong(heartbeatMillis);
+			output.writeLong(overflowMillis);
+			output.writeInt(paths.size());
+
+			for (Map.Entry<String, Long> nextEntry : paths.entrySet())
+			{
+				output.writeUTF(nextEntry.getKey());
+				output.writeLong(nextEntry.getValue());
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+
+		Files.move(
+			tempFile.toPath(),
+			file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		
+		appendStream = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file, true)));
+		
+		appendedBytes = 0;
+		compactedBytes = file.length();
+		changeBuffer.reset();
+		changes = new DataOutputStream(changeBuffer);
+	}
+
+	public static DirtyPathSet read(File file) throws IOException
+	{
+		DataInputStream input = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			if (input.readInt() != fileMagic)
+			{
+				throw new IOException("Not a set of changed paths: " + file);
+			}
+
+			DirtyPathSet set = new DirtyPathSet(input.readLong());
+			set.heartbeatMillis = input.readLong();
+			set.overflowMillis = input.readLong();
+
+			int count = input.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String path = input.readUTF();
+				set.paths.put(path, input.readLong());
+			}
+			
+			set.readAppended(input);
+
+			return set;
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+	
+	/// <summary>
+	/// Apply the records appended since the file was last replaced
+	/// </summary>
+	protected void readAppended(DataInputStream input) throws IOException
+	{
+		while (true)
+		{
+			try
+			{
+				int kind = input.read();
+				
+				if (kind == dirtyRecord)
+				{
+					String path = input.readUTF();
+					applyDirty(path, input.readLong());
+				}
+				else if (kind == overflowRecord)
+				{
+					overflowMillis = input.readLong();
+				}
+				else if (kind == acknowledgeRecord)
+				{
+					applyAcknowledgement(input.readLong());
+				}
+				else if (kind == heartbeatRecord)
+				{
+					heartbeatMillis = input.readLong();
+				}
+				else if (kind == -1)
+				{
+					break;
+				}
+				else
+				{
+					throw new IOException("Unrecognized record in set of changed paths");
+				}
+			}
+			catch (EOFException ex)
+			{
+				// Part of a record which is still being written.  The
+				// heartbeat after it hasn't been seen, so nothing is lost.
+				break;
+			}
+		}
+	}
+
+	/// <summary>
+	/// Read the set once the watcher has caught up with the changes made
+	/// up to now
+	/// </summary>
+	/// <param name="sinceMillis">
+	/// The set must have a heartbeat later than this
+	/// </param>
+	/// <returns>
+	/// The set, or null if there is no watcher running, or it doesn't
+	/// catch up in a few seconds
+	/// </returns>
+	public static DirtyPathSet readCurrent(File file, long sinceMillis)
+	{
+		long deadline = System.currentTimeMillis() + maxWaitMilliseconds;
+
+		while (file.exists())
+		{
+			try
+			{
+				DirtyPathSet set = read(file);
+
+				if (set.getHeartbeatMillis() < sinceMillis - staleMilliseconds)
+				{
+					// The watcher isn't running
+					return null;
+				}
+
+				// Changes take a moment to be passed on by the operating
+				// system.
+				if (set.getHeartbeatMillis() >= sinceMillis + settleMilliseconds)
+				{
+					return set;
+				}
+			}
+			catch (IOException ex)
+			{
+				// Left behind by a watcher which was stopped while writing
+			}
+
+			if (System.currentTimeMillis() >= deadline)
+			{
+				break;
+			}
+
+			try
+			{
+				Thread.sleep(pollMilliseconds);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	public long getStartedMillis()
+	{
+		return startedMillis;
+	}
+
+	public long getHeartbeatMillis()
+	{
+		return heartbeatMillis;
+	}
+
+	public long getOverflowMillis()
+	{
+		return overflowMillis;
+	}
+
+	public synchronized int size()
+	{
+		return paths.size();
+	}
+
+	public static File getFile(String manifestFilePath)
+	{
+		return new File(manifestFilePath + fileSuffix);
+	}
+
+	public static File getAckFile(String manifestFilePath)
+	{
+		return new File(manifestFilePath + ackFileSuffix);
+	}
+
+	/// <summary>
+	/// The time up to which an update of the manifest covers the changes,
+	/// for one run of the watcher
+	/// </summary>
+	public static class Acknowledgement
+	{
+		/// <param name="startedMillis">
+		/// When the watcher which was running was started
+		/// </param>
+		/// <param name="coveredMillis">
+		/// Changes seen up to this time are in the manifest
+		/// </param>
+		/// <param name="manifestUpdateMillis">
+		/// The date of the update of the manifest
+		/// </param>
+		public Acknowledgement(
+			long startedMillis,
+			long coveredMillis,
+			long manifestUpdateMillis)
+		{
+			this.startedMillis = startedMillis;
+			this.coveredMillis = coveredMillis;
+			this.manifestUpdateMillis = manifestUpdateMillis;
+		}
+
+		public void write(File file) throws IOException
+		{
+			DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+
+			try
+			{
+				output.writeInt(ackMagic);
+				output.writeLong(startedMillis);
+				output.writeLong(coveredMillis);
+				output.writeLong(manifestUpdateMillis);
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+
+		/// <returns>
+		/// The acknowledgement, or null if there is none that can be read
+		/// </returns>
+		public static Acknowledgement read(File file)
+		{
+			if (file.exists() == false)
+			{
+				return null;
+			}
+
+			try
+			{
+				DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+
+				try
+				{
+					if (input.readInt() != ackMagic)
+					{
+						return null;
+					}
+
+					return new Acknowledgement(
+						input.readLong(),
+						input.readLong(),
+						input.readLong());
+				}
+				finally
+				{
+					input.close();
+				}
+			}
+			catch (IOException ex)
+			{
+				return null;
+			}
+		}
+
+		public long getStartedMillis()
+		{
+			return startedMillis;
+		}
+
+		public long getCoveredMillis()
+		{
+			return coveredMillis;
+		}
+
+		public long getManifestUpdateMillis()
+		{
+			return manifestUpdateMillis;
+		}
+
+		private long startedMillis;
+		private long coveredMillis;
+		private long manifestUpdateMillis;
+	}
+
+	private long startedMillis;
+	private long heartbeatMillis;
+	private long overflowMillis;
+	private LinkedHashMap<String, Long> paths;
+	
+	/// <summary>
+	/// The records for the changes since the last write, for the watcher
+	/// </summary>
+	private ByteArrayOutputStream changeBuffer;
+	private DataOutputStream changes;
+	private DataOutputStream appendStream;
+	private long appendedBytes;
+	private long compactedBytes;
+
+	public static final String fileSuffix = ".dirty";
+	public static final String ackFileSuffix = ".dirtyAck";
+	public static final String tempFileSuffix = ".tmp";
+
+	/// <summary>
+	/// How often the watcher writes the set
+	/// </summary>
+	public static final long heartbeatMilliseconds = 1000;
+
+	private static final long settleMilliseconds = 250;
+	private static final long staleMilliseconds = 3 * heartbeatMilliseconds;
+	private static final long maxWaitMilliseconds = 5 * heartbeatMilliseconds;
+	private static final long pollMilliseconds = 100;
+
+	/// <summary>
+	/// The file is replaced once more than this many bytes have been
+	/// appended to it, or more than it had when it was last replaced
+	/// </summary>
+	private static final long minCompactBytes = 64 * 1024;
+
+	private static final int fileMagic = 0x52544453;
+	private static final int ackMagic = 0x52544441;
+
+	private static final int dirtyRecord = 1;
+	private static final int overflowRecord = 2;
+	private static final int acknowledgeRecord = 3;
+	private static final int heartbeatRecord = 4;
+}
@@ -0,0 +1,131 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import repotools.manifest.AppendCheckpoint;
+import repotools.manifest.FileHash;
+import repotools.utilities.CryptUtilities;
+import repotools.utilities.HashEngine;
+import repotools.utilities.ResumableDigest;
+
+/// <summary>
+/// Hashes a file which has grown since it was last hashed.  If the part
+/// which was hashed last time is unchanged, the hash is resumed from the
+/// checkpoint kept then and only the rest of the file is read.  Either
+/// way, a new checkpoint is made for the next time the file grows.
+/// </summary>
+public class GrowingFileHasher
+{
+	public GrowingFileHasher(HashEngine hashEngine, long sampleSize)
+	{
+		this.hashEngine = hashEngine;
+		this.sampleSize = sampleSize;
+
+		fileHash = null;
+		checkpoint = null;
+		wholeFileRead = false;
+	}
+
+	/// <summary>
+	/// Whether a file can be hashed this way with the given method
+	/// </summary>
+	public static boolean isResumable(String hashType)
+	{
+		try
+		{
+			return CryptUtilities.getResumableHashAlgorithm(hashType) != null;
+		}
+		catch (Exception ex)
+		{
+			return false;
+		}
+	}
+
+	/// <param name="previous">
+	/// The checkpoint from the last time the file was hashed, or null
+	/// </param>
+	public void hash(
+		File file,
+		String hashType,
+		AppendCheckpoint previous) throws Exception
+	{
+		MessageDigest digest = CryptUtilities.getResumableHashAlgorithm(hashType);
+		long position = 0;
+		long end = file.length();
+
+		if (previous != null &&
+			previous.isUsable(hashType, end) &&
+			Arrays.equals(
+				previous.getSampleHash(),
+				hashEngine.computePartialHash(
+					file,
+					hashType,
+					sampleSize,
+					previous.getLength())))
+		{
+			try
+			{
+				((ResumableDigest) digest).restoreState(previous.getState());
+				position = previous.getLength();
+			}
+			catch (IllegalArgumentException ex)
+			{
+				digest.reset();
+			}
+		}
+
+		hashEngine.readFileRange(
+			file,
+			new String[] { hashType },
+			new MessageDigest[] { digest },
+			position,
+			end);
+
+		byte[] state = ((ResumableDigest) digest).saveState();
+
+		fileHash = new FileHash(digest.digest(), hashType);
+
+		// Resuming from the checkpoint only samples the start
+		wholeFileRead = position == 0;
+
+		checkpoint = new AppendCheckpoint(
+			hashType,
+			end,
+			state,
+			hashEngine.computePartialHash(
+				file,
+				hashType,
+				sampleSize,
+				end));
+	}
+
+	public FileHash getFileHash()
+	{
+		return fileHash;
+	}
+
+	/// <summary>
+	/// The checkpoint for the next time, at the length which was hashed
+	/// </summary>
+	public AppendCheckpoint getCheckpoint()
+	{
+		return checkpoint;
+	}
+
+	/// <summary>
+	/// Whether every byte of the file was read, rather than resuming from
+	/// the checkpoint
+	/// </summary>
+	public boolean isWholeFileRead()
+	{
+		return wholeFileRead;
+	}
+
+	private HashEngine hashEngine;
+	private long sampleSize;
+	private FileHash fileHash;
+	private AppendCheckpoint checkpoint;
+	private boolean wholeFileRead;
+}
@@ -0,0 +1,193 @@
+package repotools.repotool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import repotools.manifest.FileHash;
+import repotools.manifest.ManifestFileInfo;
+import repotools.utilities.FileStamp;
+
+/// <summary>
+/// Keeps track of files which are hard links to the same inode, so that
+/// the contents are only hashed once however many links there are.  The
+/// first thread to hash an inode claims it, and any other thread hashing
+/// another link waits for its result.  Also collects the links seen by the
+/// walk into groups for the report.
+///
+/// The hashes of a file are forgotten once every one of its other links
+/// has taken them, and a group is set aside once it has all of the links,
+/// so only the files whose links haven't all been seen yet are looked up.
+/// </summary>
+public class HardLinkTracker
+{
+	public HardLinkTracker()
+	{
+		hashes = new HashMap<String, SharedHashes>();
+		inProgress = new HashSet<String>();
+		linkGroups = new LinkedHashMap<String, ArrayList<ManifestFileInfo>>();
+		completeGroups = new LinkedHashMap<String, ArrayList<ManifestFileInfo>>();
+	}
+
+	/// <summary>
+	/// Get the hashes of another link to the same file, waiting for them
+	/// if another thread is computing them.
+	/// </summary>
+	/// <returns>
+	/// The hashes, or null if the caller must compute them and then call
+	/// complete
+	/// </returns>
+	public synchronized FileHash[] awaitOrClaim(
+		FileStamp stamp,
+		String[] hashTypes) throws InterruptedException
+	{
+		String key = makeHashKey(stamp, hashTypes);
+
+		while (inProgress.contains(key))
+		{
+			wait();
+		}
+
+		SharedHashes shared = hashes.get(key);
+		if (shared == null)
+		{
+			inProgress.add(key);
+			return null;
+		}
+		
+		shared.remainingLinks--;
+		if (shared.remainingLinks <= 0)
+		{
+			hashes.remove(key);
+		}
+
+		return shared.hashes;
+	}
+
+	/// <summary>
+	/// Publish the hashes for a file claimed with awaitOrClaim
+	/// </summary>
+	/// <param name="result">
+	/// The hashes, or null if they couldn't be computed, in which case the
+	/// next link to be hashed will try again
+	/// </param>
+	public synchronized void complete(
+		FileStamp stamp,
+		String[] hashTypes,
+		FileHash[] result)
+	{
+		String key = makeHashKey(stamp, hashTypes);
+
+		inProgress.remove(key);
+		if (result != null && stamp.getLinkCount() > 1)
+		{
+			hashes.put(key, new SharedHashes(result, stamp.getLinkCount() - 1));
+		}
+
+		notifyAll();
+	}
+
+	/// <summary>
+	/// Record a file found by the walk which has more than one link
+	/// </summary>
+	public synchronized void addLink(FileStamp stamp, ManifestFileInfo fileInfo)
+	{
+		String key = "inode " + stamp.getInode() + " on device " + stamp.getDevice();
+
+		ArrayList<ManifestFileInfo> group = linkGroups.get(key);
+		if (group == null)
+		{
+			group = new ArrayList<ManifestFileInfo>();
+			linkGroups.put(key, group);
+		}
+
+		group.add(fileInfo);
+		
+		if (group.size() >= stamp.getLinkCount())
+		{
+			linkGroups.remove(key);
+			completeGroups.put(key, group);
+		}
+	}
+
+	/// <returns>
+	/// The groups of files which are links to the same inode, keyed by
+	/// device and inode.  Files whose other links are outside of the
+	/// repository aren't included.
+	/// </returns>
+	public synchronized Map<String, ArrayList<ManifestFileInfo>> getLinkGroups()
+	{
+		Map<String, ArrayList<ManifestFileInfo>> groups =
+			new LinkedHashMap<String, ArrayList<ManifestFileInfo>>(completeGroups);
+
+		for (String nextKey : linkGroups.keySet())
+		{
+			ArrayList<ManifestFileInfo> nextGroup = linkGroups.get(nextKey);
+
+			if (nextGroup.size() > 1)
+			{
+				groups.put(nextKey, nextGroup);
+			}
+		}
+
+		return groups;
+	}
+
+	public synchronized void clear()
+	{
+		hashes.clear();
+		inProgress.clear();
+		linkGroups.clear();
+		completeGroups.clear();
+	}
+
+	/// <summary>
+	/// The whole stamp is part of the key, so that a file which changes
+	/// between the reads of two of its links isn't given stale hashes.
+	/// </summary>
+	protected static String makeHashKey(FileStamp stamp, String[] hashTypes)
+	{
+		StringBuilder key = new StringBuilder();
+
+		key.append(stamp.getDevice()).append(':');
+		key.append(stamp.getInode()).append(':');
+		key.append(stamp.getSize()).append(':');
+		key.append(stamp.getModifiedNanos()).append(':');
+		key.append(stamp.getChangedNanos());
+
+		for (String nextType : hashTypes)
+		{
+			key.append(':').append(nextType);
+		}
+
+		return key.toString();
+	}
+
+	/// <summary>
+	/// The hashes of a file, and how many more of its links may still
+	/// want them
+	/// </summary>
+	protected static class SharedHashes
+	{
+		SharedHashes(FileHash[] hashes, int remainingLinks)
+		{
+			this.hashes = hashes;
+			this.remainingLinks = remainingLinks;
+		}
+
+		FileHash[] hashes;
+		int remainingLinks;
+	}
+
+	private Map<String, SharedHashes> hashes;
+	private Set<String> inProgress;
+	
+	/// <summary>
+	/// The groups which don't have all of their links yet
+	/// </summary>
+	private Map<String, ArrayList<ManifestFileInfo>> linkGroups;
+	private Map<String, ArrayList<ManifestFileInfo>> completeGroups;
+}
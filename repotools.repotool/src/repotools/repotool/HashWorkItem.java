@@ -0,0 +1,53 @@
+package repotools.repotool;
+
+import java.io.File;
+
+/// <summary>
+/// A unit of per-file work produced by the directory walk.  The hash step
+/// may run on a worker thread, so it must only touch state owned by the
+/// item itself.  The finish step always runs on the walking thread, in the
+/// same order in which the items were submitted, so that is where results
+/// are posted back into the tool's lists and progress output.
+/// </summary>
+public abstract class HashWorkItem
+{
+	/// <summary>
+	/// Whether the item has any expensive work to do on a worker thread
+	/// </summary>
+	public boolean needsHash()
+	{
+		return false;
+	}
+
+	/// <summary>
+	/// The file which the hash step reads, so that the work can be
+	/// scheduled according to the device it is on.  May be null.
+	/// </summary>
+	public File getFile()
+	{
+		return null;
+	}
+
+	/// <summary>
+	/// The hash method, if the hash step is a plain read of a small file
+	/// with a single method, which can be done together with other small
+	/// files.  Null otherwise.
+	/// </summary>
+	public String getBatchHashType()
+	{
+		return null;
+	}
+
+	/// <summary>
+	/// Do the expensive part of the work.  Exceptions should be captured by
+	/// the item and reported from finish().
+	/// </summary>
+	public void hash()
+	{
+	}
+
+	/// <summary>
+	/// Post the results of the work
+	/// </summary>
+	public abstract void finish();
+}
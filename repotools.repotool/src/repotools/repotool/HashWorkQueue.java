@@ -0,0 +1,290 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import repotools.utilities.BlockExecutor;
+import repotools.utilities.IoThrottle;
+import repotools.utilities.ReadPipeline;
+
+/// <summary>
+/// Feeds work items from the directory walk to a pool of hashing threads.
+/// Items are finished strictly in the order they were submitted, so the
+/// reports are the same no matter how many threads are used.  With a single
+/// thread, every item is hashed and finished immediately on the caller's
+/// thread, exactly as if there were no queue at all.
+/// </summary>
+public class HashWorkQueue
+{
+	public HashWorkQueue(int threads)
+	{
+		this(threads, false, threads);
+	}
+
+	/// <param name="threads">
+	/// Number of hashing threads
+	/// </param>
+	/// <param name="deviceScheduling">
+	/// Schedule the work with a DeviceScheduler rather than in the order
+	/// it is submitted
+	/// </param>
+	/// <param name="streamsPerDevice">
+	/// Concurrent reads allowed for each device other than spinning disks,
+	/// when scheduling by device
+	/// </param>
+	public HashWorkQueue(
+		int threads,
+		boolean deviceScheduling,
+		int streamsPerDevice)
+	{
+		pending = new ArrayDeque<PendingItem>();
+		scheduler = null;
+		pipeline = null;
+		deferredItem = null;
+
+		if (threads > 1 || deviceScheduling)
+		{
+			executor = Executors.newFixedThreadPool(
+				threads,
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(
+							r,
+							threadNamePrefix + threadCount.incrementAndGet());
+						
+						thread.setDaemon(true);
+						return thread;
+					}
+					
+					private AtomicInteger threadCount = new AtomicInteger(0);
+				});
+
+			// Bound the amount of work the walk can get ahead of the
+			// hashing threads.
+			maxPending = threads * pendingPerThread;
+			
+			if (deviceScheduling)
+			{
+				scheduler = new DeviceScheduler(executor, streamsPerDevice, 1);
+				
+				// Reordering by inode only helps if there is plenty to
+				// choose from.
+				maxPending = Math.max(maxPending, scheduledPending);
+			}
+		}
+		else
+		{
+			executor = null;
+			maxPending = 0;
+		}
+	}
+
+	/// <summary>
+	/// Use a pipeline to read ahead.  With a single thread, each file is
+	/// prefetched when it is submitted, and then hashed when the next item
+	/// is submitted, so that reading it overlaps the digest of the one
+	/// before.
+	/// </summary>
+	public void setReadPipeline(ReadPipeline pipeline, IoThrottle throttle)
+	{
+		this.pipeline = pipeline;
+		this.throttle = throttle;
+	}
+
+	public void submit(final HashWorkItem item)
+	{
+		if (executor == null)
+		{
+			if (pipeline == null)
+			{
+				runInline(item);
+				return;
+			}
+			
+			if (item.needsHash() && item.getFile() != null)
+			{
+				pipeline.prefetch(item.getFile(), throttle);
+			}
+			
+			if (deferredItem != null)
+			{
+				runInline(deferredItem);
+			}
+			
+			deferredItem = item;
+			return;
+		}
+
+		FutureTask<Void> future = null;
+		if (item.needsHash())
+		{
+			future = new FutureTask<Void>(
+				new Runnable()
+				{
+					public void run()
+					{
+						item.hash();
+					}
+				},
+				null);
+			
+			if (scheduler != null)
+			{
+				scheduler.schedule(future, item.getFile());
+			}
+			else
+			{
+				executor.execute(future);
+			}
+		}
+
+		pending.add(new PendingItem(item, future));
+
+		finishCompleted();
+
+		while (pending.size() > maxPending)
+		{
+			finishNext();
+		}
+	}
+
+	/// <summary>
+	/// Wait for all outstanding work and finish it
+	/// </summary>
+	public void drain()
+	{
+		if (deferredItem != null)
+		{
+			runInline(deferredItem);
+			deferredItem = null;
+		}
+		
+		while (pending.isEmpty() == false)
+		{
+			finishNext();
+		}
+	}
+
+	/// <summary>
+	/// Runs helpers which read the blocks of a file on the hashing threads,
+	/// or null if items are hashed on the caller's thread.  When scheduling
+	/// by device, the helpers wait for a free stream on the file's device
+	/// like any other work, so they never take the device over its limit.
+	/// </summary>
+	public BlockExecutor getBlockExecutor()
+	{
+		if (executor == null)
+		{
+			return null;
+		}
+		
+		return new BlockExecutor()
+		{
+			public void execute(Runnable work, File file)
+			{
+				if (scheduler != null)
+				{
+					scheduler.schedule(work, file);
+				}
+				else
+				{
+					executor.execute(work);
+				}
+			}
+		};
+	}
+
+	public void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	protected void runInline(HashWorkItem item)
+	{
+		if (item.needsHash())
+		{
+			item.hash();
+			
+			// In case the item didn't need to read the prefetched file
+			if (pipeline != null && item.getFile() != null)
+			{
+				pipeline.release(item.getFile());
+			}
+		}
+		
+		item.finish();
+	}
+
+	protected void finishCompleted()
+	{
+		while (pending.isEmpty() == false &&
+			(pending.peek().future == null ||
+			 pending.peek().future.isDone()))
+		{
+			finishNext();
+		}
+	}
+
+	protected void finishNext()
+	{
+		PendingItem next = pending.remove();
+
+		if (next.future != null)
+		{
+			try
+			{
+				next.future.get();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			}
+			catch (ExecutionException ex)
+			{
+				// Items capture their own exceptions, so this is something
+				// more serious like running out of memory.
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+
+		next.item.finish();
+	}
+
+	private static class PendingItem
+	{
+		PendingItem(HashWorkItem item, Future<?> future)
+		{
+			this.item = item;
+			this.future = future;
+		}
+
+		HashWorkItem item;
+		Future<?> future;
+	}
+
+	private ExecutorService executor;
+	private DeviceScheduler scheduler;
+	private ReadPipeline pipeline;
+	private IoThrottle throttle;
+	private HashWorkItem deferredItem;
+	private ArrayDeque<PendingItem> pending;
+	private int maxPending;
+
+	public static final String threadNamePrefix = "repotool-hash-";
+
+	private static final int pendingPerThread = 16;
+	private static final int scheduledPending = 4096;
+}
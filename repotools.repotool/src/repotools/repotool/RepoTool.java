@@ -1,23 +1,47 @@
 package repotools.repotool;
 
 import java.io.File;
+import java.security.MessageDigest;
 import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import repotools.manifest.AppendCheckpoint;
+import repotools.manifest.BlockRange;
+import repotools.manifest.FileBlockHashes;
 import repotools.manifest.FileHash;
+import repotools.manifest.HashCache;
 import repotools.manifest.HashFileDict;
 import repotools.manifest.Manifest;
 import repotools.manifest.ManifestDirectoryInfo;
 import repotools.manifest.ManifestFileInfo;
 import repotools.manifest.MovedFileSet;
+import repotools.manifest.XattrHashCache;
+import repotools.utilities.BlockHashDigest;
 import repotools.utilities.Console;
 import repotools.utilities.CryptUtilities;
+import repotools.utilities.FileStamp;
+import repotools.utilities.HashEngine;
+import repotools.utilities.HashReadOptions;
+import repotools.utilities.PartialSampleDigest;
+import repotools.utilities.ReadPipeline;
+import repotools.utilities.ReadStrategy;
+import repotools.utilities.ReadCheckpointListener;
+import repotools.utilities.ResumableDigest;
+import repotools.utilities.ScannedFile;
 
 public class RepoTool
 {
@@ -32,6 +56,40 @@ public class RepoTool
 		backDate = false;
 		trackMoves = false;
 		trackDuplicates = false;
+		threads = 1;
+		scanThreads = 1;
+		deviceScheduling = false;
+		streamsPerDevice = 4;
+		readOptions = new HashReadOptions();
+		hashEngine = new HashEngine(readOptions);
+		batchedHashes = new ThreadLocal<Map<File, FileHash>>()
+		{
+			@Override
+			protected Map<File, FileHash> initialValue()
+			{
+				return new HashMap<File, FileHash>();
+			}
+		};
+		hashesFromCache = new ThreadLocal<Boolean>()
+		{
+			@Override
+			protected Boolean initialValue()
+			{
+				return false;
+			}
+		};
+		partialSamples = new ThreadLocal<PartialSampleDigest>()
+		{
+			@Override
+			protected PartialSampleDigest initialValue()
+			{
+				return new PartialSampleDigest((int) partialHashSampleSize);
+			}
+		};
+		sampledFile = new ThreadLocal<File>();
+		migrateHashLimit = 0;
+		quick = false;
+		fast = false;
 		
 		newFiles = new ArrayList<ManifestFileInfo>();
 		newFilesForGroom = new ArrayList<File>();
@@ -45,11 +103,16 @@ public class RepoTool
 		movedFiles = new HashMap<FileHash,MovedFileSet>();
 		movedFileOrder = new ArrayList<FileHash>();
 		duplicateFiles = new HashMap<FileHash, ArrayList<ManifestFileInfo>>();
+		migratedHashFiles = new ArrayList<ManifestFileInfo>();
+		validatedFiles = new ArrayList<ManifestFileInfo>();
+		quickHashFiles = new ArrayList<ManifestFileInfo>();
+		differentBlockRanges = new LinkedHashMap<ManifestFileInfo, ArrayList<BlockRange>>();
 	}
 
 	public void clear()
 	{
 		fileCheckedCount = 0;
+		migrateHashCount = 0;
 		
 		newFiles.clear();
 		newFilesForGroom.clear();
@@ -63,16 +126,87 @@ public class RepoTool
 		movedFiles.clear();
 		movedFileOrder.clear();
 		duplicateFiles.clear();
+		migratedHashFiles.clear();
+		validatedFiles.clear();
+		quickHashFiles.clear();
+		differentBlockRanges.clear();
+		
+		if (hardLinkTracker != null)
+		{
+			hardLinkTracker.clear();
+		}
 	}
 	
 	public void doUpdate()
 	{
 		clear();
 		
-		updateRecursive(
-			rootDirectory,
-			manifest.getRootDirectory());
+		startHashQueue();
+		// A fast status skips most listings, so listing ahead would
+		// mostly be wasted
+		directoryScanner = new DirectoryScanner(fast ? 1 : scanThreads);
+		directoryScanner.setReadStamps(hardLinkTracker != null);
+		
+		try
+		{
+			updateRecursive(
+				rootDirectory,
+				manifest.getRootDirectory());
+			
+			drainWork();
+			hashMoveCandidates();
+		}
+		finally
+		{
+			directoryScanner.shutdown();
+			directoryScanner = null;
+			
+			stopHashQueue();
+		}
+		
+		finishUpdate();
+	}
+	
+	/// <summary>
+	/// Like doUpdate, but only look at the given paths, and leave the rest
+	/// of the manifest as it is.  A path which is a directory, or was one,
+	/// is looked at with everything under it.  New, changed and missing
+	/// files are found as usual, and moves among them if trackMoves is set.
+	/// </summary>
+	/// <param name="standardPaths">
+	/// Standard paths relative to the root directory, like "./dir/file"
+	/// </param>
+	public void doUpdatePaths(Collection<String> standardPaths)
+	{
+		clear();
+		
+		startHashQueue();
+		directoryScanner = new DirectoryScanner(1);
+		directoryScanner.setReadStamps(hardLinkTracker != null);
+		
+		try
+		{
+			for (String nextPath : reducePaths(standardPaths))
+			{
+				updatePath(nextPath);
+			}
+			
+			drainWork();
+			hashMoveCandidates();
+		}
+		finally
+		{
+			directoryScanner.shutdown();
+			directoryScanner = null;
+			
+			stopHashQueue();
+		}
 		
+		finishUpdate();
+	}
+	
+	protected void finishUpdate()
+	{
 		if (trackMoves == true)
 		{
 			doTrackMoves();
@@ -85,6 +219,245 @@ public class RepoTool
 		
 		manifest.setLastUpdateDateUtc(new Date());
 	}
+	
+	/// <summary>
+	/// Sort the paths, and drop the ones which are repeated or are under
+	/// another of the paths
+	/// </summary>
+	protected static List<String> reducePaths(Collection<String> standardPaths)
+	{
+		ArrayList<String> sortedPaths = new ArrayList<String>(standardPaths);
+		Collections.sort(sortedPaths);
+		
+		ArrayList<String> reducedPaths = new ArrayList<String>();
+		HashSet<String> keptPaths = new HashSet<String>();
+		
+		for (String nextPath : sortedPaths)
+		{
+			// A directory sorts before everything under it
+			boolean covered = false;
+			for (String ancestor = nextPath;
+				ancestor != null && covered == false;
+				ancestor = getParentPath(ancestor))
+			{
+				covered = keptPaths.contains(ancestor);
+			}
+			
+			if (covered == false)
+			{
+				reducedPaths.add(nextPath);
+				keptPaths.add(nextPath);
+			}
+		}
+		
+		return reducedPaths;
+	}
+	
+	protected static String getParentPath(String standardPath)
+	{
+		int delimiter = standardPath.lastIndexOf(Manifest.standardPathDelimiterString);
+		if (delimiter < 0)
+		{
+			return null;
+		}
+		
+		return standardPath.substring(0, delimiter);
+	}
+	
+	/// <summary>
+	/// Bring the manifest up to date for one path
+	/// </summary>
+	protected void updatePath(String standardPath)
+	{
+		String[] names = standardPath.split(Manifest.standardPathDelimiterString);
+		
+		if (names.length < 2)
+		{
+			// The root directory
+			updateRecursive(
+				rootDirectory,
+				manifest.getRootDirectory());
+			
+			return;
+		}
+		
+		// Find the directory in the manifest, adding any which are new
+		ManifestDirectoryInfo parentManDirInfo = manifest.getRootDirectory();
+		File parentDirectory = rootDirectory;
+		
+		for (int i = 1; i < names.length - 1; i++)
+		{
+			ManifestDirectoryInfo nextManDirInfo =
+				parentManDirInfo.getSubdirectories().get(names[i]);
+			
+			if (nextManDirInfo == null)
+			{
+				nextManDirInfo = new ManifestDirectoryInfo(
+					names[i],
+					parentManDirInfo);
+				
+				parentManDirInfo.getSubdirectories().put(
+					names[i],
+					nextManDirInfo);
+			}
+			
+			parentManDirInfo = nextManDirInfo;
+			parentDirectory = new File(parentDirectory, names[i]);
+		}
+		
+		String name = names[names.length - 1];
+		ScannedFile fileInfo = ScannedFile.scan(
+			new File(parentDirectory, name).toPath(),
+			hardLinkTracker != null);
+		
+		ManifestFileInfo manFileInfo = parentManDirInfo.getFiles().get(name);
+		ManifestDirectoryInfo manDirInfo = parentManDirInfo.getSubdirectories().get(name);
+		
+		if (fileInfo.isDirectory() == false && manDirInfo != null)
+		{
+			// Report everything under it as missing
+			updateRecursive(null, manDirInfo);
+			parentManDirInfo.getSubdirectories().remove(name);
+		}
+		
+		if (fileInfo.exists() == false || fileInfo.isDirectory())
+		{
+			if (manFileInfo != null)
+			{
+				reportMissingFile(manFileInfo);
+			}
+		}
+		else if (manFileInfo != null)
+		{
+			updateExistingFile(fileInfo, manFileInfo);
+		}
+		else if (isJournalFile(fileInfo) == false)
+		{
+			addNewFile(name, fileInfo, parentManDirInfo);
+		}
+		
+		if (fileInfo.isDirectory())
+		{
+			if (manDirInfo == null)
+			{
+				manDirInfo = new ManifestDirectoryInfo(name, parentManDirInfo);
+				parentManDirInfo.getSubdirectories().put(name, manDirInfo);
+			}
+			
+			updateRecursive(fileInfo, manDirInfo);
+			
+			if (manDirInfo.isEmpty())
+			{
+				parentManDirInfo.getSubdirectories().remove(name);
+			}
+		}
+		
+		// Remove the directories which are left empty, or which were added
+		// above and didn't get anything
+		for (ManifestDirectoryInfo nextManDirInfo = parentManDirInfo;
+			nextManDirInfo.getParentDirectory() != null &&
+				nextManDirInfo.isEmpty();
+			nextManDirInfo = nextManDirInfo.getParentDirectory())
+		{
+			nextManDirInfo.getParentDirectory().getSubdirectories().remove(
+				nextManDirInfo.getName());
+		}
+	}
+	
+	/// <summary>
+	/// Check the hashes of the files which were validated least recently,
+	/// until either budget runs out.  Files which are in the manifest and
+	/// missing are reported, but new files are not looked for.
+	/// </summary>
+	/// <param name="maxBytes">
+	/// Stop before the total length of the files checked would exceed this,
+	/// or 0 for no limit.  At least one file is always checked.
+	/// </param>
+	/// <param name="maxMillis">
+	/// Don't start checking any more files after this long, or 0 for no
+	/// limit.  Files which are queued when the time runs out are left for
+	/// the next scrub, but those which are already being read are finished.
+	/// </param>
+	public void doScrub(long maxBytes, long maxMillis)
+	{
+		clear();
+		
+		long deadline = Long.MAX_VALUE;
+		if (maxMillis > 0)
+		{
+			deadline = System.currentTimeMillis() + maxMillis;
+		}
+		
+		ArrayList<ManifestFileInfo> fileList = manifest.listFiles();
+		
+		Collections.sort(
+			fileList,
+			new Comparator<ManifestFileInfo>()
+			{
+				public int compare(ManifestFileInfo a, ManifestFileInfo b)
+				{
+					return a.getValidationOrderDate().compareTo(
+						b.getValidationOrderDate());
+				}
+			});
+		
+		startHashQueue();
+		
+		try
+		{
+			long byteCount = 0;
+			
+			for (ManifestFileInfo nextManFileInfo : fileList)
+			{
+				if (fileCheckedCount > 0 &&
+					((maxBytes > 0 && byteCount + nextManFileInfo.getFileLength() > maxBytes) ||
+					 System.currentTimeMillis() >= deadline))
+				{
+					break;
+				}
+				
+				String standardPath = Manifest.makeStandardPathString(nextManFileInfo);
+				if (ignoreFile(standardPath))
+				{
+					continue;
+				}
+				
+				fileCheckedCount++;
+				byteCount += nextManFileInfo.getFileLength();
+				
+				File nextFileInfo = ScannedFile.scan(
+					new File(rootDirectory, standardPath).toPath());
+				
+				if (nextFileInfo.isFile())
+				{
+					CheckFileItem item = new CheckFileItem(
+						nextManFileInfo,
+						nextFileInfo);
+					
+					// The first file is checked however long it takes
+					if (fileCheckedCount > 1)
+					{
+						item.setDeadline(deadline);
+					}
+					
+					submitWork(item);
+				}
+				else
+				{
+					submitWork(new ReportFileItem(
+						nextManFileInfo,
+						" [MISSING]",
+						missingFiles));
+				}
+			}
+			
+			drainWork();
+		}
+		finally
+		{
+			stopHashQueue();
+		}
+	}
 
 	protected void updateRecursive(
 		File currentDirectoryInfo,
@@ -99,13 +472,32 @@ public class RepoTool
 		Map<String, File> dirDict =
 			new HashMap<String, File>();
 	
+		// Read before listing, so that a change made while listing can't
+		// be missed next time
+		long directoryModified = 0;
+		boolean listed = false;
+		
 		if (currentDirectoryInfo != null)
 		{
-			File[] fileList = null;
+			List<ScannedFile> fileList = null;
+			
+			directoryModified = currentDirectoryInfo.lastModified();
 			
 			try
 			{
-				fileList = currentDirectoryInfo.listFiles();
+				if (fast &&
+					isDirectoryUnchanged(directoryModified, currentManfestDirInfo))
+				{
+					fileList = scanKnownEntries(
+						currentDirectoryInfo,
+						currentManfestDirInfo);
+				}
+				
+				if (fileList == null)
+				{
+					fileList = directoryScanner.scan(currentDirectoryInfo);
+					listed = true;
+				}
 			}
 			catch (Exception ex)
 			{
@@ -143,7 +535,7 @@ public class RepoTool
 				return;
 			}
 
-			for (File nextFileInfo : fileList)
+			for (ScannedFile nextFileInfo : fileList)
 			{
 				// We use form C because that's what we chose with the original
 				// .NET version because it is the default for that platform.
@@ -170,137 +562,15 @@ public class RepoTool
 		// Iterate through existing manifest entries
 		for (ManifestFileInfo nextManFileInfo : fileListClone)
 		{
-			if (showProgress)
-			{
-				write(Manifest.makeStandardPathString(nextManFileInfo));
-			}
-
 			File nextFileInfo = fileDict.get(nextManFileInfo.getName());
 			if (nextFileInfo != null)
 			{
-				fileCheckedCount++;
-
-				if (ignoreFile(Manifest.makeStandardPathString(nextManFileInfo)))
-				{
-					write(" [NEWLY IGNORED]");
-
-					currentManfestDirInfo.getFiles().remove(
-						nextManFileInfo.getName());
-
-					newlyIgnoredFiles.add(nextManFileInfo);
-				}
-				else if (nextFileInfo.length() != nextManFileInfo.getFileLength() &&
-					update == false &&
-					alwaysCheckHash == false)
-				{
-					// Don't compute hash if we aren't doing an update
-					write(" [DIFFERENT]");
-					changedFiles.add(nextManFileInfo);
-				}
-				else if (alwaysCheckHash == true ||
-					makeNewHash == true ||
-					nextManFileInfo.getFileHash() == null ||
-					Manifest.compareManifestDateToFilesystemDate(
-						new Date(nextFileInfo.lastModified()),
-						nextManFileInfo.getLastModifiedUtc()) == false ||
-					nextFileInfo.length() != nextManFileInfo.getFileLength())
-				{
-					FileHash checkHash = null;
-					
-					Exception exception = null;
-					try
-					{
-						String hashType = manifest.getDefaultHashMethod();
-						if (nextManFileInfo.getFileHash() != null)
-						{
-							hashType = nextManFileInfo.getFileHash().getHashType();
-						}
-
-						checkHash = FileHash.computeHash(
-							nextFileInfo,
-							hashType);
-					}
-					catch (Exception ex)
-					{
-						exception = ex;
-					}
-
-					if (exception != null)
-					{
-						writeLine(" [ERROR]");
-						writeLine(exception.toString());
-						
-						errorFiles.add(nextManFileInfo);
-					}
-					else
-					{
-						if (nextManFileInfo.getFileHash() == null)
-						{
-							write(" [NULL HASH IN MANIFEST]");
-							changedFiles.add(nextManFileInfo);
-						}
-						else if (checkHash.equals(nextManFileInfo.getFileHash()) == false)
-						{
-							write(" [DIFFERENT]");
-							changedFiles.add(nextManFileInfo);
-						}
-						else
-						{
-							if (Manifest.compareManifestDateToFilesystemDate(
-								new Date(nextFileInfo.lastModified()),
-									nextManFileInfo.getLastModifiedUtc()) == false)
-							{
-								write(" [LAST MODIFIED DATE]");
-								lastModifiedDateFiles.add(nextManFileInfo);
-							
-								if (backDate == true)
-								{
-									nextFileInfo.setLastModified(
-										nextManFileInfo.getLastModifiedUtc().getTime());
-								}
-							}
-						}
-					}
-
-					FileHash newHash = checkHash;
-					if (makeNewHash)
-					{
-						try
-						{
-							newHash = FileHash.computeHash(
-								nextFileInfo,
-								getNewHashType(manifest));
-						}
-						catch (Exception hashException)
-						{
-							writeLine(" [ERROR MAKING NEW HASH]");
-							writeLine(hashException.toString());
-							
-							errorFiles.add(nextManFileInfo);
-						}
-					}
-
-					// Update hash and last modified date accordingly
-					nextManFileInfo.setFileHash(newHash);
-					
-					nextManFileInfo.setLastModifiedUtc(
-						new Date(nextFileInfo.lastModified()));
-					
-					nextManFileInfo.setFileLength(nextFileInfo.length());
-				}
-				else
-				{
-					write(" [SKIPPED]");
-				}
+				updateExistingFile(nextFileInfo, nextManFileInfo);
 			}
 			else
 			{
-				write(" [MISSING]");
-				currentManfestDirInfo.getFiles().remove(nextManFileInfo.getName());
-				missingFiles.add(nextManFileInfo);
+				reportMissingFile(nextManFileInfo);
 			}
-			
-			writeLine("");
 		}
 
 		// Clone in case we modify during iteration
@@ -330,92 +600,13 @@ public class RepoTool
 			File nextFileInfo = fileDict.get(nextFileName);
 			
 			if (currentManfestDirInfo.getFiles().containsKey(
-				nextFileName) == false)
+				nextFileName) == false &&
+				isJournalFile(nextFileInfo) == false)
 			{
-				ManifestFileInfo newManFileInfo =
-					new ManifestFileInfo(
-						nextFileName,
-						currentManfestDirInfo);
-				
-				write(Manifest.makeStandardPathString(newManFileInfo));
-				
-				if (ignoreFile(Manifest.makeStandardPathString(newManFileInfo)))
-				{
-					ignoredFiles.add(newManFileInfo);
-			
-					// Don't groom the manifest file!
-					try
-					{
-						if (nextFileInfo.getCanonicalPath().equals(
-							manifest.getManifestFile().getCanonicalPath()) == false)
-						{
-							ignoredFilesForGroom.add(nextFileInfo);
-						}
-					}
-					catch (Exception ex)
-					{
-						// What to do?
-					}
-
-					write(" [IGNORED]");
-				}
-				else
-				{
-					fileCheckedCount++;
-
-					boolean checkHash = false;
-					if (update == true ||
-						alwaysCheckHash == true ||
-						trackMoves == true)
-					{
-						checkHash = true;
-					}
-					
-					Exception exception = null;
-					if (checkHash)
-					{
-						try
-						{
-							newManFileInfo.setFileHash(
-								FileHash.computeHash(
-								nextFileInfo,
-								getNewHashType(manifest)));
-						}
-						catch (Exception ex)
-						{
-							exception = ex;
-						}
-					}
-
-					if (checkHash && newManFileInfo.getFileHash() == null)
-					{
-						errorFiles.add(newManFileInfo);
-						
-						writeLine(" [ERROR]");
-						writeLine(exception.toString());
-					}
-					else
-					{
-						newFiles.add(newManFileInfo);
-						newFilesForGroom.add(nextFileInfo);
-						write(" [NEW]");
-					}
-					
-					newManFileInfo.setFileLength(
-						nextFileInfo.length());
-					
-					newManFileInfo.setLastModifiedUtc(
-						new Date(nextFileInfo.lastModified()));
-					
-					newManFileInfo.setRegisteredUtc(
-						new Date());
-					
-					currentManfestDirInfo.getFiles().put(
-						nextFileName,
-						newManFileInfo);
-				}
-				
-				writeLine("");
+				addNewFile(
+					nextFileName,
+					nextFileInfo,
+					currentManfestDirInfo);
 			}
 		}
 
@@ -447,185 +638,2406 @@ public class RepoTool
 				}
 			}
 		}
-	}
-	
-	public boolean isBackDate()
-	{
-		return backDate;
+		
+		if (listed)
+		{
+			recordDirectoryStamp(
+				currentManfestDirInfo,
+				directoryModified,
+				fileDict.size() + dirDict.size(),
+				dirDict.keySet());
+			
+			directoryScanner.finishDirectory(currentDirectoryInfo);
+		}
 	}
 
-	public void setBackDate(boolean backDate)
+	/// <summary>
+	/// Check a file which is in the manifest and still exists
+	/// </summary>
+	protected void updateExistingFile(
+		File nextFileInfo,
+		ManifestFileInfo nextManFileInfo)
 	{
-		this.backDate = backDate;
-	}
+		fileCheckedCount++;
 
-	public boolean isTrackMoves()
-	{
-		return trackMoves;
+		boolean ignored =
+			ignoreFile(Manifest.makeStandardPathString(nextManFileInfo));
+		
+		if (ignored == false)
+		{
+			trackLinks(nextFileInfo, nextManFileInfo);
+		}
+		
+		if (ignored)
+		{
+			nextManFileInfo.getParentDirectory().getFiles().remove(
+				nextManFileInfo.getName());
+
+			submitWork(new ReportFileItem(
+				nextManFileInfo,
+				" [NEWLY IGNORED]",
+				newlyIgnoredFiles));
+		}
+		else if (nextFileInfo.length() != nextManFileInfo.getFileLength() &&
+			update == false &&
+			alwaysCheckHash == false)
+		{
+			// Don't compute hash if we aren't doing an update
+			submitWork(new ReportFileItem(
+				nextManFileInfo,
+				" [DIFFERENT]",
+				changedFiles));
+		}
+		else if (alwaysCheckHash == true ||
+			makeNewHash == true ||
+			nextManFileInfo.getFileHash() == null ||
+			Manifest.compareManifestDateToFilesystemDate(
+				new Date(nextFileInfo.lastModified()),
+				nextManFileInfo.getLastModifiedUtc()) == false ||
+			nextFileInfo.length() != nextManFileInfo.getFileLength())
+		{
+			submitWork(new CheckFileItem(
+				nextManFileInfo,
+				nextFileInfo));
+		}
+		else
+		{
+			submitWork(new ReportFileItem(
+				nextManFileInfo,
+				" [SKIPPED]",
+				null));
+		}
 	}
 
-	public void setTrackMoves(boolean trackMoves)
+	/// <summary>
+	/// Remove a file which no longer exists from the manifest
+	/// </summary>
+	protected void reportMissingFile(ManifestFileInfo nextManFileInfo)
 	{
-		this.trackMoves = trackMoves;
+		nextManFileInfo.getParentDirectory().getFiles().remove(
+			nextManFileInfo.getName());
+
+		submitWork(new ReportFileItem(
+			nextManFileInfo,
+			" [MISSING]",
+			missingFiles));
+	}
+
+	/// <summary>
+	/// Add a file which isn't in the manifest yet, unless it is ignored
+	/// </summary>
+	protected void addNewFile(
+		String nextFileName,
+		File nextFileInfo,
+		ManifestDirectoryInfo currentManfestDirInfo)
+	{
+		ManifestFileInfo newManFileInfo =
+			new ManifestFileInfo(
+				nextFileName,
+				currentManfestDirInfo);
+		
+		if (ignoreFile(Manifest.makeStandardPathString(newManFileInfo)))
+		{
+			submitWork(new IgnoredFileItem(
+				newManFileInfo,
+				nextFileInfo));
+		}
+		else
+		{
+			fileCheckedCount++;
+			
+			trackLinks(nextFileInfo, newManFileInfo);
+
+			submitWork(new NewFileItem(
+				newManFileInfo,
+				nextFileInfo));
+			
+			currentManfestDirInfo.getFiles().put(
+				nextFileName,
+				newManFileInfo);
+		}
+	}
+
+	/// <summary>
+	/// Decide whether a directory has the same entries as when it was last
+	/// listed, going by its last modified date
+	/// </summary>
+	protected boolean isDirectoryUnchanged(
+		long directoryModified,
+		ManifestDirectoryInfo manDirInfo)
+	{
+		return
+			manDirInfo.getLastModifiedUtc() != null &&
+			manDirInfo.getLastModifiedUtc().getTime() == directoryModified;
+	}
+
+	/// <summary>
+	/// Read the attributes of the files and subdirectories which the
+	/// manifest has for a directory, instead of listing it
+	/// </summary>
+	/// <returns>
+	/// The entries, or null if any of them is missing or has changed
+	/// between file and directory, in which case the directory should be
+	/// listed after all
+	/// </returns>
+	protected List<ScannedFile> scanKnownEntries(
+		File directory,
+		ManifestDirectoryInfo manDirInfo)
+	{
+		List<ScannedFile> entries = new ArrayList<ScannedFile>();
+		
+		for (String nextFileName : manDirInfo.getFiles().keySet())
+		{
+			ScannedFile nextEntry = ScannedFile.scan(
+				new File(directory, nextFileName).toPath(),
+				hardLinkTracker != null);
+			
+			if (nextEntry.exists() == false ||
+				nextEntry.isDirectory())
+			{
+				return null;
+			}
+			
+			entries.add(nextEntry);
+		}
+		
+		for (String nextDirName : manDirInfo.getSubdirectories().keySet())
+		{
+			ScannedFile nextEntry = ScannedFile.scan(
+				new File(directory, nextDirName).toPath());
+			
+			if (nextEntry.isDirectory() == false)
+			{
+				return null;
+			}
+			
+			entries.add(nextEntry);
+		}
+		
+		return entries;
+	}
+
+	/// <summary>
+	/// Record the last modified date and entry count of a directory which
+	/// was just listed, for status -fast
+	/// </summary>
+	/// <param name="subdirectoryNames">
+	/// The subdirectories which were found.  If any of them isn't kept in
+	/// the manifest, for example because it is empty, nothing is recorded,
+	/// since skipping the listing would also skip looking in it.
+	/// </param>
+	protected void recordDirectoryStamp(
+		ManifestDirectoryInfo manDirInfo,
+		long directoryModified,
+		int entryCount,
+		Set<String> subdirectoryNames)
+	{
+		manDirInfo.setLastModifiedUtc(null);
+		manDirInfo.setEntryCount(entryCount);
+		
+		if (manDirInfo.getSubdirectories().keySet().containsAll(
+				subdirectoryNames) == false)
+		{
+			return;
+		}
+		
+		// A directory changed within the resolution of its date could
+		// change again without the date changing.
+		if (System.currentTimeMillis() - directoryModified <
+			minDirectoryStampAgeMilliseconds)
+		{
+			return;
+		}
+		
+		manDirInfo.setLastModifiedUtc(new Date(directoryModified));
+	}
+
+	/// <summary>
+	/// Progress report for a file which needs no hashing, optionally
+	/// recording the file in one of the result lists.
+	/// </summary>
+	protected class ReportFileItem extends HashWorkItem
+	{
+		public ReportFileItem(
+			ManifestFileInfo manFileInfo,
+			String status,
+			ArrayList<ManifestFileInfo> resultList)
+		{
+			this.manFileInfo = manFileInfo;
+			this.status = status;
+			this.resultList = resultList;
+		}
+
+		@Override
+		public void finish()
+		{
+			write(Manifest.makeStandardPathString(manFileInfo));
+			write(status);
+
+			if (resultList != null)
+			{
+				resultList.add(manFileInfo);
+			}
+
+			writeLine("");
+		}
+
+		private ManifestFileInfo manFileInfo;
+		private String status;
+		private ArrayList<ManifestFileInfo> resultList;
+	}
+
+	/// <summary>
+	/// Check a file which is already in the manifest against its hash.  The
+	/// constructor settles how the file is to be checked, the hash step
+	/// reads it in that way, and the finish step reports the outcome and
+	/// updates the manifest entry.
+	/// </summary>
+	protected class CheckFileItem extends HashWorkItem
+	{
+		public CheckFileItem(
+			ManifestFileInfo manFileInfo,
+			File fileInfo)
+		{
+			this.manFileInfo = manFileInfo;
+			this.fileInfo = fileInfo;
+
+			chooseHashType();
+			chooseMigration();
+			chooseBlockVerify();
+			chooseQuickHash();
+			
+			deadline = Long.MAX_VALUE;
+			skipped = false;
+			
+			replayJournal();
+		}
+		
+		/// <summary>
+		/// Check with the hash method of the file, or with its cheap
+		/// checksum for a quick validate, where the file has one
+		/// </summary>
+		protected void chooseHashType()
+		{
+			hashType = manifest.getDefaultHashMethod();
+			if (manFileInfo.getFileHash() != null)
+			{
+				hashType = manFileInfo.getFileHash().getHashType();
+			}
+			
+			quickCheck =
+				quick &&
+				update == false &&
+				makeNewHash == false &&
+				manFileInfo.getQuickHash() != null;
+			
+			if (quickCheck)
+			{
+				hashType = manFileInfo.getQuickHash().getHashType();
+			}
+			
+			newHashType = getNewHashType(manifest);
+		}
+		
+		/// <summary>
+		/// Piggyback a migration to the default hash method on the read we
+		/// are doing anyway, up to the limit for this run
+		/// </summary>
+		protected void chooseMigration()
+		{
+			migrateHash = false;
+			if (makeNewHash == false &&
+				quickCheck == false &&
+				manFileInfo.getFileHash() != null &&
+				hashType.equals(newHashType) == false &&
+				migrateHashCount < migrateHashLimit)
+			{
+				migrateHash = true;
+				migrateHashCount++;
+			}
+		}
+		
+		/// <summary>
+		/// When we are only checking, a large file with block hashes can be
+		/// checked block by block in parallel.  It is then verified against
+		/// its block hashes rather than its whole-file hash.
+		/// </summary>
+		protected void chooseBlockVerify()
+		{
+			storedBlocks = manFileInfo.getBlockHashes();
+			verifyBlocks =
+				storedBlocks != null &&
+				update == false &&
+				makeNewHash == false &&
+				migrateHash == false &&
+				quickCheck == false;
+		}
+		
+		/// <summary>
+		/// Make the quick hash in the same read as the full one, for an
+		/// update, or for a validate of a file which doesn't have one
+		/// </summary>
+		protected void chooseQuickHash()
+		{
+			makeQuickHash = false;
+			if (quickCheck == false &&
+				verifyBlocks == false &&
+				getQuickHashType() != null)
+			{
+				makeQuickHash =
+					update ||
+					manFileInfo.getQuickHash() == null ||
+					manFileInfo.getQuickHash().getHashType().equals(
+						getQuickHashType()) == false;
+			}
+		}
+		
+		/// <summary>
+		/// Use the outcome from an interrupted validate if the file hasn't
+		/// changed since.  It was read by that validate.
+		/// </summary>
+		protected void replayJournal()
+		{
+			replayed = false;
+			contentsRead = false;
+			journalPath = null;
+			if (journal == null)
+			{
+				return;
+			}
+			
+			journalPath = Manifest.makeStandardPathString(manFileInfo);
+			
+			ValidateJournal.Result result = journal.findResult(
+				journalPath,
+				fileInfo,
+				getJournalMethod());
+			
+			if (result != null)
+			{
+				replayed = true;
+				contentsRead = true;
+				checkHash = result.getCheckHash();
+				newHash = result.getNewHash();
+				blocksDiffer = result.isBlocksDiffer();
+				differentRanges = result.getDifferentRanges();
+				validatedMillis = result.getValidatedMillis();
+			}
+		}
+		
+		/// <summary>
+		/// Record the outcome in the validate journal, so that it can be
+		/// used if this run is interrupted
+		/// </summary>
+		protected void recordJournal()
+		{
+			if (journal == null ||
+				exception != null ||
+				newHashException != null)
+			{
+				return;
+			}
+			
+			ValidateJournal.Result result = new ValidateJournal.Result(
+				fileInfo.length(),
+				fileInfo.lastModified(),
+				getJournalMethod());
+			
+			result.setCheckHash(checkHash);
+			result.setNewHash(newHash);
+			result.setBlocksDiffer(blocksDiffer);
+			result.setDifferentRanges(differentRanges);
+			result.setValidatedMillis(validatedMillis);
+			
+			journal.recordResult(journalPath, result);
+		}
+		
+		/// <summary>
+		/// Describe how the file is checked, for matching the outcome
+		/// recorded in a validate journal
+		/// </summary>
+		protected String getJournalMethod()
+		{
+			if (quickCheck)
+			{
+				return "quick " + hashType;
+			}
+			
+			if (verifyBlocks)
+			{
+				return "blocks " + storedBlocks.getHashType() + " " + storedBlocks.getBlockSize();
+			}
+			
+			if (isChangingHashType())
+			{
+				return hashType + " " + newHashType;
+			}
+			
+			return hashType;
+		}
+		
+		/// <summary>
+		/// Whether the file gets a hash of a different method from the one
+		/// it is checked with
+		/// </summary>
+		protected boolean isChangingHashType()
+		{
+			return
+				(makeNewHash || migrateHash) &&
+				newHashType.equals(hashType) == false;
+		}
+
+		/// <summary>
+		/// Skip the file if it hasn't started to be checked by this time
+		/// </summary>
+		public void setDeadline(long deadline)
+		{
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean needsHash()
+		{
+			return replayed == false;
+		}
+
+		@Override
+		public String getBatchHashType()
+		{
+			if (quickCheck)
+			{
+				return hashType;
+			}
+			
+			if (verifyBlocks ||
+				makeQuickHash ||
+				isChangingHashType() ||
+				isGrowing() ||
+				hasBlockHashDigest(fileInfo, storedBlocks, makeNewHash))
+			{
+				return null;
+			}
+			
+			return hashType;
+		}
+
+		@Override
+		public File getFile()
+		{
+			return fileInfo;
+		}
+
+		@Override
+		public void hash()
+		{
+			if (System.currentTimeMillis() >= deadline)
+			{
+				skipped = true;
+				return;
+			}
+			
+			if (verifyBlocks)
+			{
+				hashBlocks();
+			}
+			else
+			{
+				hashFile();
+			}
+			
+			if (update)
+			{
+				partialHash = makePartialHash(fileInfo, newHash, manFileInfo);
+			}
+			
+			validatedMillis = System.currentTimeMillis();
+			recordJournal();
+		}
+		
+		protected void hashFile()
+		{
+			if (quickCheck)
+			{
+				hashQuick();
+				return;
+			}
+			
+			if (isGrowing())
+			{
+				hashGrowing();
+				return;
+			}
+			
+			if (isChangingHashType())
+			{
+				hashWithNewType();
+			}
+			else
+			{
+				hashWithSameType();
+			}
+			
+			findDifferentRanges();
+		}
+		
+		/// <summary>
+		/// Check the old hash and make the new one in a single read
+		/// </summary>
+		protected void hashWithNewType()
+		{
+			try
+			{
+				blockDigest = makeBlockHashDigest(fileInfo, storedBlocks, makeNewHash);
+				
+				FileHash[] hashes = computeFileHashes(
+					fileInfo,
+					addQuickHashType(
+						new String[] { hashType, newHashType },
+						makeQuickHash),
+					blockDigest,
+					journalPath);
+				
+				checkHash = hashes[0];
+				newHash = hashes[1];
+				quickHash = findQuickHash(hashes, makeQuickHash);
+				contentsRead = hashesFromCache.get() == false;
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+			}
+			
+			if (exception != null && makeNewHash)
+			{
+				// The old hash method may be the problem, so try again
+				// with just the new one.
+				try
+				{
+					newHash = computeFileHashes(
+						fileInfo,
+						new String[] { newHashType },
+						blockDigest,
+						journalPath)[0];
+				}
+				catch (Exception ex)
+				{
+					newHash = null;
+					newHashException = ex;
+				}
+			}
+		}
+		
+		protected void hashWithSameType()
+		{
+			try
+			{
+				blockDigest = makeBlockHashDigest(fileInfo, storedBlocks, makeNewHash);
+				
+				FileHash[] hashes = computeFileHashes(
+					fileInfo,
+					addQuickHashType(
+						new String[] { hashType },
+						makeQuickHash),
+					blockDigest,
+					journalPath);
+				
+				checkHash = hashes[0];
+				quickHash = findQuickHash(hashes, makeQuickHash);
+				contentsRead = hashesFromCache.get() == false;
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+			}
+
+			newHash = checkHash;
+			if (makeNewHash && exception != null)
+			{
+				newHashException = exception;
+			}
+		}
+		
+		/// <summary>
+		/// Where the file is different and its blocks were hashed in the
+		/// same read, find which parts of it changed
+		/// </summary>
+		protected void findDifferentRanges()
+		{
+			if (checkHash != null &&
+				blockDigest != null &&
+				storedBlocks != null &&
+				storedBlocks.isComparable(blockDigest.getHashType(), blockDigest.getBlockSize()) &&
+				checkHash.equals(manFileInfo.getFileHash()) == false)
+			{
+				differentRanges = storedBlocks.findDifferentRanges(
+					blockDigest.getBlockHashes(),
+					fileInfo.length());
+			}
+		}
+		
+		/// <summary>
+		/// Check the file against just its quick hash
+		/// </summary>
+		protected void hashQuick()
+		{
+			try
+			{
+				checkHash = computeFileHashes(
+					fileInfo,
+					new String[] { hashType },
+					null,
+					journalPath)[0];
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+			}
+			
+			newHash = manFileInfo.getFileHash();
+		}
+		
+		/// <summary>
+		/// Whether the file is a large file which has grown since it was
+		/// last hashed, and so may only have been added to
+		/// </summary>
+		protected boolean isGrowing()
+		{
+			try
+			{
+				return
+					update &&
+					makeNewHash == false &&
+					migrateHash == false &&
+					manFileInfo.getFileHash() != null &&
+					fileInfo.length() > manFileInfo.getFileLength() &&
+					fileInfo.length() >= appendCheckpointThreshold &&
+					makeBlockHashDigest(fileInfo, storedBlocks, false) == null &&
+					GrowingFileHasher.isResumable(hashType);
+			}
+			catch (Exception ex)
+			{
+				return false;
+			}
+		}
+		
+		protected void hashGrowing()
+		{
+			GrowingFileHasher hasher = new GrowingFileHasher(
+				hashEngine,
+				partialHashSampleSize);
+			
+			try
+			{
+				hasher.hash(
+					fileInfo,
+					hashType,
+					manFileInfo.getAppendCheckpoint());
+				
+				checkHash = hasher.getFileHash();
+				newHash = checkHash;
+				contentsRead = hasher.isWholeFileRead();
+				appendCheckpoint = hasher.getCheckpoint();
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+				appendCheckpoint = null;
+			}
+		}
+		
+		/// <summary>
+		/// Verify the file by its blocks alone.  The whole-file hash isn't
+		/// computed, so checkHash stays null.
+		/// </summary>
+		protected void hashBlocks()
+		{
+			try
+			{
+				ArrayList<BlockRange> ranges = new BlockVerifier(hashEngine).verify(
+					fileInfo,
+					storedBlocks,
+					manFileInfo.getFileLength());
+				
+				contentsRead = true;
+				
+				if (ranges != null)
+				{
+					blocksDiffer = true;
+					differentRanges = ranges;
+				}
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+			}
+			
+			newHash = manFileInfo.getFileHash();
+		}
+		
+		protected boolean isDifferent()
+		{
+			if (checkHash == null)
+			{
+				return blocksDiffer;
+			}
+			
+			if (quickCheck)
+			{
+				return checkHash.equals(manFileInfo.getQuickHash()) == false;
+			}
+			
+			return checkHash.equals(manFileInfo.getFileHash()) == false;
+		}
+
+		@Override
+		public void finish()
+		{
+			if (skipped)
+			{
+				// Left for the next scrub
+				fileCheckedCount--;
+				return;
+			}
+			
+			write(Manifest.makeStandardPathString(manFileInfo));
+
+			if (exception != null)
+			{
+				writeLine(" [ERROR]");
+				writeLine(exception.toString());
+				
+				errorFiles.add(manFileInfo);
+			}
+			else if (manFileInfo.getFileHash() == null)
+			{
+				write(" [NULL HASH IN MANIFEST]");
+				changedFiles.add(manFileInfo);
+			}
+			else if (isDifferent())
+			{
+				reportDifferent();
+			}
+			else
+			{
+				reportUnchanged();
+			}
+
+			if (newHashException != null)
+			{
+				writeLine(" [ERROR MAKING NEW HASH]");
+				writeLine(newHashException.toString());
+				
+				errorFiles.add(manFileInfo);
+			}
+
+			if (migrateHash)
+			{
+				finishMigration();
+			}
+
+			finishQuickHash();
+
+			// Update hash and last modified date accordingly
+			manFileInfo.setFileHash(newHash);
+			
+			if (update)
+			{
+				finishResumeState();
+			}
+			
+			if (verifyBlocks == false &&
+				quickCheck == false &&
+				replayed == false)
+			{
+				manFileInfo.setBlockHashes(
+					makeFileBlockHashes(blockDigest, newHash));
+			}
+			
+			manFileInfo.setLastModifiedUtc(
+				new Date(fileInfo.lastModified()));
+			
+			// A file still growing may be longer than what was hashed
+			if (appendCheckpoint != null)
+			{
+				manFileInfo.setFileLength(appendCheckpoint.getLength());
+			}
+			else
+			{
+				manFileInfo.setFileLength(fileInfo.length());
+			}
+
+			writeLine("");
+		}
+		
+		protected void reportDifferent()
+		{
+			write(" [DIFFERENT]");
+			changedFiles.add(manFileInfo);
+			
+			// An update replaces the hash, which hasn't been validated yet.
+			manFileInfo.setLastValidatedUtc(null);
+			
+			if (differentRanges != null &&
+				differentRanges.isEmpty() == false)
+			{
+				differentBlockRanges.put(manFileInfo, differentRanges);
+			}
+		}
+		
+		protected void reportUnchanged()
+		{
+			// Only a read of the whole file for its full hash counts as a
+			// validation, rather than a hash which was cached.  A result
+			// replayed from the journal was validated when the interrupted
+			// validate read it.
+			if (quickCheck == false && contentsRead)
+			{
+				manFileInfo.setLastValidatedUtc(new Date(validatedMillis));
+				validatedFiles.add(manFileInfo);
+			}
+			
+			if (Manifest.compareManifestDateToFilesystemDate(
+				new Date(fileInfo.lastModified()),
+					manFileInfo.getLastModifiedUtc()) == false)
+			{
+				write(" [LAST MODIFIED DATE]");
+				lastModifiedDateFiles.add(manFileInfo);
+			
+				if (backDate == true)
+				{
+					fileInfo.setLastModified(
+						manFileInfo.getLastModifiedUtc().getTime());
+				}
+			}
+		}
+		
+		/// <summary>
+		/// Only adopt the new hash if the old one was verified
+		/// </summary>
+		protected void finishMigration()
+		{
+			if (exception == null &&
+				checkHash.equals(manFileInfo.getFileHash()))
+			{
+				migratedHashFiles.add(manFileInfo);
+			}
+			else
+			{
+				newHash = checkHash;
+			}
+		}
+		
+		/// <summary>
+		/// A quick hash is only kept if it is of contents which are either
+		/// verified or being adopted by an update
+		/// </summary>
+		protected void finishQuickHash()
+		{
+			if (quickHash != null &&
+				exception == null &&
+				(update || isDifferent() == false))
+			{
+				manFileInfo.setQuickHash(quickHash);
+				
+				if (update == false)
+				{
+					quickHashFiles.add(manFileInfo);
+				}
+			}
+			else if (update &&
+				(exception != null || isDifferent()))
+			{
+				manFileInfo.setQuickHash(null);
+			}
+		}
+		
+		/// <summary>
+		/// Keep what lets the next update skip or shorten reading the file
+		/// </summary>
+		protected void finishResumeState()
+		{
+			// A migration which wasn't adopted leaves the partial hash with
+			// the wrong method.
+			if (partialHash != null &&
+				(newHash == null ||
+				 partialHash.getHashType().equals(newHash.getHashType()) == false))
+			{
+				partialHash = null;
+			}
+			
+			manFileInfo.setPartialHash(partialHash);
+			
+			// The checkpoint stays good as long as the contents do
+			if (appendCheckpoint != null)
+			{
+				manFileInfo.setAppendCheckpoint(appendCheckpoint);
+			}
+			else if (newHash == null ||
+				newHash.equals(checkHash) == false ||
+				isDifferent())
+			{
+				manFileInfo.setAppendCheckpoint(null);
+			}
+		}
+
+		private ManifestFileInfo manFileInfo;
+		private File fileInfo;
+		private String hashType;
+		private String newHashType;
+		private boolean migrateHash;
+		private boolean verifyBlocks;
+		private boolean quickCheck;
+		private boolean makeQuickHash;
+		private boolean replayed;
+		private boolean contentsRead;
+		private long validatedMillis;
+		private long deadline;
+		private boolean skipped;
+		private String journalPath;
+		private boolean blocksDiffer;
+		private FileBlockHashes storedBlocks;
+		private BlockHashDigest blockDigest;
+		private ArrayList<BlockRange> differentRanges;
+		private FileHash checkHash;
+		private FileHash newHash;
+		private FileHash partialHash;
+		private FileHash quickHash;
+		private AppendCheckpoint appendCheckpoint;
+		private Exception exception;
+		private Exception newHashException;
+	}
+
+	/// <summary>
+	/// Register a file which is not yet in the manifest
+	/// </summary>
+	protected class NewFileItem extends HashWorkItem
+	{
+		public NewFileItem(
+			ManifestFileInfo newManFileInfo,
+			File fileInfo)
+		{
+			this.newManFileInfo = newManFileInfo;
+			this.fileInfo = fileInfo;
+
+			// Moves are matched afterwards without hashing every new file,
+			// but every new file needs its hash to find duplicates
+			checkHash = false;
+			if (update == true ||
+				alwaysCheckHash == true ||
+				trackDuplicates == true)
+			{
+				checkHash = true;
+			}
+			
+			newHashType = getNewHashType(manifest);
+			
+			replayed = false;
+			journalPath = null;
+			if (journal != null && checkHash)
+			{
+				journalPath = Manifest.makeStandardPathString(newManFileInfo);
+				
+				ValidateJournal.Result result = journal.findResult(
+					journalPath,
+					fileInfo,
+					newHashType);
+				
+				if (result != null)
+				{
+					replayed = true;
+					fileHash = result.getCheckHash();
+				}
+			}
+		}
+
+		@Override
+		public boolean needsHash()
+		{
+			return checkHash && replayed == false;
+		}
+
+		@Override
+		public String getBatchHashType()
+		{
+			if ((update && getQuickHashType() != null) ||
+				hasBlockHashDigest(fileInfo, null, true))
+			{
+				return null;
+			}
+			
+			return newHashType;
+		}
+
+		@Override
+		public File getFile()
+		{
+			return fileInfo;
+		}
+
+		@Override
+		public void hash()
+		{
+			try
+			{
+				blockDigest = makeBlockHashDigest(fileInfo, null, true);
+				
+				// New files are only kept by an update
+				boolean makeQuickHash = update && getQuickHashType() != null;
+				
+				FileHash[] hashes = computeFileHashes(
+					fileInfo,
+					addQuickHashType(
+						new String[] { newHashType },
+						makeQuickHash),
+					blockDigest,
+					journalPath);
+				
+				fileHash = hashes[0];
+				quickHash = findQuickHash(hashes, makeQuickHash);
+			}
+			catch (Exception ex)
+			{
+				exception = ex;
+			}
+			
+			if (update)
+			{
+				partialHash = makePartialHash(fileInfo, fileHash, null);
+			}
+			
+			if (journal != null && exception == null)
+			{
+				ValidateJournal.Result result = new ValidateJournal.Result(
+					fileInfo.length(),
+					fileInfo.lastModified(),
+					newHashType);
+				
+				result.setCheckHash(fileHash);
+				
+				journal.recordResult(journalPath, result);
+			}
+		}
+
+		@Override
+		public void finish()
+		{
+			write(Manifest.makeStandardPathString(newManFileInfo));
+			
+			newManFileInfo.setFileHash(fileHash);
+			newManFileInfo.setPartialHash(partialHash);
+			newManFileInfo.setQuickHash(quickHash);
+			newManFileInfo.setBlockHashes(
+				makeFileBlockHashes(blockDigest, fileHash));
+
+			if (checkHash && newManFileInfo.getFileHash() == null)
+			{
+				errorFiles.add(newManFileInfo);
+				
+				writeLine(" [ERROR]");
+				writeLine(exception.toString());
+			}
+			else
+			{
+				newFiles.add(newManFileInfo);
+				newFilesForGroom.add(fileInfo);
+				write(" [NEW]");
+			}
+			
+			newManFileInfo.setFileLength(
+				fileInfo.length());
+			
+			newManFileInfo.setLastModifiedUtc(
+				new Date(fileInfo.lastModified()));
+			
+			newManFileInfo.setRegisteredUtc(
+				new Date());
+
+			writeLine("");
+		}
+
+		private ManifestFileInfo newManFileInfo;
+		private File fileInfo;
+		private boolean checkHash;
+		private String newHashType;
+		private boolean replayed;
+		private String journalPath;
+		private BlockHashDigest blockDigest;
+		private FileHash fileHash;
+		private FileHash partialHash;
+		private FileHash quickHash;
+		private Exception exception;
+	}
+
+	/// <summary>
+	/// A run of consecutive work items, in which the small files are read
+	/// and hashed together before each item does its own hash step.  The
+	/// items are finished in order, so the reports are the same as if they
+	/// had been submitted one at a time.
+	/// </summary>
+	protected class SmallFileBatchItem extends HashWorkItem
+	{
+		public SmallFileBatchItem()
+		{
+			items = new ArrayList<HashWorkItem>();
+			smallFiles = new ArrayList<File>();
+			hashTypes = new ArrayList<String>();
+		}
+		
+		public void add(HashWorkItem item)
+		{
+			items.add(item);
+			
+			if (item.needsHash())
+			{
+				smallFiles.add(item.getFile());
+				hashTypes.add(item.getBatchHashType());
+			}
+		}
+		
+		public int getItemCount()
+		{
+			return items.size();
+		}
+		
+		public int getSmallFileCount()
+		{
+			return smallFiles.size();
+		}
+
+		@Override
+		public boolean needsHash()
+		{
+			return smallFiles.isEmpty() == false;
+		}
+
+		@Override
+		public File getFile()
+		{
+			if (smallFiles.isEmpty())
+			{
+				return null;
+			}
+			
+			return smallFiles.get(0);
+		}
+
+		@Override
+		public void hash()
+		{
+			Map<File, FileHash> batchHashes = batchedHashes.get();
+			
+			// The files are nearly always all hashed the same way
+			LinkedHashSet<String> batchTypes = new LinkedHashSet<String>(hashTypes);
+			for (String nextType : batchTypes)
+			{
+				ArrayList<File> files = new ArrayList<File>();
+				for (int i = 0; i < smallFiles.size(); i++)
+				{
+					if (hashTypes.get(i).equals(nextType))
+					{
+						files.add(smallFiles.get(i));
+					}
+				}
+				
+				byte[][] hashes = hashEngine.computeSmallFileHashes(
+					files.toArray(new File[files.size()]),
+					nextType);
+				
+				for (int i = 0; i < hashes.length; i++)
+				{
+					if (hashes[i] != null)
+					{
+						batchHashes.put(files.get(i), new FileHash(hashes[i], nextType));
+					}
+				}
+			}
+			
+			try
+			{
+				for (HashWorkItem nextItem : items)
+				{
+					if (nextItem.needsHash())
+					{
+						nextItem.hash();
+					}
+				}
+			}
+			finally
+			{
+				batchHashes.clear();
+			}
+		}
+
+		@Override
+		public void finish()
+		{
+			for (HashWorkItem nextItem : items)
+			{
+				nextItem.finish();
+			}
+		}
+
+		private ArrayList<HashWorkItem> items;
+		private ArrayList<File> smallFiles;
+		private ArrayList<String> hashTypes;
+	}
+
+	/// <summary>
+	/// Record a file which is matched by the ignore list
+	/// </summary>
+	protected class IgnoredFileItem extends HashWorkItem
+	{
+		public IgnoredFileItem(
+			ManifestFileInfo newManFileInfo,
+			File fileInfo)
+		{
+			this.newManFileInfo = newManFileInfo;
+			this.fileInfo = fileInfo;
+		}
+
+		@Override
+		public void finish()
+		{
+			write(Manifest.makeStandardPathString(newManFileInfo));
+			
+			ignoredFiles.add(newManFileInfo);
+	
+			// Don't groom the manifest file!
+			try
+			{
+				if (fileInfo.getCanonicalPath().equals(
+					manifest.getManifestFile().getCanonicalPath()) == false)
+				{
+					ignoredFilesForGroom.add(fileInfo);
+				}
+			}
+			catch (Exception ex)
+			{
+				// What to do?
+			}
+
+			write(" [IGNORED]");
+			writeLine("");
+		}
+
+		private ManifestFileInfo newManFileInfo;
+		private File fileInfo;
+	}
+	
+	
+	public boolean isBackDate()
+	{
+		return backDate;
+	}
+
+	public void setBackDate(boolean backDate)
+	{
+		this.backDate = backDate;
+	}
+
+	public boolean isTrackMoves()
+	{
+		return trackMoves;
+	}
+
+	public void setTrackMoves(boolean trackMoves)
+	{
+		this.trackMoves = trackMoves;
 	}
 
 	public boolean isTrackDuplicates()
 	{
-		return trackDuplicates;
+		return trackDuplicates;
+	}
+
+	public void setTrackDuplicates(boolean trackDuplicates)
+	{
+		this.trackDuplicates = trackDuplicates;
+	}
+
+	protected void doTrackMoves()
+	{
+		// For large number of moved files it's probably faster to
+		// rebuild these lists from scratch than to remove many
+		// individual items from them.
+		ArrayList<ManifestFileInfo> missingFilesUpdated =
+			new ArrayList<ManifestFileInfo>();
+		
+		ArrayList<ManifestFileInfo> newFilesUpdated =
+			new ArrayList<ManifestFileInfo>();
+		
+		// Make files easy to find by their hashcodes
+		HashFileDict missingFileDict = new HashFileDict();
+		for (ManifestFileInfo missingFile : missingFiles)
+		{
+			missingFileDict.Add(missingFile);
+		}
+		
+		// New files which were ruled out without hashing can't be moves
+		HashFileDict newFileDict = new HashFileDict();
+		for (ManifestFileInfo newFile : newFiles)
+		{
+			if (newFile.getFileHash() != null)
+			{
+				newFileDict.Add(newFile);
+			}
+		}
+		
+		// Note which new files are really moved files for later when
+		// we rebuild the new files list.
+		HashSet<ManifestFileInfo> movedFilesSet =
+			new HashSet<ManifestFileInfo>();
+
+		for (ManifestFileInfo checkMissingFile : missingFiles)
+		{
+			if (newFileDict.getDict().containsKey(checkMissingFile.getFileHash()))
+			{
+				if (movedFiles.containsKey(checkMissingFile.getFileHash()) == false)
+				{
+					movedFiles.put(
+						checkMissingFile.getFileHash(),
+						new MovedFileSet());
+				
+					movedFileOrder.add(checkMissingFile.getFileHash());
+				}
+				
+				movedFiles.get(checkMissingFile.getFileHash()).getOldFiles().add(checkMissingFile);
+				
+				if (movedFiles.get(checkMissingFile.getFileHash()).getNewFiles().isEmpty())
+				{
+					// First time only
+					for (ManifestFileInfo nextNewFile :
+						newFileDict.getDict().get(checkMissingFile.getFileHash()))
+					{
+						movedFiles.get(checkMissingFile.getFileHash()).getNewFiles().add(nextNewFile);
+					
+						// Remember for later rebuild
+						movedFilesSet.add(nextNewFile);
+					}
+				}
+			}
+			else
+			{
+				missingFilesUpdated.add(checkMissingFile);
+			}
+		}
+
+		// Rebuild new file list
+		newFilesForGroom.clear();
+		for (ManifestFileInfo checkNewFile : newFiles)
+		{
+			if (movedFilesSet.contains(checkNewFile) == false)
+			{
+				newFilesUpdated.add(checkNewFile);
+				
+				String checkNewFilePath =
+					Manifest.makeNativePathString(checkNewFile);
+				
+				File newFile = new File(checkNewFilePath);
+				
+				try
+				{
+					if (newFile.getCanonicalPath().equals(
+						manifest.getManifestFile().getCanonicalPath()) == false)
+					{
+						newFilesForGroom.add(newFile);
+					}
+				}
+				catch (Exception ex)
+				{
+					// What to do?
+				}
+			}
+		}
+		
+		// Replace with updated lists
+		missingFiles = missingFilesUpdated;
+		newFiles = newFilesUpdated;
+	}
+	
+	/// <summary>
+	/// Hash the new files which could be moves of missing files, when they
+	/// weren't hashed during the walk.  A new file can only be a move if a
+	/// missing file has the same size.  If all of those missing files have
+	/// partial hashes, the start and end of the new file must match one of
+	/// them too.  Only the files left after that are hashed in full.  The
+	/// candidates are hashed on the hash queue like the files of the walk.
+	/// </summary>
+	protected void hashMoveCandidates()
+	{
+		if (trackMoves == false)
+		{
+			return;
+		}
+		
+		HashMap<Long, ArrayList<ManifestFileInfo>> missingFilesBySize =
+			new HashMap<Long, ArrayList<ManifestFileInfo>>();
+		
+		for (ManifestFileInfo nextMissingFile : missingFiles)
+		{
+			if (nextMissingFile.getFileHash() == null)
+			{
+				continue;
+			}
+			
+			ArrayList<ManifestFileInfo> sameSize =
+				missingFilesBySize.get(nextMissingFile.getFileLength());
+			
+			if (sameSize == null)
+			{
+				sameSize = new ArrayList<ManifestFileInfo>();
+				missingFilesBySize.put(nextMissingFile.getFileLength(), sameSize);
+			}
+			
+			sameSize.add(nextMissingFile);
+		}
+		
+		for (ManifestFileInfo nextNewFile : newFiles)
+		{
+			if (nextNewFile.getFileHash() != null)
+			{
+				continue;
+			}
+			
+			ArrayList<ManifestFileInfo> sameSize =
+				missingFilesBySize.get(nextNewFile.getFileLength());
+			
+			if (sameSize == null)
+			{
+				continue;
+			}
+			
+			submitWork(new MoveCandidateItem(nextNewFile, sameSize));
+		}
+		
+		drainWork();
+	}
+	
+	/// <summary>
+	/// Hash a new file which may be a move of one of the missing files of
+	/// the same size
+	/// </summary>
+	protected class MoveCandidateItem extends HashWorkItem
+	{
+		public MoveCandidateItem(
+			ManifestFileInfo newFile,
+			ArrayList<ManifestFileInfo> sameSize)
+		{
+			this.newFile = newFile;
+			this.sameSize = sameSize;
+			
+			file = newFile.getFileObject();
+			hashes = null;
+		}
+		
+		@Override
+		public boolean needsHash()
+		{
+			return true;
+		}
+		
+		@Override
+		public File getFile()
+		{
+			return file;
+		}
+		
+		@Override
+		public void hash()
+		{
+			try
+			{
+				// Hash with each method the candidates were hashed with
+				LinkedHashSet<String> hashTypes = new LinkedHashSet<String>();
+				for (ManifestFileInfo nextCandidate : sameSize)
+				{
+					hashTypes.add(nextCandidate.getFileHash().getHashType());
+				}
+				
+				String[] hashTypeArray = hashTypes.toArray(new String[hashTypes.size()]);
+				
+				// Hashes which moved with the file save reading it at all
+				hashes = lookupXattrHashes(
+					file,
+					FileStamp.read(file),
+					hashTypeArray);
+				
+				if (hashes == null &&
+					matchesPartialHash(file, sameSize))
+				{
+					hashes = computeFileHashes(file, hashTypeArray, null);
+				}
+			}
+			catch (Exception ex)
+			{
+				// Leave it as a new file
+				hashes = null;
+			}
+		}
+		
+		@Override
+		public void finish()
+		{
+			if (hashes == null)
+			{
+				return;
+			}
+			
+			newFile.setFileHash(hashes[0]);
+			
+			for (ManifestFileInfo nextCandidate : sameSize)
+			{
+				for (FileHash nextHash : hashes)
+				{
+					if (nextHash.equals(nextCandidate.getFileHash()))
+					{
+						newFile.setFileHash(nextHash);
+					}
+				}
+			}
+		}
+		
+		private ManifestFileInfo newFile;
+		private ArrayList<ManifestFileInfo> sameSize;
+		private File file;
+		private FileHash[] hashes;
+	}
+	
+	/// <returns>
+	/// False if the partial hash of the file rules out every one of the
+	/// missing files
+	/// </returns>
+	protected boolean matchesPartialHash(
+		File file,
+		ArrayList<ManifestFileInfo> sameSize) throws Exception
+	{
+		// Reading the samples would cost as much as a full hash
+		if (file.length() <= 2 * partialHashSampleSize)
+		{
+			return true;
+		}
+		
+		HashMap<String, FileHash> partialHashes = new HashMap<String, FileHash>();
+		
+		for (ManifestFileInfo nextCandidate : sameSize)
+		{
+			FileHash candidateHash = nextCandidate.getPartialHash();
+			
+			if (candidateHash == null)
+			{
+				// Can't be ruled out without a full hash
+				return true;
+			}
+			
+			FileHash partialHash = partialHashes.get(candidateHash.getHashType());
+			if (partialHash == null)
+			{
+				partialHash = new FileHash(
+					hashEngine.computePartialHash(
+						file,
+						candidateHash.getHashType(),
+						partialHashSampleSize),
+					candidateHash.getHashType());
+				
+				partialHashes.put(candidateHash.getHashType(), partialHash);
+			}
+			
+			if (partialHash.equals(candidateHash))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/// <summary>
+	/// Make the partial hash to record for a file with a newly computed
+	/// hash, reusing the existing one if the contents haven't changed.
+	/// </summary>
+	/// <returns>
+	/// The partial hash, or null if the file is too small to need one or
+	/// it couldn't be read
+	/// </returns>
+	protected FileHash makePartialHash(
+		File file,
+		FileHash fileHash,
+		ManifestFileInfo existing)
+	{
+		if (fileHash == null ||
+			file.length() <= 2 * partialHashSampleSize)
+		{
+			return null;
+		}
+		
+		if (existing != null &&
+			existing.getPartialHash() != null &&
+			fileHash.equals(existing.getFileHash()) &&
+			existing.getPartialHash().getHashType().equals(fileHash.getHashType()))
+		{
+			return existing.getPartialHash();
+		}
+		
+		// Links to the same file share the partial hash like the full hash
+		FileStamp stamp = null;
+		String[] partialTypes = null;
+		if (hardLinkTracker != null)
+		{
+			stamp = FileStamp.read(file);
+			
+			if (stamp != null && stamp.getLinkCount() > 1)
+			{
+				partialTypes = new String[] { "partial", fileHash.getHashType() };
+			}
+		}
+		
+		FileHash partialHash = null;
+		
+		try
+		{
+			if (partialTypes != null)
+			{
+				FileHash[] linkHashes = hardLinkTracker.awaitOrClaim(stamp, partialTypes);
+				
+				if (linkHashes != null)
+				{
+					return linkHashes[0];
+				}
+			}
+			
+			// The samples were usually taken while the full hash was read
+			byte[] sampledHash = null;
+			if (file.equals(sampledFile.get()))
+			{
+				sampledHash = partialSamples.get().computePartialHash(
+					fileHash.getHashType());
+			}
+			
+			if (sampledHash == null)
+			{
+				sampledHash = hashEngine.computePartialHash(
+					file,
+					fileHash.getHashType(),
+					partialHashSampleSize);
+			}
+			
+			partialHash = new FileHash(sampledHash, fileHash.getHashType());
+		}
+		catch (Exception ex)
+		{
+			partialHash = null;
+		}
+		finally
+		{
+			if (partialTypes != null)
+			{
+				hardLinkTracker.complete(
+					stamp,
+					partialTypes,
+					partialHash == null ? null : new FileHash[] { partialHash });
+			}
+		}
+		
+		return partialHash;
+	}
+	
+	protected void doTrackDuplicates()
+	{
+		duplicateFiles.clear();
+		
+		HashMap<FileHash, ArrayList<ManifestFileInfo>> fileDict =
+			new HashMap<FileHash, ArrayList<ManifestFileInfo>>();
+		
+		checkDuplicatesRecursive(
+			manifest.getRootDirectory(),
+			fileDict);
+		
+		for (FileHash nextHash : fileDict.keySet())
+		{
+			ArrayList<ManifestFileInfo> nextList =
+				fileDict.get(nextHash);
+		
+			if (nextList.size() > 1)
+			{
+				duplicateFiles.put(nextHash, nextList);
+			}
+		}
+	}
+
+	protected void checkDuplicatesRecursive(
+		ManifestDirectoryInfo currentDirectory,
+		HashMap<FileHash, ArrayList<ManifestFileInfo>> fileDict)
+	{
+		for (ManifestFileInfo nextFileInfo :
+			currentDirectory.getFiles().values())
+		{
+			// Files without a hash aren't duplicates of each other
+			if (nextFileInfo.getFileHash() == null)
+			{
+				continue;
+			}
+			
+			if (fileDict.containsKey(nextFileInfo.getFileHash()) == false)
+			{
+				fileDict.put(
+					nextFileInfo.getFileHash(),
+					new ArrayList<ManifestFileInfo>());
+			}
+			
+			fileDict.get(nextFileInfo.getFileHash()).add(nextFileInfo);
+		}
+			
+		for (ManifestDirectoryInfo nextDirInfo :
+			currentDirectory.getSubdirectories().values())
+		{
+			checkDuplicatesRecursive(
+				nextDirInfo,
+				fileDict);
+		}
 	}
 
-	public void setTrackDuplicates(boolean trackDuplicates)
+	
+	// Helper methods
+
+	protected void startHashQueue()
 	{
-		this.trackDuplicates = trackDuplicates;
+		hashQueue = new HashWorkQueue(
+			threads,
+			deviceScheduling,
+			streamsPerDevice);
+		
+		// Large files checked block by block are read with the same threads
+		readOptions.setBlockExecutor(hashQueue.getBlockExecutor());
+		readOptions.setBlockThreads(threads);
+		
+		if (readOptions.getStrategy() == ReadStrategy.PIPELINED)
+		{
+			ReadPipeline pipeline = new ReadPipeline(
+				threads,
+				ReadPipeline.defaultBuffersPerFile,
+				readOptions.getBufferSize());
+			
+			readOptions.setPipeline(pipeline);
+			hashQueue.setReadPipeline(pipeline, readOptions.getThrottle());
+		}
 	}
-
-	protected void doTrackMoves()
+	
+	/// <summary>
+	/// Submit an item to the hash queue, gathering small files into batches
+	/// along with the items around them
+	/// </summary>
+	protected void submitWork(HashWorkItem item)
 	{
-		// For large number of moved files it's probably faster to
-		// rebuild these lists from scratch than to remove many
-		// individual items from them.
-		ArrayList<ManifestFileInfo> missingFilesUpdated =
-			new ArrayList<ManifestFileInfo>();
+		boolean smallFile = isSmallFileItem(item);
 		
-		ArrayList<ManifestFileInfo> newFilesUpdated =
-			new ArrayList<ManifestFileInfo>();
+		if (smallFileBatch == null && smallFile == false)
+		{
+			hashQueue.submit(item);
+			return;
+		}
 		
-		// Make files easy to find by their hashcodes
-		HashFileDict missingFileDict = new HashFileDict();
-		for (ManifestFileInfo missingFile : missingFiles)
+		if (item.needsHash() && smallFile == false)
 		{
-			missingFileDict.Add(missingFile);
+			flushBatch();
+			hashQueue.submit(item);
+			return;
 		}
 		
-		HashFileDict newFileDict = new HashFileDict();
-		for (ManifestFileInfo newFile : newFiles)
+		if (smallFileBatch == null)
 		{
-			newFileDict.Add(newFile);
+			smallFileBatch = new SmallFileBatchItem();
 		}
 		
-		// Note which new files are really moved files for later when
-		// we rebuild the new files list.
-		HashSet<ManifestFileInfo> movedFilesSet =
-			new HashSet<ManifestFileInfo>();
+		smallFileBatch.add(item);
+		
+		if (smallFileBatch.getSmallFileCount() >= HashEngine.smallFileBatchSize ||
+			smallFileBatch.getItemCount() >= maxBatchItems)
+		{
+			flushBatch();
+		}
+	}
+	
+	protected void flushBatch()
+	{
+		if (smallFileBatch != null)
+		{
+			hashQueue.submit(smallFileBatch);
+			smallFileBatch = null;
+		}
+	}
+	
+	/// <summary>
+	/// Wait for all of the submitted work and finish it
+	/// </summary>
+	protected void drainWork()
+	{
+		flushBatch();
+		hashQueue.drain();
+	}
+	
+	protected boolean isSmallFileItem(HashWorkItem item)
+	{
+		if (isBatchingSmallFiles() == false ||
+			item.needsHash() == false ||
+			item.getFile() == null)
+		{
+			return false;
+		}
+		
+		String batchHashType = item.getBatchHashType();
+		
+		return
+			batchHashType != null &&
+			HashEngine.isBatchable(batchHashType) &&
+			item.getFile().length() <= HashEngine.smallFileThreshold;
+	}
+	
+	/// <summary>
+	/// Small files are batched with the batched read strategy, unless reads
+	/// are being avoided by the hash caches or the sharing of hard links.
+	/// </summary>
+	protected boolean isBatchingSmallFiles()
+	{
+		return
+			readOptions.getStrategy() == ReadStrategy.BATCHED &&
+			readOptions.isDirect() == false &&
+			hashCache == null &&
+			xattrCache == null &&
+			hardLinkTracker == null;
+	}
+	
+	protected void stopHashQueue()
+	{
+		hashQueue.shutdown();
+		hashQueue = null;
+		readOptions.setBlockExecutor(null);
+		
+		if (readOptions.getPipeline() != null)
+		{
+			readOptions.getPipeline().close();
+			readOptions.setPipeline(null);
+		}
+	}
 
-		for (ManifestFileInfo checkMissingFile : missingFiles)
+	/// <summary>
+	/// Compute hashes of a file with a single read, optionally feeding the
+	/// same read to a block hash digest.
+	/// </summary>
+	protected FileHash[] computeFileHashes(
+		File file,
+		String[] hashTypes,
+		BlockHashDigest blockDigest) throws Exception
+	{
+		return computeFileHashes(file, hashTypes, blockDigest, null);
+	}
+	
+	/// <param name="journalPath">
+	/// Path of the file in the validate journal, to checkpoint the read of
+	/// a very large file so it can be resumed.  May be null.
+	/// </param>
+	protected FileHash[] computeFileHashes(
+		File file,
+		String[] hashTypes,
+		BlockHashDigest blockDigest,
+		String journalPath) throws Exception
+	{
+		// A small file may have been read already as part of a batch
+		FileHash batchHash = batchedHashes.get().remove(file);
+		if (batchHash != null &&
+			hashTypes.length == 1 &&
+			batchHash.getHashType().equals(hashTypes[0]) &&
+			blockDigest == null)
 		{
-			if (newFileDict.getDict().containsKey(checkMissingFile.getFileHash()))
+			return new FileHash[] { batchHash };
+		}
+		
+		hashesFromCache.set(false);
+		sampledFile.remove();
+		
+		FileStamp stamp = null;
+		if (hashCache != null ||
+			xattrCache != null ||
+			hardLinkTracker != null)
+		{
+			stamp = FileStamp.read(file);
+		}
+		
+		// Validate never trusts the caches, but it may still add to them
+		if (hashCache != null)
+		{
+			if (stamp != null &&
+				alwaysCheckHash == false &&
+				blockDigest == null)
 			{
-				if (movedFiles.containsKey(checkMissingFile.getFileHash()) == false)
-				{
-					movedFiles.put(
-						checkMissingFile.getFileHash(),
-						new MovedFileSet());
+				FileHash[] cachedHashes = new FileHash[hashTypes.length];
+				boolean allCached = true;
 				
-					movedFileOrder.add(checkMissingFile.getFileHash());
+				for (int i = 0; i < hashTypes.length && allCached; i++)
+				{
+					cachedHashes[i] = hashCache.lookup(stamp, hashTypes[i]);
+					allCached = cachedHashes[i] != null;
 				}
 				
-				movedFiles.get(checkMissingFile.getFileHash()).getOldFiles().add(checkMissingFile);
-				
-				if (movedFiles.get(checkMissingFile.getFileHash()).getNewFiles().isEmpty())
+				if (allCached)
 				{
-					// First time only
-					for (ManifestFileInfo nextNewFile :
-						newFileDict.getDict().get(checkMissingFile.getFileHash()))
-					{
-						movedFiles.get(checkMissingFile.getFileHash()).getNewFiles().add(nextNewFile);
-					
-						// Remember for later rebuild
-						movedFilesSet.add(nextNewFile);
-					}
+					hashesFromCache.set(true);
+					return cachedHashes;
 				}
 			}
-			else
+		}
+		
+		if (blockDigest == null)
+		{
+			FileHash[] xattrHashes = lookupXattrHashes(file, stamp, hashTypes);
+			
+			if (xattrHashes != null)
 			{
-				missingFilesUpdated.add(checkMissingFile);
+				hashesFromCache.set(true);
+				return xattrHashes;
 			}
 		}
-
-		// Rebuild new file list
-		newFilesForGroom.clear();
-		for (ManifestFileInfo checkNewFile : newFiles)
+		
+		// Another link to the same file may already have been hashed
+		boolean shareLinks =
+			hardLinkTracker != null &&
+			stamp != null &&
+			stamp.getLinkCount() > 1 &&
+			blockDigest == null;
+		
+		if (shareLinks)
 		{
-			if (movedFilesSet.contains(checkNewFile) == false)
+			FileHash[] linkHashes = hardLinkTracker.awaitOrClaim(stamp, hashTypes);
+			
+			if (linkHashes != null)
 			{
-				newFilesUpdated.add(checkNewFile);
-				
-				String checkNewFilePath =
-					Manifest.makeNativePathString(checkNewFile);
-				
-				File newFile = new File(checkNewFilePath);
+				return linkHashes;
+			}
+		}
+		
+		FileHash[] hashes = null;
+		boolean unchanged = false;
+		
+		try
+		{
+			hashes = readFileHashes(file, hashTypes, blockDigest, journalPath);
+			
+			// Only reuse the hashes if the file didn't change while we read it
+			unchanged = stamp != null && stamp.equals(FileStamp.read(file));
+		}
+		finally
+		{
+			if (shareLinks)
+			{
+				hardLinkTracker.complete(
+					stamp,
+					hashTypes,
+					unchanged ? hashes : null);
+			}
+		}
+		
+		if (unchanged)
+		{
+			storeCachedHashes(file, stamp, hashes);
+		}
+		
+		return hashes;
+	}
+	
+	/// <summary>
+	/// Keep the hashes of a file which didn't change while it was read.
+	/// The extended attributes are written first, if the cache of them is
+	/// writable, which it is only for update and validate.  Writing them
+	/// changes the change time of the file, so the file is looked at again
+	/// for the stamp kept by the hash cache, which would otherwise be stale
+	/// straight away.
+	/// </summary>
+	protected void storeCachedHashes(
+		File file,
+		FileStamp stamp,
+		FileHash[] hashes)
+	{
+		if (xattrCache != null && xattrCache.isWritable())
+		{
+			for (FileHash nextHash : hashes)
+			{
+				xattrCache.store(file, stamp, nextHash);
+			}
+			
+			if (hashCache != null)
+			{
+				FileStamp newStamp = FileStamp.read(file);
 				
-				try
+				// Only the change time may differ, or the file changed
+				// again since it was read
+				if (newStamp == null ||
+					newStamp.getSize() != stamp.getSize() ||
+					newStamp.getModifiedNanos() != stamp.getModifiedNanos() ||
+					newStamp.getInode() != stamp.getInode() ||
+					newStamp.getDevice() != stamp.getDevice())
 				{
-					if (newFile.getCanonicalPath().equals(
-						manifest.getManifestFile().getCanonicalPath()) == false)
-					{
-						newFilesForGroom.add(newFile);
-					}
+					return;
+				}
+				
+				stamp = newStamp;
+			}
+		}
+		
+		if (hashCache != null)
+		{
+			for (FileHash nextHash : hashes)
+			{
+				hashCache.store(stamp, nextHash);
+			}
+		}
+	}
+	
+	/// <returns>
+	/// The hashes kept in the extended attributes of the file, or null
+	/// unless there is one for each of the methods.  Always null for
+	/// validate.
+	/// </returns>
+	protected FileHash[] lookupXattrHashes(
+		File file,
+		FileStamp stamp,
+		String[] hashTypes)
+	{
+		if (xattrCache == null ||
+			stamp == null ||
+			alwaysCheckHash)
+		{
+			return null;
+		}
+		
+		FileHash[] hashes = new FileHash[hashTypes.length];
+		
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			hashes[i] = xattrCache.lookup(file, stamp, hashTypes[i]);
+			
+			if (hashes[i] == null)
+			{
+				return null;
+			}
+		}
+		
+		return hashes;
+	}
+	
+	/// <summary>
+	/// Add a file to its group of hard links, if it has other links and
+	/// links are being tracked
+	/// </summary>
+	protected void trackLinks(File file, ManifestFileInfo manFileInfo)
+	{
+		if (hardLinkTracker == null)
+		{
+			return;
+		}
+		
+		// The walk usually read the stamp along with the other attributes
+		FileStamp stamp = null;
+		if (file instanceof ScannedFile)
+		{
+			stamp = ((ScannedFile) file).getStamp();
+		}
+		
+		if (stamp == null)
+		{
+			stamp = FileStamp.read(file);
+		}
+		
+		if (stamp != null && stamp.getLinkCount() > 1)
+		{
+			hardLinkTracker.addLink(stamp, manFileInfo);
+		}
+	}
+	
+	/// <summary>
+	/// Read the file and compute its hashes
+	/// </summary>
+	protected FileHash[] readFileHashes(
+		File file,
+		String[] hashTypes,
+		BlockHashDigest blockDigest,
+		String journalPath) throws Exception
+	{
+		if (journalPath != null &&
+			journal != null &&
+			blockDigest == null &&
+			file.length() > journal.getCheckpointInterval())
+		{
+			MessageDigest[] resumableDigests = makeResumableDigests(hashTypes);
+			
+			if (resumableDigests != null)
+			{
+				readFileWithCheckpoints(file, hashTypes, resumableDigests, journalPath);
+				return makeFileHashes(resumableDigests, hashTypes);
+			}
+		}
+		
+		// An update also needs the partial hash, whose samples are taken
+		// from this read rather than read again
+		PartialSampleDigest sampleDigest = null;
+		long length = file.length();
+		if (update && length > 2 * partialHashSampleSize)
+		{
+			sampleDigest = partialSamples.get();
+			sampleDigest.start(length);
+		}
+		
+		int digestCount = hashTypes.length;
+		if (blockDigest != null)
+		{
+			digestCount++;
+		}
+		
+		if (sampleDigest != null)
+		{
+			digestCount++;
+		}
+		
+		// The engine's digests are reused from file to file on this thread
+		MessageDigest[] digests = Arrays.copyOf(
+			hashEngine.getDigests(hashTypes),
+			digestCount);
+		
+		if (blockDigest != null)
+		{
+			digests[hashTypes.length] = blockDigest;
+		}
+		
+		if (sampleDigest != null)
+		{
+			digests[digestCount - 1] = sampleDigest;
+		}
+		
+		hashEngine.readFile(file, hashTypes, digests);
+		
+		FileHash[] hashes = makeFileHashes(digests, hashTypes);
+		
+		if (blockDigest != null)
+		{
+			blockDigest.digest();
+		}
+		
+		if (sampleDigest != null && sampleDigest.isComplete())
+		{
+			sampledFile.set(file);
+		}
+		
+		return hashes;
+	}
+	
+	protected static FileHash[] makeFileHashes(
+		MessageDigest[] digests,
+		String[] hashTypes)
+	{
+		FileHash[] hashes = new FileHash[hashTypes.length];
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			hashes[i] = new FileHash(digests[i].digest(), hashTypes[i]);
+		}
+		
+		return hashes;
+	}
+	
+	/// <summary>
+	/// Make digests whose state can be saved in the journal while a very
+	/// large file is read.  For MD5 and SHA256 these are slower than the
+	/// engine's, but an interrupted validate can continue part of the way
+	/// through the file instead of reading it again from the start.
+	/// </summary>
+	/// <returns>
+	/// The digests, or null if any of the hash methods can't be resumed
+	/// </returns>
+	protected static MessageDigest[] makeResumableDigests(String[] hashTypes) throws Exception
+	{
+		MessageDigest[] digests = new MessageDigest[hashTypes.length];
+		
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			digests[i] = CryptUtilities.getResumableHashAlgorithm(hashTypes[i]);
+			
+			if (digests[i] == null)
+			{
+				return null;
+			}
+		}
+		
+		return digests;
+	}
+	
+	/// <summary>
+	/// Read a file, continuing from the last checkpoint in the journal if
+	/// there is one, and recording new checkpoints as the read goes on.
+	/// </summary>
+	protected void readFileWithCheckpoints(
+		final File file,
+		final String[] hashTypes,
+		final MessageDigest[] digests,
+		final String journalPath) throws Exception
+	{
+		long position = 0;
+		
+		ValidateJournal.Checkpoint checkpoint =
+			journal.findCheckpoint(journalPath, file, hashTypes);
+		
+		if (checkpoint != null)
+		{
+			try
+			{
+				for (int i = 0; i < digests.length; i++)
+				{
+					((ResumableDigest) digests[i]).restoreState(
+						checkpoint.getStates()[i]);
 				}
-				catch (Exception ex)
+				
+				position = checkpoint.getPosition();
+			}
+			catch (IllegalArgumentException ex)
+			{
+				// Start again from the beginning
+				for (MessageDigest nextDigest : digests)
 				{
-					// What to do?
+					nextDigest.reset();
 				}
 			}
 		}
 		
-		// Replace with updated lists
-		missingFiles = missingFilesUpdated;
-		newFiles = newFilesUpdated;
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		
+		hashEngine.readFileFrom(
+			file,
+			hashTypes,
+			digests,
+			position,
+			new ReadCheckpointListener()
+			{
+				public void checkpoint(long position) throws Exception
+				{
+					byte[][] states = new byte[digests.length][];
+					for (int i = 0; i < digests.length; i++)
+					{
+						states[i] = ((ResumableDigest) digests[i]).saveState();
+					}
+					
+					journal.recordCheckpoint(
+						journalPath,
+						new ValidateJournal.Checkpoint(
+							length,
+							lastModified,
+							position,
+							hashTypes,
+							states));
+				}
+			},
+			journal.getCheckpointInterval());
 	}
 	
-	protected void doTrackDuplicates()
+	/// <summary>
+	/// Whether a file is the validate journal for this manifest, which is
+	/// kept next to the manifest file while a validate is in progress, or
+	/// one of the files kept next to it by "rt watch"
+	/// </summary>
+	protected boolean isJournalFile(File file)
 	{
-		duplicateFiles.clear();
-		
-		HashMap<FileHash, ArrayList<ManifestFileInfo>> fileDict =
-			new HashMap<FileHash, ArrayList<ManifestFileInfo>>();
-		
-		checkDuplicatesRecursive(
-			manifest.getRootDirectory(),
-			fileDict);
+		File manifestFile = manifest.getManifestFile();
 		
-		for (FileHash nextHash : fileDict.keySet())
+		if (manifestFile == null)
 		{
-			ArrayList<ManifestFileInfo> nextList =
-				fileDict.get(nextHash);
+			return false;
+		}
 		
-			if (nextList.size() > 1)
+		for (String nextSuffix : journalFileSuffixes)
+		{
+			if (file.getName().equals(
+				manifestFile.getName() + nextSuffix) == false)
 			{
-				duplicateFiles.put(nextHash, nextList);
+				continue;
+			}
+			
+			try
+			{
+				return file.getCanonicalPath().equals(
+					new File(manifestFile.getPath() + nextSuffix).getCanonicalPath());
+			}
+			catch (Exception ex)
+			{
+				return false;
 			}
 		}
+		
+		return false;
 	}
-
-	protected void checkDuplicatesRecursive(
-		ManifestDirectoryInfo currentDirectory,
-		HashMap<FileHash, ArrayList<ManifestFileInfo>> fileDict)
+	
+	/// <summary>
+	/// Make a digest for the block hashes of a file, if it should have them
+	/// </summary>
+	/// <param name="existing">
+	/// The block hashes already in the manifest, or null
+	/// </param>
+	/// <param name="renew">
+	/// Use the current settings of the manifest rather than the settings
+	/// of the existing block hashes
+	/// </param>
+	protected BlockHashDigest makeBlockHashDigest(
+		File file,
+		FileBlockHashes existing,
+		boolean renew) throws Exception
 	{
-		for (ManifestFileInfo nextFileInfo :
-			currentDirectory.getFiles().values())
+		String blockHashType = getNewHashType(manifest);
+		long blockSize = manifest.getBlockHashSize();
+		
+		if (existing != null && renew == false)
 		{
-			if (fileDict.containsKey(nextFileInfo.getFileHash()) == false)
-			{
-				fileDict.put(
-					nextFileInfo.getFileHash(),
-					new ArrayList<ManifestFileInfo>());
-			}
-			
-			fileDict.get(nextFileInfo.getFileHash()).add(nextFileInfo);
+			blockHashType = existing.getHashType();
+			blockSize = existing.getBlockSize();
 		}
-			
-		for (ManifestDirectoryInfo nextDirInfo :
-			currentDirectory.getSubdirectories().values())
+		
+		if (blockSize <= 0 || file.length() <= blockSize)
 		{
-			checkDuplicatesRecursive(
-				nextDirInfo,
-				fileDict);
+			return null;
 		}
+		
+		return new BlockHashDigest(blockHashType, blockSize);
 	}
-
 	
-	// Helper methods
+	/// <summary>
+	/// Whether hashing the file would also make block hashes
+	/// </summary>
+	protected boolean hasBlockHashDigest(
+		File file,
+		FileBlockHashes existing,
+		boolean renew)
+	{
+		try
+		{
+			return makeBlockHashDigest(file, existing, renew) != null;
+		}
+		catch (Exception ex)
+		{
+			return true;
+		}
+	}
+	
+	protected FileBlockHashes makeFileBlockHashes(
+		BlockHashDigest blockDigest,
+		FileHash fileHash)
+	{
+		if (blockDigest == null ||
+			fileHash == null ||
+			blockDigest.getRootHash() == null)
+		{
+			return null;
+		}
+		
+		return new FileBlockHashes(
+			blockDigest.getHashType(),
+			blockDigest.getBlockSize(),
+			blockDigest.getRootHash(),
+			blockDigest.getBlockHashes());
+	}
 
 	public Manifest makeManifest()
 	{
@@ -659,17 +3071,65 @@ public class RepoTool
 		}
 	}
 
-	protected String getNewHashType(Manifest man)
+	/// <returns>
+	/// The method for the quick hashes kept alongside the full ones, or
+	/// null if the manifest doesn't keep them
+	/// </returns>
+	protected String getQuickHashType()
+	{
+		if (CryptUtilities.isSupportedHashType(manifest.getQuickHashMethod()))
+		{
+			return manifest.getQuickHashMethod();
+		}
+		
+		return null;
+	}
+	
+	/// <summary>
+	/// Add the quick hash method to the methods for a read, if it isn't
+	/// one of them already
+	/// </summary>
+	protected String[] addQuickHashType(String[] hashTypes, boolean makeQuickHash)
+	{
+		if (makeQuickHash == false ||
+			Arrays.asList(hashTypes).contains(getQuickHashType()))
+		{
+			return hashTypes;
+		}
+		
+		String[] withQuick = Arrays.copyOf(hashTypes, hashTypes.length + 1);
+		withQuick[hashTypes.length] = getQuickHashType();
+		return withQuick;
+	}
+	
+	/// <returns>
+	/// The quick hash from the results of a read with the methods given by
+	/// addQuickHashType
+	/// </returns>
+	protected FileHash findQuickHash(FileHash[] hashes, boolean makeQuickHash)
 	{
-		if (man.getDefaultHashMethod() != null)
+		if (makeQuickHash == false)
+		{
+			return null;
+		}
+		
+		for (FileHash nextHash : hashes)
 		{
-			switch (man.getDefaultHashMethod())
+			if (nextHash.getHashType().equals(getQuickHashType()))
 			{
-				case "MD5":
-				case "SHA256":
-					return man.getDefaultHashMethod();
+				return nextHash;
 			}
 		}
+		
+		return null;
+	}
+
+	protected String getNewHashType(Manifest man)
+	{
+		if (CryptUtilities.isSupportedHashType(man.getDefaultHashMethod()))
+		{
+			return man.getDefaultHashMethod();
+		}
 
 		return NewHashType;
 	}
@@ -731,6 +3191,11 @@ public class RepoTool
 	private Console console; 
 	private File rootDirectory;
 
+	public File getRootDirectory()
+	{
+		return rootDirectory;
+	}
+
 	public void setRootDirectory(File rootDirectory)
 	{
 		this.rootDirectory = rootDirectory;
@@ -753,6 +3218,220 @@ public class RepoTool
 
 	private int fileCheckedCount;
 
+	private int threads;
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	private int scanThreads;
+	public int getScanThreads()
+	{
+		return scanThreads;
+	}
+
+	/// <summary>
+	/// Set the number of threads listing directories ahead of the walk
+	/// </summary>
+	public void setScanThreads(int scanThreads)
+	{
+		this.scanThreads = scanThreads;
+	}
+
+	public void setThreads(int threads)
+	{
+		this.threads = threads;
+	}
+
+	private boolean deviceScheduling;
+	public boolean isDeviceScheduling()
+	{
+		return deviceScheduling;
+	}
+
+	public void setDeviceScheduling(boolean deviceScheduling)
+	{
+		this.deviceScheduling = deviceScheduling;
+	}
+
+	private int streamsPerDevice;
+	public int getStreamsPerDevice()
+	{
+		return streamsPerDevice;
+	}
+
+	public void setStreamsPerDevice(int streamsPerDevice)
+	{
+		this.streamsPerDevice = streamsPerDevice;
+	}
+
+	private HashWorkQueue hashQueue;
+	private DirectoryScanner directoryScanner;
+	private SmallFileBatchItem smallFileBatch;
+	
+	/// <summary>
+	/// Hashes of small files read in a batch, for each hashing thread to
+	/// pick up in computeFileHashes
+	/// </summary>
+	private ThreadLocal<Map<File, FileHash>> batchedHashes;
+	
+	/// <summary>
+	/// Whether the last hashes computed on this thread came from one of the
+	/// hash caches, rather than from reading the file
+	/// </summary>
+	private ThreadLocal<Boolean> hashesFromCache;
+	
+	/// <summary>
+	/// The start and end of the last file read in full on this thread, for
+	/// makePartialHash, and which file that was
+	/// </summary>
+	private ThreadLocal<PartialSampleDigest> partialSamples;
+	private ThreadLocal<File> sampledFile;
+
+	private HashCache hashCache;
+	public HashCache getHashCache()
+	{
+		return hashCache;
+	}
+
+	/// <summary>
+	/// Set a cache of hashes to use instead of reading files which haven't
+	/// changed since they were last hashed.  Not used by validate.
+	/// </summary>
+	public void setHashCache(HashCache hashCache)
+	{
+		this.hashCache = hashCache;
+	}
+
+	private XattrHashCache xattrCache;
+	public XattrHashCache getXattrCache()
+	{
+		return xattrCache;
+	}
+
+	/// <summary>
+	/// Keep hashes in the extended attributes of the files, and use them
+	/// instead of reading files which haven't changed since.  Not used by
+	/// validate, which may still store to them if the cache is writable.
+	/// </summary>
+	public void setXattrCache(XattrHashCache xattrCache)
+	{
+		this.xattrCache = xattrCache;
+	}
+
+	private HardLinkTracker hardLinkTracker;
+	public boolean isHardLinks()
+	{
+		return hardLinkTracker != null;
+	}
+
+	/// <summary>
+	/// Hash files with several hard links once for all of the links, and
+	/// collect the links into groups for the report
+	/// </summary>
+	public void setHardLinks(boolean hardLinks)
+	{
+		if (hardLinks == false)
+		{
+			hardLinkTracker = null;
+		}
+		else if (hardLinkTracker == null)
+		{
+			hardLinkTracker = new HardLinkTracker();
+		}
+	}
+
+	/// <returns>
+	/// Groups of files in the repository which are links to the same
+	/// inode, keyed by device and inode
+	/// </returns>
+	public Map<String, ArrayList<ManifestFileInfo>> getLinkGroups()
+	{
+		if (hardLinkTracker == null)
+		{
+			return new LinkedHashMap<String, ArrayList<ManifestFileInfo>>();
+		}
+		
+		return hardLinkTracker.getLinkGroups();
+	}
+
+	private int migrateHashLimit;
+	private int migrateHashCount;
+	public int getMigrateHashLimit()
+	{
+		return migrateHashLimit;
+	}
+
+	/// <summary>
+	/// Set the maximum number of files per run whose hash will be migrated
+	/// to the default hash method as a side effect of checking them.
+	/// </summary>
+	public void setMigrateHashLimit(int migrateHashLimit)
+	{
+		this.migrateHashLimit = migrateHashLimit;
+	}
+
+	private boolean quick;
+	public boolean isQuick()
+	{
+		return quick;
+	}
+
+	/// <summary>
+	/// Check files against their quick hashes instead of their full ones,
+	/// where they have them
+	/// </summary>
+	public void setQuick(boolean quick)
+	{
+		this.quick = quick;
+	}
+
+	private boolean fast;
+	public boolean isFast()
+	{
+		return fast;
+	}
+
+	/// <summary>
+	/// Skip listing directories whose last modified date is the same as
+	/// when they were last listed, and only check the files the manifest
+	/// already has in them
+	/// </summary>
+	public void setFast(boolean fast)
+	{
+		this.fast = fast;
+	}
+
+	private ValidateJournal journal;
+	public ValidateJournal getJournal()
+	{
+		return journal;
+	}
+
+	/// <summary>
+	/// Set a journal in which to record the outcome of hashing each file,
+	/// and from which to reuse the outcomes of an interrupted validate.
+	/// </summary>
+	public void setJournal(ValidateJournal journal)
+	{
+		this.journal = journal;
+	}
+
+	private HashReadOptions readOptions;
+	public HashReadOptions getReadOptions()
+	{
+		return readOptions;
+	}
+	
+	/// <summary>
+	/// Hashes files for this tool, and keeps statistics over the whole run
+	/// </summary>
+	private HashEngine hashEngine;
+	public HashEngine getHashEngine()
+	{
+		return hashEngine;
+	}
+
 	public boolean isAlwaysCheckHash()
 	{
 		return alwaysCheckHash;
@@ -844,6 +3523,37 @@ public class RepoTool
 		return movedFiles;
 	}
 
+	private ArrayList<ManifestFileInfo> migratedHashFiles;
+	public ArrayList<ManifestFileInfo> getMigratedHashFiles()
+	{
+		return migratedHashFiles;
+	}
+
+	private ArrayList<ManifestFileInfo> validatedFiles;
+	/// <summary>
+	/// Files whose contents were found to match their hashes
+	/// </summary>
+	public ArrayList<ManifestFileInfo> getValidatedFiles()
+	{
+		return validatedFiles;
+	}
+
+	private ArrayList<ManifestFileInfo> quickHashFiles;
+	/// <summary>
+	/// Files which were given a quick hash by a validate, which are kept
+	/// with the dates of validation
+	/// </summary>
+	public ArrayList<ManifestFileInfo> getQuickHashFiles()
+	{
+		return quickHashFiles;
+	}
+
+	private Map<ManifestFileInfo, ArrayList<BlockRange>> differentBlockRanges;
+	public Map<ManifestFileInfo, ArrayList<BlockRange>> getDifferentBlockRanges()
+	{
+		return differentBlockRanges;
+	}
+
 	private ArrayList<FileHash> movedFileOrder;
 	private Map<FileHash, ArrayList<ManifestFileInfo>> duplicateFiles;
 
@@ -870,4 +3580,36 @@ public class RepoTool
 	public static String ManifestNativeFilePath;
 	public static String PrototypeManifestFileName;
 	public static String NewHashType;
+	
+	/// <summary>
+	/// How much of the start and of the end of a file is in its partial
+	/// hash
+	/// </summary>
+	public static final long partialHashSampleSize = 64 * 1024;
+	
+	/// <summary>
+	/// Files smaller than this are always hashed in full when they grow
+	/// </summary>
+	public static final long appendCheckpointThreshold = 64L * 1024 * 1024;
+	
+	/// <summary>
+	/// Most items in a batch, including the ones which don't need hashing,
+	/// so that a long run of those doesn't hold up the reports
+	/// </summary>
+	protected static final int maxBatchItems = 256;
+	
+	/// <summary>
+	/// Directories modified more recently than this when they are listed
+	/// don't have their date recorded.  Two seconds covers the coarsest
+	/// date resolution of the common filesystems.
+	/// </summary>
+	protected static final long minDirectoryStampAgeMilliseconds = 2000;
+	
+	protected static final String[] journalFileSuffixes =
+	{
+		ValidateJournal.fileSuffix,
+		DirtyPathSet.fileSuffix,
+		DirtyPathSet.fileSuffix + DirtyPathSet.tempFileSuffix,
+		DirtyPathSet.ackFileSuffix
+	};
 }
@@ -1,17 +1,31 @@
 package repotools.repotool;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+import repotools.manifest.HashCache;
 import repotools.manifest.Manifest;
 import repotools.manifest.ManifestConsole;
+import repotools.manifest.ManifestFileInfo;
+import repotools.manifest.XattrHashCache;
 import repotools.utilities.ArgUtilities;
+import repotools.utilities.CryptUtilities;
+import repotools.utilities.DropBehind;
+import repotools.utilities.HashEngine;
+import repotools.utilities.IoThrottle;
+import repotools.utilities.ReadStrategy;
 import repotools.utilities.StreamUtilities;
 
 
@@ -47,9 +61,11 @@ public class RepoToolApp
 			case "edit":
 			case "groom":
 			case "info":
+			case "scrub":
 			case "status":
 			case "update":
 			case "validate":
+			case "watch":
 				break;
 
 			case "help":
@@ -70,19 +86,32 @@ public class RepoToolApp
 		// Set up options and parameters
 		boolean all					= args.hasOption("all");
 		boolean cascade				= args.hasOption("cascade");
+		boolean fast				= args.hasOption("fast");
 		boolean confirmUpdate		= args.hasOption("confirmUpdate");
 		boolean force 				= args.hasOption("force");		
 		boolean ignoreDate 			= args.hasOption("ignoreDate");
 		boolean ignoreDefault		= args.hasOption("ignoreDefault");
 		boolean ignoreNew 			= args.hasOption("ignoreNew");
 		boolean noTouch				= args.hasOption("noTouch");
+		boolean noWatch				= args.hasOption("noWatch");
+		boolean quick				= args.hasOption("quick");
 		boolean recursive			= args.hasOption("recursive");
+		boolean resume				= args.hasOption("resume");
 		boolean time 				= args.hasOption("time");
 
 		String repositoryName 				= args.getParameterForOption("name");
 		String repositoryDescription		= args.getParameterForOption("description");
 		String hashMethod					= args.getParameterForOption("hashMethod");
+		String quickHashMethod				= args.getParameterForOption("quickHashMethod");
+		long blockSize						= args.getSizeParameterForOption("blockSize", -1);
 		String manifestFilePathNotRecursive = args.getParameterForOption("manifestFile");
+		String readStrategyName				= args.getParameterForOption("readStrategy");
+		String hashCachePath				= args.getParameterForOption("hashCache");
+		String changedPathsSource			= args.getParameterForOption("changedPaths");
+		String journalFilePath				= args.getParameterForOption("journalFile");
+		int hashCacheSize					= args.getIntParameterForOption("hashCacheSize", HashCache.defaultMaxEntries);
+		long maxBytes						= args.getSizeParameterForOption("maxBytes", 0);
+		long maxDuration					= args.getDurationParameterForOption("maxDuration", 0);
 
 		ArrayList<String> ignoreList 		= args.getParametersForOption("ignore");
 		ArrayList<String> dontIgnoreList	= args.getParametersForOption("dontIgnore");
@@ -93,8 +122,81 @@ public class RepoToolApp
 		tool.setMakeNewHash(args.hasOption("newHash"));
 		tool.setAlwaysCheckHash(args.hasOption("reHash"));
 		tool.setShowProgress(args.hasOption("showProgress"));
+		tool.setThreads(args.getPositiveIntParameterForOption("threads", 1));
+		tool.setScanThreads(args.getPositiveIntParameterForOption("scanThreads", 1));
+		tool.setDeviceScheduling(args.hasOption("deviceSchedule"));
+		tool.setStreamsPerDevice(args.getPositiveIntParameterForOption(
+			"deviceStreams",
+			tool.getStreamsPerDevice()));
+		
+		int migrateHashLimit = args.getIntParameterForOption("migrateHash", 0);
+		
+		if (readStrategyName != null)
+		{
+			ReadStrategy readStrategy = ReadStrategy.fromName(readStrategyName);
+			
+			if (readStrategy == null)
+			{
+				console.writeLine("Unrecognized read strategy \"" + readStrategyName + "\"");
+				System.exit(1);
+			}
+			
+			tool.getReadOptions().setStrategy(readStrategy);
+		}
+		
+		tool.getReadOptions().setDirect(args.hasOption("direct"));
+		
+		if (args.hasOption("dropBehind"))
+		{
+			if (args.hasOption("direct") == false)
+			{
+				console.writeLine("-dropBehind can only be used with -direct.");
+				System.exit(1);
+			}
+			
+			if (DropBehind.isAvailable() == false)
+			{
+				console.writeLine(
+					"dd with iflag=nocache isn't available, so files won't be " +
+					"dropped from the cache.");
+			}
+			
+			tool.getReadOptions().setDropBehind(true);
+		}
+		
+		IoThrottle throttle = new IoThrottle();
+		throttle.setMaxBytesPerSecond(args.getSizeParameterForOption("maxBytesPerSec", 0));
+		throttle.setMaxFilesPerSecond(args.getDoubleParameterForOption("maxFilesPerSec", 0));
+		throttle.setMaxLoad(args.getDoubleParameterForOption("maxLoad", 0));
+		throttle.setMaxIoPressure(args.getDoubleParameterForOption("maxIoPressure", 0));
+		
+		if (throttle.isActive())
+		{
+			tool.getReadOptions().setThrottle(throttle);
+		}
 		tool.setTrackDuplicates(args.hasOption("trackDuplicates"));
 		tool.setTrackMoves(args.hasOption("trackMoves"));
+		tool.setHardLinks(args.hasOption("hardLinks"));
+		
+		if (args.hasOption("xattrCache"))
+		{
+			tool.setXattrCache(new XattrHashCache());
+		}
+
+		
+		if (hashMethod != null &&
+			CryptUtilities.isSupportedHashType(hashMethod) == false)
+		{
+			console.writeLine("Unrecognized hash method \"" + hashMethod + "\"");
+			System.exit(1);
+		}
+		
+		if (quickHashMethod != null &&
+			CryptUtilities.isSupportedHashType(quickHashMethod) == false)
+		{
+			console.writeLine("Unrecognized hash method \"" + quickHashMethod + "\"");
+			System.exit(1);
+		}
 
 		
 		// Console options
@@ -112,6 +214,56 @@ public class RepoToolApp
 			console.writeLine("Started: " + startTime.toString());
 		}
 
+		HashCache hashCache = null;
+		if (hashCachePath != null)
+		{
+			hashCache = new HashCache(new File(hashCachePath), hashCacheSize);
+			
+			try
+			{
+				hashCache.open();
+				tool.setHashCache(hashCache);
+			}
+			catch (Exception ex)
+			{
+				console.reportException(ex);
+				console.writeLine("Could not open hash cache.");
+				System.exit(1);
+			}
+		}
+
+		// Paths to look at instead of the whole repository, for status and
+		// update
+		List<String> givenChangedPaths = null;
+		if (changedPathsSource != null)
+		{
+			if (commandArg.equals("status") == false &&
+				commandArg.equals("update") == false)
+			{
+				console.writeLine("-changedPaths can only be used with status and update.");
+				System.exit(1);
+			}
+			
+			if (recursive)
+			{
+				console.writeLine("-changedPaths can't be used with -recursive.");
+				System.exit(1);
+			}
+			
+			try
+			{
+				givenChangedPaths = readChangedPaths(
+					changedPathsSource,
+					new File(System.getProperty("user.dir")));
+			}
+			catch (Exception ex)
+			{
+				console.reportException(ex);
+				console.writeLine("Could not read changed paths.");
+				System.exit(1);
+			}
+		}
+
 		// Prepare a list of paths to be processed
 		ArrayList<String> manifestFilePaths = new ArrayList<String>();
 		if (recursive)
@@ -151,6 +303,12 @@ public class RepoToolApp
 			// Second copy of the manifest which will remain unmodified
 			// and possibly rewritten after a validate.
 			Manifest manifestForValidateDateUpdate = null;
+			
+			// The changes seen by "rt watch", if it is running, and the
+			// paths to look at if they can be trusted
+			DirtyPathSet dirtyPaths = null;
+			List<String> changedPaths = null;
+			long scanStartMillis = 0;
 
 			File fileInfo = new File(manifestFilePath);
 			
@@ -191,18 +349,45 @@ public class RepoToolApp
 				}
 
 				case "validate":
+				case "scrub":
 				case "status":
 				case "update":
 				case "edit":
 				case "groom":
 				{
-					if (commandArg.equals("validate"))
+					// Scrub is a validate of just some of the files
+					boolean validating =
+						commandArg.equals("validate") ||
+						commandArg.equals("scrub");
+					
+					// Only the commands which record their results in
+					// the manifest write the extended attributes
+					if (tool.getXattrCache() != null)
+					{
+						tool.getXattrCache().setWritable(
+							validating || commandArg.equals("update"));
+					}
+					
+					if (validating)
 					{
 						tool.setAlwaysCheckHash(true);
+						tool.setQuick(quick);
+						
+						// The migrated hashes are only kept if the
+						// validation date will be written.
+						if (noTouch == false)
+						{
+							tool.setMigrateHashLimit(migrateHashLimit);
+						}
 					}
 					else if (commandArg.equals("update"))
 					{
 						tool.setUpdate(true);
+						tool.setMigrateHashLimit(migrateHashLimit);
+					}
+					else if (commandArg.equals("status"))
+					{
+						tool.setFast(fast);
 					}
 					
 					boolean different = false;
@@ -211,7 +396,7 @@ public class RepoToolApp
 					{
 						tool.setManifest(Manifest.readManifestFile(manifestFilePath));
 					
-						if (commandArg.equals("validate") && noTouch == false)
+						if (validating && noTouch == false)
 						{
 							// Read a second copy which will remain unmodified
 							manifestForValidateDateUpdate =
@@ -231,7 +416,94 @@ public class RepoToolApp
 					}
 					else if (commandArg.equals("edit") == false)
 					{
-						tool.doUpdate();
+						// With -noTouch nothing is written in the repository,
+						// so there is only a journal if it is put elsewhere.
+						ValidateJournal journal = null;
+						if (commandArg.equals("validate") &&
+							(noTouch == false || journalFilePath != null))
+						{
+							File journalFile = new File(manifestFilePath + ValidateJournal.fileSuffix);
+							if (journalFilePath != null)
+							{
+								journalFile = new File(journalFilePath);
+							}
+							
+							journal = new ValidateJournal(journalFile);
+							
+							try
+							{
+								journal.open(tool.getManifest().getGuid(), resume);
+								tool.setJournal(journal);
+							}
+							catch (Exception ex)
+							{
+								if (resume)
+								{
+									console.reportException(ex);
+									console.writeLine("Could not resume validate.");
+									System.exit(1);
+								}
+								
+								// The repository may be read-only, so carry on
+								// without a journal.
+								journal = null;
+							}
+						}
+						
+						scanStartMillis = System.currentTimeMillis();
+						
+						if (givenChangedPaths != null)
+						{
+							// Leaves out changes which "rt watch" may have
+							// seen, so it isn't acknowledged.
+							changedPaths = givenChangedPaths;
+						}
+						else if ((commandArg.equals("status") ||
+							 commandArg.equals("update")) &&
+							noWatch == false)
+						{
+							dirtyPaths = DirtyPathSet.readCurrent(
+								DirtyPathSet.getFile(manifestFilePath),
+								scanStartMillis);
+							
+							if (dirtyPaths != null)
+							{
+								changedPaths = dirtyPaths.getChangedPaths(
+									DirtyPathSet.Acknowledgement.read(
+										DirtyPathSet.getAckFile(manifestFilePath)),
+									tool.getManifest().getLastUpdateDateUtc());
+							}
+						}
+						
+						if (commandArg.equals("scrub"))
+						{
+							tool.doScrub(maxBytes, maxDuration);
+						}
+						else if (changedPaths != null)
+						{
+							console.writeLine("Checking " + changedPaths.size() +
+								" changed paths.");
+							
+							tool.doUpdatePaths(changedPaths);
+						}
+						else
+						{
+							tool.doUpdate();
+						}
+						
+						if (journal != null)
+						{
+							tool.setJournal(null);
+							
+							try
+							{
+								journal.close(true);
+							}
+							catch (Exception ex)
+							{
+								// Nothing more to record
+							}
+						}
 
 						if (tool.getMissingFiles().size() > 0)
 						{
@@ -247,6 +519,14 @@ public class RepoToolApp
 							different = true;
 						}
 						
+						if (tool.getDifferentBlockRanges().size() > 0)
+						{
+							console.writeLine(tool.getDifferentBlockRanges().size() +
+								" changed files have block hashes showing where they differ.");
+							
+							console.detailBlockRanges(tool.getDifferentBlockRanges());
+						}
+						
 						if (tool.getNewFiles().size() > 0)
 						{
 							console.writeLine(tool.getNewFiles().size() + " files are new.");
@@ -290,6 +570,12 @@ public class RepoToolApp
 							console.writeLine(tool.getDuplicateFiles().size() + " file hashes were duplicates.");
 							console.detailFiles(tool.getDuplicateFiles());
 						}
+						
+						if (tool.getLinkGroups().size() > 0)
+						{
+							console.writeLine(tool.getLinkGroups().size() + " groups of files are hard links to the same file.");
+							console.detailFiles(tool.getLinkGroups());
+						}
 
 						if (tool.getNewlyIgnoredFiles().size() > 0)
 						{
@@ -307,9 +593,25 @@ public class RepoToolApp
 							}
 						}
 
+						if (tool.getMigratedHashFiles().size() > 0)
+						{
+							console.writeLine(tool.getMigratedHashFiles().size() +
+								" files were migrated to the default hash method.");
+							
+							console.detailFiles(tool.getMigratedHashFiles());
+						}
+
+						if (tool.getQuickHashFiles().size() > 0)
+						{
+							console.writeLine(tool.getQuickHashFiles().size() +
+								" files were given a quick hash.");
+							
+							console.detailFiles(tool.getQuickHashFiles());
+						}
+
 						console.writeLine(tool.getFileCheckedCount() + " files were checked.");
 						
-						if (commandArg.equals("validate"))
+						if (validating)
 						{
 							if (different)
 							{
@@ -368,6 +670,37 @@ public class RepoToolApp
 					break;
 				}
 				
+				case "watch":
+				{
+					if (recursive)
+					{
+						console.writeLine("Only one repository can be watched at a time.");
+						exitCode = 1;
+						break;
+					}
+					
+					try
+					{
+						// Make sure there is a repository to watch
+						tool.setManifest(Manifest.readManifestFile(manifestFilePath));
+						
+						RepositoryWatcher watcher = new RepositoryWatcher(
+							tool.getRootDirectory(),
+							manifestFilePath,
+							console);
+						
+						watcher.run();
+					}
+					catch (Exception ex)
+					{
+						console.reportException(ex);
+						console.writeLine("Could not watch repository.");
+						exitCode = 1;
+					}
+					
+					break;
+				}
+				
 				case "info":
 				{
 					try
@@ -398,6 +731,16 @@ public class RepoToolApp
 							console.writeLine("Default hash method:           " + tool.getManifest().getDefaultHashMethod());
 						}
 						
+						if (tool.getManifest().getBlockHashSize() > 0)
+						{
+							console.writeLine("Block hash size:               " + tool.getManifest().getBlockHashSize());
+						}
+						
+						if (tool.getManifest().getQuickHashMethod() != null)
+						{
+							console.writeLine("Quick hash method:             " + tool.getManifest().getQuickHashMethod());
+						}
+						
 						console.writeLine("Date of creation:              " +
 							(tool.getManifest().getInceptionDateUtc().toString()));
 						
@@ -471,6 +814,18 @@ public class RepoToolApp
 							manifestInfoChanged = true;
 						}
 						
+						if (blockSize >= 0)
+						{
+							tool.getManifest().setBlockHashSize(blockSize);
+							manifestInfoChanged = true;
+						}
+						
+						if (quickHashMethod != null)
+						{
+							tool.getManifest().setQuickHashMethod(quickHashMethod);
+							manifestInfoChanged = true;
+						}
+						
 						if (ignoreList.size() > 0)
 						{
 							for (String nextIgnore : ignoreList)
@@ -526,6 +881,16 @@ public class RepoToolApp
 						try
 						{
 							tool.getManifest().writeManifestFile(manifestFilePath);
+							
+							if (dirtyPaths != null)
+							{
+								acknowledgeWatch(
+									manifestFilePath,
+									tool.getManifest(),
+									dirtyPaths,
+									changedPaths != null,
+									scanStartMillis);
+							}
 						}
 						catch (Exception ex)
 						{
@@ -539,10 +904,49 @@ public class RepoToolApp
 				}
 				
 				case "validate":
+				case "scrub":
 				{
 					if (noTouch == false)
 					{
-						manifestForValidateDateUpdate.setLastValidateDateUtc(new Date());
+						// Only a full validate counts for the whole manifest
+						if (commandArg.equals("validate") &&
+							quick == false)
+						{
+							manifestForValidateDateUpdate.setLastValidateDateUtc(new Date());
+						}
+						
+						for (ManifestFileInfo nextValidated : tool.getValidatedFiles())
+						{
+							ManifestFileInfo original =
+								manifestForValidateDateUpdate.findMatchingFileInfo(nextValidated);
+							
+							if (original != null)
+							{
+								original.setLastValidatedUtc(nextValidated.getLastValidatedUtc());
+							}
+						}
+						
+						for (ManifestFileInfo nextQuick : tool.getQuickHashFiles())
+						{
+							ManifestFileInfo original =
+								manifestForValidateDateUpdate.findMatchingFileInfo(nextQuick);
+							
+							if (original != null)
+							{
+								original.setQuickHash(nextQuick.getQuickHash());
+							}
+						}
+						
+						for (ManifestFileInfo nextMigrated : tool.getMigratedHashFiles())
+						{
+							ManifestFileInfo original =
+								manifestForValidateDateUpdate.findMatchingFileInfo(nextMigrated);
+							
+							if (original != null)
+							{
+								original.setFileHash(nextMigrated.getFileHash());
+							}
+						}
 					
 						try
 						{
@@ -616,6 +1020,19 @@ public class RepoToolApp
 			}
 		}
 
+		if (hashCache != null)
+		{
+			try
+			{
+				hashCache.close();
+			}
+			catch (Exception ex)
+			{
+				console.reportException(ex);
+				console.writeLine("Could not write hash cache.");
+			}
+		}
+
 		if (time)
 		{
 			Date finishTime = new Date();
@@ -626,11 +1043,13 @@ public class RepoToolApp
 				ZoneId.systemDefault());
 		
 			ZonedDateTime finishZdt = ZonedDateTime.ofInstant(
-				startTime.toInstant(),
+				finishTime.toInstant(),
 				ZoneId.systemDefault());
 		
 			Duration duration = Duration.between(startZdt, finishZdt);
 			console.writeLine("Duration: " + duration.toString());
+			
+			writeHashStatistics(tool.getHashEngine());
 		}
 		
 		if (recursive == false)
@@ -646,6 +1065,267 @@ public class RepoToolApp
 
 	static ManifestConsole console = null;
 	
+	/// <summary>
+	/// Resolve the symbolic links in the directories of a path, which may
+	/// not exist any more.  The last name is left as it is, because a link
+	/// in the repository is looked at by its own path.
+	/// </summary>
+	static Path makeRealPath(Path path)
+	{
+		Path parent = path.getParent();
+		if (parent == null)
+		{
+			return path;
+		}
+		
+		try
+		{
+			return parent.toRealPath().resolve(path.getFileName());
+		}
+		catch (IOException ex)
+		{
+			return makeRealPath(parent).resolve(path.getFileName());
+		}
+	}
+	
+	static boolean isSameFile(Path a, Path b)
+	{
+		try
+		{
+			return Files.isSameFile(a, b);
+		}
+		catch (IOException ex)
+		{
+			return false;
+		}
+	}
+	
+	static void writeHashStatistics(HashEngine engine)
+	{
+		List<HashEngine.MethodStatistics> methodStatistics =
+			engine.getMethodStatistics();
+		
+		if (methodStatistics.isEmpty())
+		{
+			return;
+		}
+		
+		console.writeLine();
+		
+		for (HashEngine.MethodStatistics nextStatistics : methodStatistics)
+		{
+			console.writeLine(String.format(
+				"Hashed %s: %d files, %d bytes in %s (%.1f MB/s)",
+				nextStatistics.getHashMethod(),
+				nextStatistics.getFileCount(),
+				nextStatistics.getByteCount(),
+				Duration.ofNanos(nextStatistics.getNanos()).toString(),
+				nextStatistics.getBytesPerSecond() / (1024 * 1024)));
+		}
+		
+		List<HashEngine.SlowFile> slowestFiles = engine.getSlowestFiles();
+		
+		if (slowestFiles.isEmpty() == false)
+		{
+			console.writeLine();
+			console.writeLine("Slowest files:");
+			
+			for (HashEngine.SlowFile nextFile : slowestFiles)
+			{
+				console.writeLine(String.format(
+					"   %s, %d bytes: %s",
+					Duration.ofNanos(nextFile.getNanos()).toString(),
+					nextFile.getLength(),
+					nextFile.getPath()));
+			}
+		}
+	}
+	
+	/// <summary>
+	/// Tell "rt watch" which changes the manifest which was just written
+	/// takes into account, so that the next status or update only has to
+	/// look at the ones after them
+	/// </summary>
+	/// <param name="usedChangedPaths">
+	/// Whether the update only looked at the changed paths, rather than
+	/// the whole repository
+	/// </param>
+	static void acknowledgeWatch(
+		String manifestFilePath,
+		Manifest manifest,
+		DirtyPathSet dirtyPaths,
+		boolean usedChangedPaths,
+		long scanStartMillis)
+	{
+		// A full scan covers the changes made before it started, if the
+		// watcher was already running then.
+		long coveredMillis = scanStartMillis;
+		if (usedChangedPaths)
+		{
+			coveredMillis = dirtyPaths.getHeartbeatMillis();
+		}
+		
+		if (dirtyPaths.getStartedMillis() > coveredMillis ||
+			manifest.getLastUpdateDateUtc() == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			new DirtyPathSet.Acknowledgement(
+				dirtyPaths.getStartedMillis(),
+				coveredMillis,
+				manifest.getLastUpdateDateUtc().getTime()).write(
+					DirtyPathSet.getAckFile(manifestFilePath));
+		}
+		catch (IOException ex)
+		{
+			// The next status or update will scan the whole repository
+		}
+	}
+	
+	/// <summary>
+	/// Read a list of changed paths, separated by newlines, or by NUL
+	/// characters if there are any
+	/// </summary>
+	/// <param name="source">
+	/// The file to read, or "-" for standard input
+	/// </param>
+	/// <returns>
+	/// Standard paths like "./dir/file"
+	/// </returns>
+	static List<String> readChangedPaths(String source, File rootDirectory)
+		throws IOException
+	{
+		byte[] data;
+		
+		if (source.equals("-"))
+		{
+			data = StreamUtilities.readAllBytes(System.in);
+		}
+		else
+		{
+			InputStream in = new FileInputStream(source);
+			
+			try
+			{
+				data = StreamUtilities.readAllBytes(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		
+		String text = new String(data, StandardCharsets.UTF_8);
+		
+		boolean nulSeparated = text.indexOf('\0') >= 0;
+		String[] entries = text.split(nulSeparated ? "\0" : "\n");
+		
+		ArrayList<String> standardPaths = new ArrayList<String>();
+		
+		for (String nextEntry : entries)
+		{
+			if (nulSeparated == false && nextEntry.endsWith("\r"))
+			{
+				nextEntry = nextEntry.substring(0, nextEntry.length() - 1);
+			}
+			
+			if (nextEntry.isEmpty())
+			{
+				continue;
+			}
+			
+			String standardPath = makeStandardPath(nextEntry, rootDirectory);
+			if (standardPath == null)
+			{
+				throw new IOException("Path is not in the repository: " + nextEntry);
+			}
+			
+			standardPaths.add(standardPath);
+		}
+		
+		return standardPaths;
+	}
+	
+	/// <summary>
+	/// Make a standard path like "./dir/file" from a path relative to the
+	/// root directory, or an absolute path under it
+	/// </summary>
+	/// <returns>
+	/// The path, or null if it is outside the root directory
+	/// </returns>
+	static String makeStandardPath(String path, File rootDirectory)
+	{
+		File file = new File(path);
+		
+		if (file.isAbsolute())
+		{
+			// Either may be reached through a symbolic link, so they are
+			// compared as the real paths of the directories they are in
+			Path rootPath = rootDirectory.toPath().toAbsolutePath().normalize();
+			Path filePath = file.toPath().normalize();
+			
+			try
+			{
+				rootPath = rootPath.toRealPath();
+			}
+			catch (IOException ex)
+			{
+				rootPath = makeRealPath(rootPath);
+			}
+			
+			Path realFilePath = makeRealPath(filePath);
+			
+			if (realFilePath.startsWith(rootPath))
+			{
+				path = rootPath.relativize(realFilePath).toString();
+			}
+			else if (isSameFile(filePath, rootPath))
+			{
+				path = "";
+			}
+			else
+			{
+				return null;
+			}
+		}
+		
+		ArrayList<String> names = new ArrayList<String>();
+		
+		for (String nextName :
+			path.replace(File.separatorChar, '/').split("/"))
+		{
+			if (nextName.isEmpty() || nextName.equals("."))
+			{
+				continue;
+			}
+			
+			if (nextName.equals(".."))
+			{
+				if (names.isEmpty())
+				{
+					return null;
+				}
+				
+				names.remove(names.size() - 1);
+				continue;
+			}
+			
+			names.add(Normalizer.normalize(nextName, Normalizer.Form.NFC));
+		}
+		
+		StringBuilder standardPath = new StringBuilder(".");
+		for (String nextName : names)
+		{
+			standardPath.append(Manifest.standardPathDelimiterString);
+			standardPath.append(nextName);
+		}
+		
+		return standardPath.toString();
+	}
+	
 	static void findManifests(
 		File nextDirectory,
 		boolean cascade,
@@ -0,0 +1,316 @@
+package repotools.repotool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Normalizer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import repotools.manifest.Manifest;
+import repotools.utilities.Console;
+
+/// <summary>
+/// Watches every directory of a repository for changes, and keeps the
+/// paths which changed in a DirtyPathSet next to the manifest, so that a
+/// status or update only has to look at them.  On Linux each directory is
+/// an inotify watch, so a large repository may need the limit in
+/// /proc/sys/fs/inotify/max_user_watches raised.  Events lost because too
+/// many arrived at once make the next status and update scan the whole
+/// repository.  If any directory can't be watched, they always do.
+///
+/// This needs a WatchService which is told of changes by the operating
+/// system, as on Linux and Windows.  Elsewhere, such as on macOS, Java
+/// looks for changes by polling each directory every few seconds, which is
+/// too slow for a status to rely on, so watching is refused.
+/// </summary>
+public class RepositoryWatcher
+{
+	public RepositoryWatcher(
+		File rootDirectory,
+		String manifestFilePath,
+		Console console)
+	{
+		this.rootPath = rootDirectory.toPath().toAbsolutePath().normalize();
+		this.manifestFileName = new File(manifestFilePath).getName();
+		this.dirtyFile = DirtyPathSet.getFile(manifestFilePath);
+		this.ackFile = DirtyPathSet.getAckFile(manifestFilePath);
+		this.console = console;
+
+		watchedDirectories = new HashMap<WatchKey, Path>();
+		ackLastModified = 0;
+		incomplete = false;
+	}
+
+	/// <summary>
+	/// Watch until the process is stopped
+	/// </summary>
+	public void run() throws IOException, InterruptedException
+	{
+		watchService = FileSystems.getDefault().newWatchService();
+
+		try
+		{
+			if (isPolling(watchService))
+			{
+				throw new IOException(
+					"Changes can only be watched for by polling on this " +
+					"platform, which status and update can't rely on.");
+			}
+			
+
+			// Changes made while the tree is being registered are covered
+			// by starting the set afterwards, because an update has to
+			// begin after the start to be acknowledged.
+			registerTree(rootPath);
+
+			dirtyPaths = new DirtyPathSet(System.currentTimeMillis());
+			dirtyPaths.write(dirtyFile, System.currentTimeMillis());
+
+			console.writeLine(
+				"Watching " + watchedDirectories.size() + " directories.");
+			
+			if (incomplete)
+			{
+				console.writeLine(
+					"Some directories can't be watched, so status and update " +
+					"will scan the whole repository.");
+			}
+
+			long nextHeartbeat =
+				System.currentTimeMillis() + DirtyPathSet.heartbeatMilliseconds;
+			
+			while (true)
+			{
+				WatchKey key = watchService.poll(
+					Math.max(0, nextHeartbeat - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS);
+
+				// Everything signalled before this time is taken now, so
+				// the heartbeat shows that the set is complete up to it.
+				long heartbeat = System.currentTimeMillis();
+
+				while (key != null)
+				{
+					processEvents(key);
+					key = watchService.poll();
+				}
+				
+				// Writing the set is itself a change to the root directory,
+				// so it is only written once a heartbeat, however often
+				// this wakes up.
+				if (heartbeat < nextHeartbeat)
+				{
+					continue;
+				}
+				
+				nextHeartbeat = heartbeat + DirtyPathSet.heartbeatMilliseconds;
+
+				if (incomplete)
+				{
+					dirtyPaths.markOverflow(Long.MAX_VALUE);
+				}
+
+				checkAcknowledgement();
+				dirtyPaths.write(dirtyFile, heartbeat);
+			}
+		}
+		finally
+		{
+			if (dirtyPaths != null)
+			{
+				dirtyPaths.close();
+			}
+			
+			watchService.close();
+		}
+	}
+	
+	/// <summary>
+	/// Whether the WatchService is the one Java falls back to where the
+	/// operating system doesn't report changes, which finds them by
+	/// looking at each directory every few seconds
+	/// </summary>
+	protected static boolean isPolling(WatchService watchService)
+	{
+		return watchService.getClass().getName().equals(pollingWatchServiceName);
+	}
+
+	protected void processEvents(WatchKey key)
+	{
+		Path directory = watchedDirectories.get(key);
+		long now = System.currentTimeMillis();
+
+		for (WatchEvent<?> nextEvent : key.pollEvents())
+		{
+			if (nextEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				dirtyPaths.markOverflow(now);
+				continue;
+			}
+
+			if (directory == null)
+			{
+				continue;
+			}
+
+			Path path = directory.resolve((Path) nextEvent.context());
+
+			if (isOwnFile(path))
+			{
+				continue;
+			}
+
+			dirtyPaths.markDirty(makeStandardPath(path), now);
+
+			if (nextEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+				Files.isDirectory(path))
+			{
+				// Anything created in it before it was registered is
+				// found by looking at the whole of it.  A directory moved
+				// here keeps its watches, which are given their new paths.
+				registerTree(path);
+			}
+		}
+
+		if (key.reset() == false)
+		{
+			// Deleted, which was recorded in its parent
+			watchedDirectories.remove(key);
+		}
+	}
+
+	/// <summary>
+	/// Watch a directory and everything under it, following symbolic links
+	/// as a status does
+	/// </summary>
+	protected void registerTree(Path directory)
+	{
+		try
+		{
+			Files.walkFileTree(
+				directory,
+				EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+				Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>()
+				{
+					@Override
+					public FileVisitResult preVisitDirectory(
+						Path dir,
+						BasicFileAttributes attrs)
+					{
+						register(dir);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(
+						Path file,
+						IOException ex)
+					{
+						// Gone already, or can't be read, in which case a
+						// status can't read it either
+						return FileVisitResult.CONTINUE;
+					}
+				});
+		}
+		catch (IOException ex)
+		{
+			incomplete = true;
+		}
+	}
+
+	protected void register(Path directory)
+	{
+		try
+		{
+			WatchKey key = directory.register(
+				watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+			watchedDirectories.put(key, directory);
+		}
+		catch (IOException ex)
+		{
+			console.writeLine("Could not watch: " + directory);
+			console.writeLine(ex.toString());
+
+			incomplete = true;
+		}
+	}
+
+	/// <summary>
+	/// Forget the changes which an update has taken into account
+	/// </summary>
+	protected void checkAcknowledgement()
+	{
+		long lastModified = ackFile.lastModified();
+		if (lastModified == ackLastModified)
+		{
+			return;
+		}
+
+		DirtyPathSet.Acknowledgement ack =
+			DirtyPathSet.Acknowledgement.read(ackFile);
+
+		if (ack != null)
+		{
+			ackLastModified = lastModified;
+			dirtyPaths.acknowledge(ack);
+		}
+	}
+
+	/// <summary>
+	/// Whether a path is the manifest, or one of the files kept next to it,
+	/// including the set of changed paths itself
+	/// </summary>
+	protected boolean isOwnFile(Path path)
+	{
+		return
+			rootPath.equals(path.getParent()) &&
+			path.getFileName().toString().startsWith(manifestFileName);
+	}
+
+	protected String makeStandardPath(Path path)
+	{
+		StringBuilder standardPath = new StringBuilder(".");
+
+		for (Path nextName : rootPath.relativize(path))
+		{
+			standardPath.append(Manifest.standardPathDelimiterString);
+			standardPath.append(Normalizer.normalize(
+				nextName.toString(),
+				Normalizer.Form.NFC));
+		}
+
+		return standardPath.toString();
+	}
+
+	private Path rootPath;
+	private String manifestFileName;
+	private File dirtyFile;
+	private File ackFile;
+	private Console console;
+
+	private WatchService watchService;
+	private HashMap<WatchKey, Path> watchedDirectories;
+	private DirtyPathSet dirtyPaths;
+	private long ackLastModified;
+	private boolean incomplete;
+	
+	private static final String pollingWatchServiceName =
+		"sun.nio.fs.PollingWatchService";
+}
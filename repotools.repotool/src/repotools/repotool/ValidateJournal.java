@@ -0,0 +1,619 @@
+package repotools.repotool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import repotools.manifest.BlockRange;
+import repotools.manifest.FileHash;
+
+/// <summary>
+/// Record of the progress of a validate, so that an interrupted validate
+/// can be resumed without reading again the files which were already
+/// verified.  The outcome of hashing each file is appended as soon as it is
+/// known, along with periodic checkpoints of the digest state while a very
+/// large file is being read.  Each record also holds the length and last
+/// modified date of the file, and is only used again if the file still
+/// matches them.  A result also holds the time the file was read, which is
+/// when it was last validated even if the validate is only completed later.
+///
+/// The journal is deleted once the validate completes.
+/// </summary>
+public class ValidateJournal
+{
+	public ValidateJournal(File journalFile)
+	{
+		this.journalFile = journalFile;
+
+		results = new HashMap<String, Result>();
+		checkpoints = new HashMap<String, Checkpoint>();
+		checkpointInterval = defaultCheckpointInterval;
+	}
+
+	/// <summary>
+	/// Prepare to record the progress of a validate
+	/// </summary>
+	/// <param name="manifestGuid">
+	/// GUID of the manifest being validated
+	/// </param>
+	/// <param name="resume">
+	/// Load the records of an earlier validate of the same manifest, if
+	/// there is one, rather than starting over.
+	/// </param>
+	public synchronized void open(UUID manifestGuid, boolean resume) throws IOException
+	{
+		results.clear();
+		checkpoints.clear();
+
+		if (resume && journalFile.exists())
+		{
+			long validLength = load(manifestGuid);
+
+			// Records are appended after the last complete one, not after a
+			// partial one which would hide them the next time
+			RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+			try
+			{
+				file.setLength(validLength);
+			}
+			finally
+			{
+				file.close();
+			}
+
+			appendStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+		}
+		else
+		{
+			appendStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(journalFile)));
+
+			appendStream.writeInt(fileMagic);
+			appendStream.writeUTF(manifestGuid.toString());
+			appendStream.flush();
+		}
+	}
+
+	/// <returns>
+	/// The length of the journal up to the end of the last complete record
+	/// </returns>
+	protected long load(UUID manifestGuid) throws IOException
+	{
+		CountingInputStream counter = new CountingInputStream(
+			new BufferedInputStream(new FileInputStream(journalFile)));
+		
+		DataInputStream input = new DataInputStream(counter);
+		long validLength = 0;
+
+		try
+		{
+			if (input.readInt() != fileMagic)
+			{
+				throw new IOException("Not a validate journal: " + journalFile);
+			}
+
+			if (input.readUTF().equals(manifestGuid.toString()) == false)
+			{
+				throw new IOException("Validate journal is for a different manifest: " + journalFile);
+			}
+			
+			validLength = counter.getCount();
+
+			while (true)
+			{
+				try
+				{
+					int recordType = input.readByte();
+					String path = input.readUTF();
+
+					if (recordType == resultRecord)
+					{
+						results.put(path, readResult(input));
+					}
+					else if (recordType == checkpointRecord)
+					{
+						checkpoints.put(path, readCheckpoint(input));
+					}
+					else
+					{
+						// Something after this is damaged
+						break;
+					}
+					
+					validLength = counter.getCount();
+				}
+				catch (EOFException ex)
+				{
+					// Normal end, or a partial record from the interrupted
+					// run which we ignore.
+					break;
+				}
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		
+		return validLength;
+	}
+
+	/// <summary>
+	/// Stop recording.  If the validate is complete the journal is deleted.
+	/// </summary>
+	public synchronized void close(boolean complete) throws IOException
+	{
+		if (appendStream != null)
+		{
+			appendStream.close();
+			appendStream = null;
+		}
+
+		if (complete)
+		{
+			journalFile.delete();
+		}
+	}
+
+	/// <summary>
+	/// Find the recorded outcome of hashing a file
+	/// </summary>
+	/// <param name="method">
+	/// Describes how the file is being checked.  The outcome is only used
+	/// if it was found the same way.
+	/// </param>
+	/// <returns>
+	/// The outcome, or null if there isn't one for this version of the file
+	/// </returns>
+	public synchronized Result findResult(String path, File file, String method)
+	{
+		Result result = results.get(path);
+
+		if (result == null ||
+			result.length != file.length() ||
+			result.lastModified != file.lastModified() ||
+			result.method.equals(method) == false)
+		{
+			return null;
+		}
+
+		return result;
+	}
+
+	/// <summary>
+	/// Record the outcome of hashing a file.  Only the records loaded to
+	/// resume are kept in memory, since each file is only hashed once in a
+	/// validate, so memory doesn't grow with the number of files checked.
+	/// </summary>
+	public synchronized void recordResult(String path, Result result)
+	{
+		results.remove(path);
+		checkpoints.remove(path);
+
+		if (appendStream == null)
+		{
+			return;
+		}
+
+		try
+		{
+			appendStream.writeByte(resultRecord);
+			appendStream.writeUTF(path);
+			writeResult(appendStream, result);
+			flushOccasionally();
+		}
+		catch (IOException ex)
+		{
+			// The validate can still complete without the journal
+		}
+	}
+
+	/// <summary>
+	/// Find the latest checkpoint while reading a file
+	/// </summary>
+	/// <returns>
+	/// The checkpoint, or null if there isn't one for this version of the
+	/// file which was made with the same hash methods.
+	/// </returns>
+	public synchronized Checkpoint findCheckpoint(
+		String path,
+		File file,
+		String[] hashTypes)
+	{
+		Checkpoint checkpoint = checkpoints.get(path);
+
+		if (checkpoint == null ||
+			checkpoint.length != file.length() ||
+			checkpoint.lastModified != file.lastModified() ||
+			checkpoint.hashTypes.length != hashTypes.length)
+		{
+			return null;
+		}
+
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			if (checkpoint.hashTypes[i].equals(hashTypes[i]) == false)
+			{
+				return null;
+			}
+		}
+
+		return checkpoint;
+	}
+
+	public synchronized void recordCheckpoint(String path, Checkpoint checkpoint)
+	{
+		checkpoints.remove(path);
+
+		if (appendStream == null)
+		{
+			return;
+		}
+
+		try
+		{
+			appendStream.writeByte(checkpointRecord);
+			appendStream.writeUTF(path);
+			writeCheckpoint(appendStream, checkpoint);
+			flushOccasionally();
+		}
+		catch (IOException ex)
+		{
+			// The validate can still complete without the journal
+		}
+	}
+
+	/// <summary>
+	/// Flush the records written since the last flush, if there are many of
+	/// them or it was a while ago.  Records which were never flushed are
+	/// lost if the validate is interrupted, and a partial one at the end is
+	/// skipped when the journal is loaded.
+	/// </summary>
+	protected void flushOccasionally() throws IOException
+	{
+		unflushedRecords++;
+
+		long now = System.currentTimeMillis();
+
+		if (unflushedRecords >= flushRecordInterval ||
+			now - lastFlushMillis >= flushMilliseconds)
+		{
+			appendStream.flush();
+
+			unflushedRecords = 0;
+			lastFlushMillis = now;
+		}
+	}
+
+	protected static Result readResult(DataInputStream input) throws IOException
+	{
+		Result result = new Result(
+			input.readLong(),
+			input.readLong(),
+			input.readUTF());
+
+		result.checkHash = readHash(input);
+		result.newHash = readHash(input);
+		result.blocksDiffer = input.readBoolean();
+		result.validatedMillis = input.readLong();
+
+		int rangeCount = input.readInt();
+		if (rangeCount >= 0)
+		{
+			result.differentRanges = new ArrayList<BlockRange>();
+
+			for (int i = 0; i < rangeCount; i++)
+			{
+				result.differentRanges.add(
+					new BlockRange(input.readLong(), input.readLong()));
+			}
+		}
+
+		return result;
+	}
+
+	protected static void writeResult(
+		DataOutputStream output,
+		Result result) throws IOException
+	{
+		output.writeLong(result.length);
+		output.writeLong(result.lastModified);
+		output.writeUTF(result.method);
+		writeHash(output, result.checkHash);
+		writeHash(output, result.newHash);
+		output.writeBoolean(result.blocksDiffer);
+		output.writeLong(result.validatedMillis);
+
+		if (result.differentRanges == null)
+		{
+			output.writeInt(-1);
+		}
+		else
+		{
+			output.writeInt(result.differentRanges.size());
+
+			for (BlockRange nextRange : result.differentRanges)
+			{
+				output.writeLong(nextRange.getStart());
+				output.writeLong(nextRange.getEnd());
+			}
+		}
+	}
+
+	protected static Checkpoint readCheckpoint(DataInputStream input) throws IOException
+	{
+		long length = input.readLong();
+		long lastModified = input.readLong();
+		long position = input.readLong();
+
+		int digestCount = input.readInt();
+		String[] hashTypes = new String[digestCount];
+		byte[][] states = new byte[digestCount][];
+
+		for (int i = 0; i < digestCount; i++)
+		{
+			hashTypes[i] = input.readUTF();
+			states[i] = new byte[input.readInt()];
+			input.readFully(states[i]);
+		}
+
+		return new Checkpoint(length, lastModified, position, hashTypes, states);
+	}
+
+	protected static void writeCheckpoint(
+		DataOutputStream output,
+		Checkpoint checkpoint) throws IOException
+	{
+		output.writeLong(checkpoint.length);
+		output.writeLong(checkpoint.lastModified);
+		output.writeLong(checkpoint.position);
+		output.writeInt(checkpoint.hashTypes.length);
+
+		for (int i = 0; i < checkpoint.hashTypes.length; i++)
+		{
+			output.writeUTF(checkpoint.hashTypes[i]);
+			output.writeInt(checkpoint.states[i].length);
+			output.write(checkpoint.states[i]);
+		}
+	}
+
+	protected static FileHash readHash(DataInputStream input) throws IOException
+	{
+		if (input.readBoolean() == false)
+		{
+			return null;
+		}
+
+		String hashType = input.readUTF();
+		byte[] hashData = new byte[input.readUnsignedShort()];
+		input.readFully(hashData);
+
+		return new FileHash(hashData, hashType);
+	}
+
+	protected static void writeHash(
+		DataOutputStream output,
+		FileHash hash) throws IOException
+	{
+		output.writeBoolean(hash != null);
+
+		if (hash != null)
+		{
+			output.writeUTF(hash.getHashType());
+			output.writeShort(hash.getHashData().length);
+			output.write(hash.getHashData());
+		}
+	}
+
+	/// <summary>
+	/// The outcome of hashing one file
+	/// </summary>
+	public static class Result
+	{
+		public Result(long length, long lastModified, String method)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.method = method;
+		}
+
+		public FileHash getCheckHash()
+		{
+			return checkHash;
+		}
+
+		public void setCheckHash(FileHash checkHash)
+		{
+			this.checkHash = checkHash;
+		}
+
+		public FileHash getNewHash()
+		{
+			return newHash;
+		}
+
+		public void setNewHash(FileHash newHash)
+		{
+			this.newHash = newHash;
+		}
+
+		public boolean isBlocksDiffer()
+		{
+			return blocksDiffer;
+		}
+
+		public void setBlocksDiffer(boolean blocksDiffer)
+		{
+			this.blocksDiffer = blocksDiffer;
+		}
+
+		public ArrayList<BlockRange> getDifferentRanges()
+		{
+			return differentRanges;
+		}
+
+		public void setDifferentRanges(ArrayList<BlockRange> differentRanges)
+		{
+			this.differentRanges = differentRanges;
+		}
+		
+		/// <summary>
+		/// When the file was read, in milliseconds since the epoch
+		/// </summary>
+		public long getValidatedMillis()
+		{
+			return validatedMillis;
+		}
+		
+		public void setValidatedMillis(long validatedMillis)
+		{
+			this.validatedMillis = validatedMillis;
+		}
+
+		private long length;
+		private long lastModified;
+		private String method;
+		private FileHash checkHash;
+		private FileHash newHash;
+		private boolean blocksDiffer;
+		private ArrayList<BlockRange> differentRanges;
+		private long validatedMillis;
+	}
+	
+	/// <summary>
+	/// Counts the bytes read, to find where the last complete record ends
+	/// </summary>
+	protected static class CountingInputStream extends FilterInputStream
+	{
+		public CountingInputStream(InputStream in)
+		{
+			super(in);
+			count = 0;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			int value = super.read();
+			if (value >= 0)
+			{
+				count++;
+			}
+			
+			return value;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int numRead = super.read(b, off, len);
+			if (numRead > 0)
+			{
+				count += numRead;
+			}
+			
+			return numRead;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long numSkipped = super.skip(n);
+			count += numSkipped;
+			
+			return numSkipped;
+		}
+		
+		public long getCount()
+		{
+			return count;
+		}
+		
+		private long count;
+	}
+
+	/// <summary>
+	/// The state of the digests part of the way through reading a file
+	/// </summary>
+	public static class Checkpoint
+	{
+		public Checkpoint(
+			long length,
+			long lastModified,
+			long position,
+			String[] hashTypes,
+			byte[][] states)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.position = position;
+			this.hashTypes = hashTypes;
+			this.states = states;
+		}
+
+		public long getPosition()
+		{
+			return position;
+		}
+
+		public byte[][] getStates()
+		{
+			return states;
+		}
+
+		private long length;
+		private long lastModified;
+		private long position;
+		private String[] hashTypes;
+		private byte[][] states;
+	}
+
+	public File getJournalFile()
+	{
+		return journalFile;
+	}
+
+	public long getCheckpointInterval()
+	{
+		return checkpointInterval;
+	}
+
+	/// <summary>
+	/// Set how many bytes of a file are read between checkpoints.  Files
+	/// shorter than this are never checkpointed.
+	/// </summary>
+	public void setCheckpointInterval(long checkpointInterval)
+	{
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	private File journalFile;
+	private HashMap<String, Result> results;
+	private HashMap<String, Checkpoint> checkpoints;
+	private DataOutputStream appendStream;
+	private long checkpointInterval;
+	private int unflushedRecords;
+	private long lastFlushMillis;
+
+	private static final int flushRecordInterval = 1000;
+	private static final long flushMilliseconds = 1000;
+	private static final int fileMagic = 0x52544A4C;
+	private static final int resultRecord = 1;
+	private static final int checkpointRecord = 2;
+
+	public static final long defaultCheckpointInterval = 1024L * 1024 * 1024;
+	public static final String fileSuffix = ".journal";
+}
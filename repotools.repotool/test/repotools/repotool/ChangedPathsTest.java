@@ -0,0 +1,190 @@
+package repotools.repotool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// <summary>
+/// Reading the paths given with -changedPaths.  A path which is read wrong
+/// is a changed file which status and update don't look at.
+/// </summary>
+public class ChangedPathsTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		root = folder.newFolder("repo");
+		new File(root, "dir").mkdir();
+		new File(root, "dir/file").createNewFile();
+	}
+
+	@Test
+	public void relativePaths()
+	{
+		assertEquals("./dir/file", RepoToolApp.makeStandardPath("dir/file", root));
+		assertEquals("./dir/file", RepoToolApp.makeStandardPath("./dir/file", root));
+		assertEquals("./dir/file", RepoToolApp.makeStandardPath("dir//file/", root));
+		assertEquals("./file", RepoToolApp.makeStandardPath("dir/../file", root));
+		assertEquals(".", RepoToolApp.makeStandardPath(".", root));
+	}
+
+	@Test
+	public void pathsOutsideTheRootAreRefused()
+	{
+		assertNull(RepoToolApp.makeStandardPath("../file", root));
+		assertNull(RepoToolApp.makeStandardPath("dir/../../file", root));
+		assertNull(RepoToolApp.makeStandardPath(
+			new File(folder.getRoot(), "other/file").getAbsolutePath(),
+			root));
+	}
+
+	@Test
+	public void namesAreNormalized()
+	{
+		String decomposed = Normalizer.normalize("caf\u00E9", Normalizer.Form.NFD);
+		
+		assertEquals(
+			"./dir/caf\u00E9",
+			RepoToolApp.makeStandardPath("dir/" + decomposed, root));
+	}
+
+	@Test
+	public void absolutePaths()
+	{
+		assertEquals(
+			"./dir/file",
+			RepoToolApp.makeStandardPath(
+				new File(root, "dir/file").getAbsolutePath(),
+				root));
+		
+		// Deleted, so it can only be found by its path
+		assertEquals(
+			"./gone/file",
+			RepoToolApp.makeStandardPath(
+				new File(root, "gone/file").getAbsolutePath(),
+				root));
+		
+		assertEquals(".", RepoToolApp.makeStandardPath(root.getAbsolutePath(), root));
+	}
+
+	@Test
+	public void absolutePathsThroughALink() throws Exception
+	{
+		File link = new File(folder.getRoot(), "link");
+		if (makeLink(link, root) == false)
+		{
+			return;
+		}
+		
+		// The paths reach the root through the link
+		assertEquals(
+			"./dir/file",
+			RepoToolApp.makeStandardPath(
+				new File(link, "dir/file").getAbsolutePath(),
+				root));
+		
+		assertEquals(
+			"./gone",
+			RepoToolApp.makeStandardPath(
+				new File(link, "gone").getAbsolutePath(),
+				root));
+		
+		assertEquals(".", RepoToolApp.makeStandardPath(link.getAbsolutePath(), root));
+		
+		// The root is reached through the link
+		assertEquals(
+			"./dir/file",
+			RepoToolApp.makeStandardPath(
+				new File(root, "dir/file").getAbsolutePath(),
+				link));
+	}
+
+	@Test
+	public void linkInTheRepositoryKeepsItsOwnPath() throws Exception
+	{
+		File outside = folder.newFolder("outside");
+		File link = new File(root, "linked");
+		if (makeLink(link, outside) == false)
+		{
+			return;
+		}
+		
+		assertEquals(
+			"./linked",
+			RepoToolApp.makeStandardPath(link.getAbsolutePath(), root));
+	}
+
+	@Test
+	public void newlineSeparatedList() throws Exception
+	{
+		List<String> paths = readChangedPaths("dir/file\r\n\n./other\nthird/\n");
+		
+		assertEquals(Arrays.asList("./dir/file", "./other", "./third"), paths);
+	}
+
+	@Test
+	public void nulSeparatedList() throws Exception
+	{
+		// A name may contain a newline when the list is NUL separated
+		List<String> paths = readChangedPaths("dir/file\0line\nbreak\0\0");
+		
+		assertEquals(Arrays.asList("./dir/file", "./line\nbreak"), paths);
+	}
+
+	@Test(expected = IOException.class)
+	public void listWithAPathOutsideTheRootIsRefused() throws Exception
+	{
+		readChangedPaths("dir/file\n../elsewhere\n");
+	}
+
+	protected List<String> readChangedPaths(String contents) throws IOException
+	{
+		File listFile = new File(folder.getRoot(), "changed.txt");
+		
+		FileOutputStream out = new FileOutputStream(listFile);
+		try
+		{
+			out.write(contents.getBytes(StandardCharsets.UTF_8));
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		return RepoToolApp.readChangedPaths(listFile.getPath(), root);
+	}
+
+	/// <returns>
+	/// False if symbolic links can't be made here
+	/// </returns>
+	protected static boolean makeLink(File link, File target)
+	{
+		try
+		{
+			Files.createSymbolicLink(link.toPath(), target.toPath());
+			return true;
+		}
+		catch (Exception ex)
+		{
+			return false;
+		}
+	}
+
+	private File root;
+}
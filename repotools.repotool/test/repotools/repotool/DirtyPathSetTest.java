@@ -0,0 +1,267 @@
+package repotools.repotool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// <summary>
+/// The set of changed paths decides which files a status or update looks
+/// at, so any mistake in it means changed files are silently skipped.
+/// </summary>
+public class DirtyPathSetTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp()
+	{
+		file = DirtyPathSet.getFile(
+			new File(folder.getRoot(), ".repositoryManifest").getPath());
+		
+		set = new DirtyPathSet(started);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		set.close();
+	}
+
+	@Test
+	public void appendedChangesAreRead() throws Exception
+	{
+		set.write(file, started + 1000);
+		long compactedLength = file.length();
+		
+		set.markDirty("./a", started + 1500);
+		set.markDirty("./b/c", started + 1600);
+		set.write(file, started + 2000);
+		
+		// Appended rather than replaced
+		assertTrue(file.length() > compactedLength);
+		
+		DirtyPathSet readSet = DirtyPathSet.read(file);
+		
+		assertEquals(started, readSet.getStartedMillis());
+		assertEquals(started + 2000, readSet.getHeartbeatMillis());
+		assertEquals(
+			Arrays.asList("./a", "./b/c"),
+			readSet.getChangedPaths(makeAck(started + 1000), manifestUpdate));
+	}
+
+	@Test
+	public void pathIsKeptInTheOrderOfItsLatestChange() throws Exception
+	{
+		set.markDirty("./a", started + 100);
+		set.markDirty("./b", started + 200);
+		set.markDirty("./a", started + 300);
+		set.write(file, started + 1000);
+		
+		assertEquals(
+			Arrays.asList("./b", "./a"),
+			DirtyPathSet.read(file).getChangedPaths(makeAck(started), manifestUpdate));
+	}
+
+	@Test
+	public void acknowledgedChangesAreForgotten() throws Exception
+	{
+		set.write(file, started + 1000);
+		
+		set.markDirty("./a", started + 1100);
+		set.markDirty("./b", started + 1300);
+		set.write(file, started + 2000);
+		
+		DirtyPathSet.Acknowledgement ack = makeAck(started + 1200);
+		set.acknowledge(ack);
+		set.write(file, started + 3000);
+		
+		DirtyPathSet readSet = DirtyPathSet.read(file);
+		
+		assertEquals(1, readSet.size());
+		assertEquals(
+			Arrays.asList("./b"),
+			readSet.getChangedPaths(ack, manifestUpdate));
+	}
+
+	@Test
+	public void acknowledgementOfAnotherRunIsIgnored() throws Exception
+	{
+		set.markDirty("./a", started + 100);
+		set.acknowledge(new DirtyPathSet.Acknowledgement(
+			started - 1,
+			started + 200,
+			manifestUpdate.getTime()));
+		
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void fullScanUnlessTheManifestWasAcknowledged() throws Exception
+	{
+		set.markDirty("./a", started + 100);
+		
+		// No update while the watcher was running
+		assertNull(set.getChangedPaths(null, manifestUpdate));
+		
+		// An update by another run of the watcher
+		assertNull(set.getChangedPaths(
+			new DirtyPathSet.Acknowledgement(
+				started - 1,
+				started + 50,
+				manifestUpdate.getTime()),
+			manifestUpdate));
+		
+		// The manifest was updated again without the watcher
+		assertNull(set.getChangedPaths(
+			makeAck(started + 50),
+			new Date(manifestUpdate.getTime() + 60000)));
+		
+		assertNull(set.getChangedPaths(makeAck(started + 50), null));
+		
+		assertNotNull(set.getChangedPaths(makeAck(started + 50), manifestUpdate));
+	}
+
+	@Test
+	public void overflowFallsBackToAFullScan() throws Exception
+	{
+		set.write(file, started + 1000);
+		
+		set.markDirty("./a", started + 1100);
+		set.markOverflow(started + 1200);
+		set.write(file, started + 2000);
+		
+		DirtyPathSet readSet = DirtyPathSet.read(file);
+		
+		assertEquals(started + 1200, readSet.getOverflowMillis());
+		assertNull(readSet.getChangedPaths(makeAck(started + 1000), manifestUpdate));
+		
+		// An update after the overflow covers it
+		DirtyPathSet.Acknowledgement ack = makeAck(started + 1500);
+		set.acknowledge(ack);
+		set.markDirty("./b", started + 1600);
+		set.write(file, started + 3000);
+		
+		readSet = DirtyPathSet.read(file);
+		
+		assertEquals(0, readSet.getOverflowMillis());
+		assertEquals(
+			Arrays.asList("./b"),
+			readSet.getChangedPaths(ack, manifestUpdate));
+	}
+
+	@Test
+	public void fileIsCompactedOnceEnoughIsAppended() throws Exception
+	{
+		set.write(file, started + 1000);
+		
+		long heartbeat = started + 1000;
+		for (int i = 0; i < 5000; i++)
+		{
+			set.markDirty("./directory/file" + (i % 10), started + 1000 + i);
+			
+			heartbeat += 1000;
+			set.write(file, heartbeat);
+		}
+		
+		// Ten paths and the header, rather than every change
+		assertTrue(file.length() < 64 * 1024);
+		
+		DirtyPathSet readSet = DirtyPathSet.read(file);
+		
+		assertEquals(10, readSet.size());
+		assertEquals(heartbeat, readSet.getHeartbeatMillis());
+	}
+
+	@Test
+	public void partialLastRecordIsIgnored() throws Exception
+	{
+		set.write(file, started + 1000);
+		
+		set.markDirty("./a", started + 1100);
+		set.write(file, started + 2000);
+		
+		set.markDirty("./b", started + 2100);
+		set.write(file, started + 3000);
+		set.close();
+		
+		// A reader may see the watcher part of the way through a write
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try
+		{
+			output.setLength(output.length() - 3);
+		}
+		finally
+		{
+			output.close();
+		}
+		
+		DirtyPathSet readSet = DirtyPathSet.read(file);
+		
+		// The heartbeat after the change to ./b wasn't seen, so the set is
+		// only trusted up to the one before it.
+		assertEquals(started + 2000, readSet.getHeartbeatMillis());
+		assertEquals(2, readSet.size());
+	}
+
+	@Test
+	public void staleSetIsNotUsed() throws Exception
+	{
+		long now = System.currentTimeMillis();
+		
+		assertNull(DirtyPathSet.readCurrent(file, now));
+		
+		DirtyPathSet staleSet = new DirtyPathSet(now - 60000);
+		staleSet.write(file, now - 30000);
+		staleSet.close();
+		
+		assertNull(DirtyPathSet.readCurrent(file, now));
+		
+		DirtyPathSet currentSet = new DirtyPathSet(now - 60000);
+		currentSet.write(file, now + 1000);
+		currentSet.close();
+		
+		assertNotNull(DirtyPathSet.readCurrent(file, now));
+	}
+
+	@Test
+	public void acknowledgementIsReadBack() throws Exception
+	{
+		File ackFile = new File(folder.getRoot(), "ack");
+		
+		assertNull(DirtyPathSet.Acknowledgement.read(ackFile));
+		
+		makeAck(started + 5).write(ackFile);
+		
+		DirtyPathSet.Acknowledgement ack = DirtyPathSet.Acknowledgement.read(ackFile);
+		
+		assertEquals(started, ack.getStartedMillis());
+		assertEquals(started + 5, ack.getCoveredMillis());
+		assertEquals(manifestUpdate.getTime(), ack.getManifestUpdateMillis());
+	}
+
+	protected DirtyPathSet.Acknowledgement makeAck(long coveredMillis)
+	{
+		return new DirtyPathSet.Acknowledgement(
+			started,
+			coveredMillis,
+			manifestUpdate.getTime());
+	}
+
+	private File file;
+	private DirtyPathSet set;
+	private long started = 1600000000000L;
+	private Date manifestUpdate = new Date(1600000100000L);
+}
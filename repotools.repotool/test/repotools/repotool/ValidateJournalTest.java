@@ -0,0 +1,247 @@
+package repotools.repotool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import repotools.manifest.BlockRange;
+import repotools.manifest.FileHash;
+
+public class ValidateJournalTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		guid = UUID.randomUUID();
+		journalFile = new File(folder.getRoot(), "manifest" + ValidateJournal.fileSuffix);
+		
+		fileA = makeFile("a", 100);
+		fileB = makeFile("b", 200);
+		fileC = makeFile("c", 300);
+	}
+
+	@Test
+	public void resultIsReplayed() throws Exception
+	{
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		
+		ValidateJournal.Result result = makeResult(fileA, "MD5", 1);
+		result.setNewHash(makeHash(2));
+		result.setBlocksDiffer(true);
+		
+		ArrayList<BlockRange> ranges = new ArrayList<BlockRange>();
+		ranges.add(new BlockRange(1024, 2047));
+		result.setDifferentRanges(ranges);
+		
+		journal.recordResult("./a", result);
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, true);
+		
+		ValidateJournal.Result replayed = journal.findResult("./a", fileA, "MD5");
+		
+		assertNotNull(replayed);
+		assertEquals(makeHash(1), replayed.getCheckHash());
+		assertEquals(makeHash(2), replayed.getNewHash());
+		assertTrue(replayed.isBlocksDiffer());
+		assertEquals(1, replayed.getDifferentRanges().size());
+		assertEquals(2047, replayed.getDifferentRanges().get(0).getEnd());
+		assertEquals(validatedMillis, replayed.getValidatedMillis());
+		
+		journal.close(true);
+		assertFalse(journalFile.exists());
+	}
+
+	@Test
+	public void resultIsOnlyReplayedForTheSameFileAndMethod() throws Exception
+	{
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		journal.recordResult("./a", makeResult(fileA, "MD5", 1));
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, true);
+		
+		assertNull(journal.findResult("./a", fileA, "SHA256"));
+		assertNull(journal.findResult("./b", fileB, "MD5"));
+		
+		fileA.setLastModified(fileA.lastModified() - 10000);
+		assertNull(journal.findResult("./a", fileA, "MD5"));
+		
+		journal.close(true);
+	}
+
+	@Test
+	public void startingOverForgetsResults() throws Exception
+	{
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		journal.recordResult("./a", makeResult(fileA, "MD5", 1));
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		
+		assertNull(journal.findResult("./a", fileA, "MD5"));
+		
+		journal.close(true);
+	}
+
+	@Test(expected = IOException.class)
+	public void journalOfAnotherManifestIsRefused() throws Exception
+	{
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(UUID.randomUUID(), true);
+	}
+
+	@Test
+	public void partialRecordIsDroppedAndLaterRecordsKept() throws Exception
+	{
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		journal.recordResult("./a", makeResult(fileA, "MD5", 1));
+		journal.recordResult("./b", makeResult(fileB, "MD5", 2));
+		journal.close(false);
+		
+		// Interrupted part of the way through writing the second record
+		RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		try
+		{
+			file.setLength(file.length() - 5);
+		}
+		finally
+		{
+			file.close();
+		}
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, true);
+		
+		assertNotNull(journal.findResult("./a", fileA, "MD5"));
+		assertNull(journal.findResult("./b", fileB, "MD5"));
+		
+		// Appended after the last complete record, so it can be read back
+		journal.recordResult("./c", makeResult(fileC, "MD5", 3));
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, true);
+		
+		assertNotNull(journal.findResult("./a", fileA, "MD5"));
+		assertEquals(makeHash(3), journal.findResult("./c", fileC, "MD5").getCheckHash());
+		
+		journal.close(true);
+	}
+
+	@Test
+	public void checkpointIsReplayed() throws Exception
+	{
+		byte[][] states = new byte[][] { { 1, 2, 3 }, { 4, 5 } };
+		String[] hashTypes = new String[] { "MD5", "SHA256" };
+		
+		ValidateJournal journal = new ValidateJournal(journalFile);
+		journal.open(guid, false);
+		journal.recordCheckpoint(
+			"./a",
+			new ValidateJournal.Checkpoint(
+				fileA.length(),
+				fileA.lastModified(),
+				64,
+				hashTypes,
+				states));
+		journal.close(false);
+		
+		journal = new ValidateJournal(journalFile);
+		journal.open(guid, true);
+		
+		ValidateJournal.Checkpoint checkpoint =
+			journal.findCheckpoint("./a", fileA, hashTypes);
+		
+		assertNotNull(checkpoint);
+		assertEquals(64, checkpoint.getPosition());
+		assertArrayEquals(states[0], checkpoint.getStates()[0]);
+		assertArrayEquals(states[1], checkpoint.getStates()[1]);
+		
+		assertNull(journal.findCheckpoint("./a", fileA, new String[] { "MD5" }));
+		assertNull(journal.findCheckpoint("./a", fileA, new String[] { "SHA256", "MD5" }));
+		
+		// The result replaces the checkpoint
+		journal.recordResult("./a", makeResult(fileA, "MD5", 1));
+		assertNull(journal.findCheckpoint("./a", fileA, hashTypes));
+		
+		journal.close(true);
+	}
+
+	protected ValidateJournal.Result makeResult(
+		File file,
+		String method,
+		int hashValue)
+	{
+		ValidateJournal.Result result = new ValidateJournal.Result(
+			file.length(),
+			file.lastModified(),
+			method);
+		
+		result.setCheckHash(makeHash(hashValue));
+		result.setValidatedMillis(validatedMillis);
+		
+		return result;
+	}
+
+	protected static FileHash makeHash(int value)
+	{
+		byte[] hashData = new byte[16];
+		hashData[0] = (byte) value;
+		
+		return new FileHash(hashData, "MD5");
+	}
+
+	protected File makeFile(String name, int length) throws IOException
+	{
+		File file = new File(folder.getRoot(), name);
+		
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(new byte[length]);
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		return file;
+	}
+
+	private UUID guid;
+	private File journalFile;
+	private File fileA;
+	private File fileB;
+	private File fileC;
+	private long validatedMillis = 1500000000000L;
+}
@@ -97,6 +97,189 @@ public class ArgUtilities
 		return parameters.get(parameters.size() - 1);
 	}
 	
+	public int getIntParameterForOption(String optionName, int defaultValue)
+	{
+		String parameter = getParameterForOption(optionName);
+		
+		if (parameter == null)
+		{
+			return defaultValue;
+		}
+		
+		try
+		{
+			return Integer.parseInt(parameter);
+		}
+		catch (NumberFormatException ex)
+		{
+			console.writeLine("Invalid number \"" + parameter + "\" for option \"" +
+				makeArgFromOptionName(optionName) + "\"");
+			System.exit(1);
+		}
+		
+		return defaultValue;
+	}
+	
+	/// <summary>
+	/// Get a count such as a number of threads, which must be at least 1
+	/// </summary>
+	public int getPositiveIntParameterForOption(String optionName, int defaultValue)
+	{
+		int value = getIntParameterForOption(optionName, defaultValue);
+		
+		if (value < 1)
+		{
+			console.writeLine("The value for option \"" +
+				makeArgFromOptionName(optionName) + "\" must be at least 1");
+			System.exit(1);
+		}
+		
+		return value;
+	}
+	
+	public double getDoubleParameterForOption(String optionName, double defaultValue)
+	{
+		String parameter = getParameterForOption(optionName);
+		
+		if (parameter == null)
+		{
+			return defaultValue;
+		}
+		
+		try
+		{
+			return Double.parseDouble(parameter);
+		}
+		catch (NumberFormatException ex)
+		{
+			console.writeLine("Invalid number \"" + parameter + "\" for option \"" +
+				makeArgFromOptionName(optionName) + "\"");
+			System.exit(1);
+		}
+		
+		return defaultValue;
+	}
+	
+	/// <summary>
+	/// Get a number of bytes, which may have a K, M, G or T suffix for
+	/// powers of 1024.
+	/// </summary>
+	public long getSizeParameterForOption(String optionName, long defaultValue)
+	{
+		String parameter = getParameterForOption(optionName);
+		
+		if (parameter == null)
+		{
+			return defaultValue;
+		}
+		
+		long size = parseSize(parameter);
+		if (size < 0)
+		{
+			console.writeLine("Invalid size \"" + parameter + "\" for option \"" +
+				makeArgFromOptionName(optionName) + "\"");
+			System.exit(1);
+		}
+		
+		return size;
+	}
+	
+	/// <summary>
+	/// Parse a number of bytes with an optional K, M, G or T suffix
+	/// </summary>
+	/// <returns>
+	/// The number of bytes, or -1 if the string can't be parsed
+	/// </returns>
+	public static long parseSize(String sizeString)
+	{
+		String suffixes = "KMGT";
+		String digits = sizeString.trim();
+		long multiplier = 1;
+		
+		if (digits.length() > 0)
+		{
+			int suffixIndex = suffixes.indexOf(
+				Character.toUpperCase(digits.charAt(digits.length() - 1)));
+			
+			if (suffixIndex >= 0)
+			{
+				multiplier = 1L << (10 * (suffixIndex + 1));
+				digits = digits.substring(0, digits.length() - 1);
+			}
+		}
+		
+		try
+		{
+			long size = Long.parseLong(digits);
+			return size < 0 ? -1 : size * multiplier;
+		}
+		catch (NumberFormatException ex)
+		{
+			return -1;
+		}
+	}
+	
+	/// <summary>
+	/// Get a duration in milliseconds.  The number may have an s, m, h or d
+	/// suffix for seconds, minutes, hours or days, and is in seconds if it
+	/// has no suffix.
+	/// </summary>
+	public long getDurationParameterForOption(String optionName, long defaultValue)
+	{
+		String parameter = getParameterForOption(optionName);
+		
+		if (parameter == null)
+		{
+			return defaultValue;
+		}
+		
+		long duration = parseDuration(parameter);
+		if (duration < 0)
+		{
+			console.writeLine("Invalid duration \"" + parameter + "\" for option \"" +
+				makeArgFromOptionName(optionName) + "\"");
+			System.exit(1);
+		}
+		
+		return duration;
+	}
+	
+	/// <summary>
+	/// Parse a duration with an optional s, m, h or d suffix
+	/// </summary>
+	/// <returns>
+	/// The duration in milliseconds, or -1 if the string can't be parsed
+	/// </returns>
+	public static long parseDuration(String durationString)
+	{
+		String suffixes = "smhd";
+		long[] multipliers = { 1000L, 60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L };
+		String digits = durationString.trim();
+		long multiplier = 1000L;
+		
+		if (digits.length() > 0)
+		{
+			int suffixIndex = suffixes.indexOf(
+				Character.toLowerCase(digits.charAt(digits.length() - 1)));
+			
+			if (suffixIndex >= 0)
+			{
+				multiplier = multipliers[suffixIndex];
+				digits = digits.substring(0, digits.length() - 1);
+			}
+		}
+		
+		try
+		{
+			double duration = Double.parseDouble(digits);
+			return duration < 0 ? -1 : (long) (duration * multiplier);
+		}
+		catch (NumberFormatException ex)
+		{
+			return -1;
+		}
+	}
+	
 	public ArrayList<String> getUncheckedArgs()
 	{
 		ArrayList<String> uncheckedArgs = new ArrayList<String>();
@@ -0,0 +1,408 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.stream.IntStream;
+
+/// <summary>
+/// BLAKE3 (unkeyed, 32 byte output) as a MessageDigest.  BLAKE3 hashes the
+/// input as a tree of 1KB chunks, so when a large buffer is supplied the
+/// chunks in it are compressed in parallel and then merged into the tree in
+/// order.  The result is the same as hashing the input serially.
+/// </summary>
+public class Blake3Digest extends MessageDigest implements Cloneable
+{
+	public Blake3Digest()
+	{
+		super(hashType);
+		chainingValueStack = new int[maxTreeDepth][];
+		engineReset();
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		chunkState = new ChunkState(iv, 0);
+		chainingValueStackLength = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		while (len > 0)
+		{
+			// A full chunk is only finished once we know more input
+			// follows it, because the last chunk may be the root.
+			if (chunkState.length() == chunkLength)
+			{
+				long totalChunks = chunkState.chunkCounter + 1;
+				addChunkChainingValue(chunkState.output().chainingValue(), totalChunks);
+				chunkState = new ChunkState(iv, totalChunks);
+			}
+
+			if (chunkState.length() == 0 && len > parallelThreshold)
+			{
+				int chunkCount = (len - 1) / chunkLength;
+				updateParallel(input, offset, chunkCount);
+				offset += chunkCount * chunkLength;
+				len -= chunkCount * chunkLength;
+				continue;
+			}
+
+			int take = Math.min(chunkLength - chunkState.length(), len);
+			chunkState.update(input, offset, take);
+			offset += take;
+			len -= take;
+		}
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		if (input.hasArray())
+		{
+			super.engineUpdate(input);
+			return;
+		}
+
+		// The default copies direct buffers in pieces too small to be
+		// worth hashing in parallel.
+		if (transferBuffer == null)
+		{
+			transferBuffer = new byte[transferBufferSize];
+		}
+
+		while (input.hasRemaining())
+		{
+			int take = Math.min(input.remaining(), transferBuffer.length);
+			input.get(transferBuffer, 0, take);
+			engineUpdate(transferBuffer, 0, take);
+		}
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return outputLength;
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		Output output = chunkState.output();
+
+		for (int i = chainingValueStackLength - 1; i >= 0; i--)
+		{
+			output = parentOutput(chainingValueStack[i], output.chainingValue());
+		}
+
+		int[] words = output.compress(root);
+
+		byte[] digest = new byte[outputLength];
+		for (int i = 0; i < outputLength / 4; i++)
+		{
+			digest[4 * i] = (byte) words[i];
+			digest[4 * i + 1] = (byte) (words[i] >>> 8);
+			digest[4 * i + 2] = (byte) (words[i] >>> 16);
+			digest[4 * i + 3] = (byte) (words[i] >>> 24);
+		}
+
+		engineReset();
+		return digest;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		Blake3Digest copy = (Blake3Digest) super.clone();
+		copy.chunkState = chunkState.copy();
+		copy.chainingValueStack = chainingValueStack.clone();
+		copy.transferBuffer = null;
+		return copy;
+	}
+
+	private void updateParallel(
+		final byte[] input,
+		final int offset,
+		int chunkCount)
+	{
+		final long firstChunk = chunkState.chunkCounter;
+		final int[][] chainingValues = new int[chunkCount][];
+
+		IntStream.range(0, chunkCount).parallel().forEach(i ->
+		{
+			ChunkState state = new ChunkState(iv, firstChunk + i);
+			state.update(input, offset + i * chunkLength, chunkLength);
+			chainingValues[i] = state.output().chainingValue();
+		});
+
+		for (int i = 0; i < chunkCount; i++)
+		{
+			addChunkChainingValue(chainingValues[i], firstChunk + i + 1);
+		}
+
+		chunkState = new ChunkState(iv, firstChunk + chunkCount);
+	}
+
+	private void addChunkChainingValue(int[] chainingValue, long totalChunks)
+	{
+		// Merge completed subtrees, one for each trailing zero bit in the
+		// number of chunks so far.
+		while ((totalChunks & 1) == 0)
+		{
+			chainingValueStackLength--;
+			chainingValue = parentOutput(
+				chainingValueStack[chainingValueStackLength],
+				chainingValue).chainingValue();
+			totalChunks >>= 1;
+		}
+
+		chainingValueStack[chainingValueStackLength] = chainingValue;
+		chainingValueStackLength++;
+	}
+
+	private static Output parentOutput(int[] left, int[] right)
+	{
+		int[] blockWords = new int[16];
+		System.arraycopy(left, 0, blockWords, 0, 8);
+		System.arraycopy(right, 0, blockWords, 8, 8);
+
+		return new Output(iv, blockWords, 0, blockLength, parent);
+	}
+
+	private static int[] compress(
+		int[] chainingValue,
+		int[] blockWords,
+		long counter,
+		int blockLen,
+		int flags)
+	{
+		int[] state = new int[]
+		{
+			chainingValue[0], chainingValue[1], chainingValue[2], chainingValue[3],
+			chainingValue[4], chainingValue[5], chainingValue[6], chainingValue[7],
+			iv[0], iv[1], iv[2], iv[3],
+			(int) counter, (int) (counter >>> 32), blockLen, flags
+		};
+
+		for (int round = 0; round < 7; round++)
+		{
+			int[] schedule = messageSchedule[round];
+			
+			g(state, 0, 4, 8, 12, blockWords[schedule[0]], blockWords[schedule[1]]);
+			g(state, 1, 5, 9, 13, blockWords[schedule[2]], blockWords[schedule[3]]);
+			g(state, 2, 6, 10, 14, blockWords[schedule[4]], blockWords[schedule[5]]);
+			g(state, 3, 7, 11, 15, blockWords[schedule[6]], blockWords[schedule[7]]);
+			g(state, 0, 5, 10, 15, blockWords[schedule[8]], blockWords[schedule[9]]);
+			g(state, 1, 6, 11, 12, blockWords[schedule[10]], blockWords[schedule[11]]);
+			g(state, 2, 7, 8, 13, blockWords[schedule[12]], blockWords[schedule[13]]);
+			g(state, 3, 4, 9, 14, blockWords[schedule[14]], blockWords[schedule[15]]);
+		}
+
+		for (int i = 0; i < 8; i++)
+		{
+			state[i] ^= state[i + 8];
+			state[i + 8] ^= chainingValue[i];
+		}
+
+		return state;
+	}
+
+	private static void g(int[] state, int a, int b, int c, int d, int mx, int my)
+	{
+		state[a] = state[a] + state[b] + mx;
+		state[d] = Integer.rotateRight(state[d] ^ state[a], 16);
+		state[c] = state[c] + state[d];
+		state[b] = Integer.rotateRight(state[b] ^ state[c], 12);
+		state[a] = state[a] + state[b] + my;
+		state[d] = Integer.rotateRight(state[d] ^ state[a], 8);
+		state[c] = state[c] + state[d];
+		state[b] = Integer.rotateRight(state[b] ^ state[c], 7);
+	}
+
+	private static void wordsFromBytes(byte[] bytes, int[] words)
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			words[i] = (bytes[4 * i] & 0xFF) |
+				((bytes[4 * i + 1] & 0xFF) << 8) |
+				((bytes[4 * i + 2] & 0xFF) << 16) |
+				((bytes[4 * i + 3] & 0xFF) << 24);
+		}
+	}
+
+	/// <summary>
+	/// Inputs to a compression whose result is not yet known to be a
+	/// chaining value or the root.
+	/// </summary>
+	private static class Output
+	{
+		Output(int[] chainingValue, int[] blockWords, long counter, int blockLen, int flags)
+		{
+			this.chainingValue = chainingValue;
+			this.blockWords = blockWords;
+			this.counter = counter;
+			this.blockLen = blockLen;
+			this.flags = flags;
+		}
+
+		int[] chainingValue()
+		{
+			int[] words = compress(0);
+			int[] result = new int[8];
+			System.arraycopy(words, 0, result, 0, 8);
+			return result;
+		}
+
+		int[] compress(int extraFlags)
+		{
+			return Blake3Digest.compress(
+				chainingValue, blockWords, counter, blockLen, flags | extraFlags);
+		}
+
+		int[] chainingValue;
+		int[] blockWords;
+		long counter;
+		int blockLen;
+		int flags;
+	}
+
+	/// <summary>
+	/// State for the chunk currently being hashed
+	/// </summary>
+	private static class ChunkState
+	{
+		ChunkState(int[] key, long chunkCounter)
+		{
+			this.chainingValue = key.clone();
+			this.chunkCounter = chunkCounter;
+			this.block = new byte[blockLength];
+			this.blockLen = 0;
+			this.blocksCompressed = 0;
+			this.blockWords = new int[16];
+		}
+
+		ChunkState copy()
+		{
+			ChunkState copy = new ChunkState(chainingValue, chunkCounter);
+			copy.block = block.clone();
+			copy.blockLen = blockLen;
+			copy.blocksCompressed = blocksCompressed;
+			return copy;
+		}
+
+		int length()
+		{
+			return blockLength * blocksCompressed + blockLen;
+		}
+
+		int startFlag()
+		{
+			return blocksCompressed == 0 ? chunkStart : 0;
+		}
+
+		void update(byte[] input, int offset, int len)
+		{
+			while (len > 0)
+			{
+				if (blockLen == blockLength)
+				{
+					wordsFromBytes(block, blockWords);
+					int[] words = compress(
+						chainingValue, blockWords, chunkCounter, blockLength, startFlag());
+					System.arraycopy(words, 0, chainingValue, 0, 8);
+					blocksCompressed++;
+					blockLen = 0;
+				}
+
+				int take = Math.min(blockLength - blockLen, len);
+				System.arraycopy(input, offset, block, blockLen, take);
+				blockLen += take;
+				offset += take;
+				len -= take;
+			}
+		}
+
+		Output output()
+		{
+			// Zero out the unused part of the last block
+			byte[] lastBlock = new byte[blockLength];
+			System.arraycopy(block, 0, lastBlock, 0, blockLen);
+
+			int[] blockWords = new int[16];
+			wordsFromBytes(lastBlock, blockWords);
+
+			return new Output(
+				chainingValue.clone(),
+				blockWords,
+				chunkCounter,
+				blockLen,
+				startFlag() | chunkEnd);
+		}
+
+		int[] chainingValue;
+		long chunkCounter;
+		byte[] block;
+		int blockLen;
+		int blocksCompressed;
+		int[] blockWords;
+	}
+
+	private ChunkState chunkState;
+	private int[][] chainingValueStack;
+	private int chainingValueStackLength;
+	private byte[] transferBuffer;
+
+	private static final int[] iv = new int[]
+	{
+		0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A,
+		0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+	};
+
+	private static final int[] messagePermutation = new int[]
+	{
+		2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8
+	};
+
+	// The message permutation applied before each round, worked out in
+	// advance so compress() doesn't have to shuffle the block.
+	private static final int[][] messageSchedule = new int[7][16];
+	static
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			messageSchedule[0][i] = i;
+		}
+		
+		for (int round = 1; round < 7; round++)
+		{
+			for (int i = 0; i < 16; i++)
+			{
+				messageSchedule[round][i] =
+					messageSchedule[round - 1][messagePermutation[i]];
+			}
+		}
+	}
+
+	private static final int chunkStart = 1;
+	private static final int chunkEnd = 2;
+	private static final int parent = 4;
+	private static final int root = 8;
+
+	private static final int blockLength = 64;
+	private static final int chunkLength = 1024;
+	private static final int outputLength = 32;
+	private static final int maxTreeDepth = 54;
+
+	// Below this, handing chunks to other threads costs more than it saves
+	private static final int parallelThreshold = 64 * chunkLength;
+	private static final int transferBufferSize = 1024 * chunkLength;
+
+	public static final String hashType = "BLAKE3";
+}
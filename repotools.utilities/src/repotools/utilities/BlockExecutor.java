@@ -0,0 +1,13 @@
+package repotools.utilities;
+
+import java.io.File;
+
+/// <summary>
+/// Runs work which reads part of a file on another thread.  The work may
+/// be held back until the device the file is on has a read stream free, so
+/// it must not be waited for by work which already holds one.
+/// </summary>
+public interface BlockExecutor
+{
+	void execute(Runnable work, File file);
+}
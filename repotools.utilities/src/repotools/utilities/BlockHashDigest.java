@@ -0,0 +1,147 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+/// <summary>
+/// A digest which hashes its input in fixed-size blocks.  The digest it
+/// returns is the Merkle root of the block hashes, and the individual block
+/// hashes are available afterwards from getBlockHashes().  Because it is a
+/// MessageDigest, it can share a read of the file with the whole-file hash.
+/// </summary>
+public class BlockHashDigest extends MessageDigest
+{
+	public BlockHashDigest(
+		String hashType,
+		long blockSize) throws Exception
+	{
+		super("Blocks-" + hashType);
+		
+		this.hashType = hashType;
+		this.blockSize = blockSize;
+		
+		blockDigest = CryptUtilities.getHashAlgorithm(hashType);
+		blockHashes = new ArrayList<byte[]>();
+		lastBlockHashes = null;
+		lastRootHash = null;
+		blockFill = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		while (len > 0)
+		{
+			int take = (int) Math.min(len, blockSize - blockFill);
+			
+			blockDigest.update(input, offset, take);
+			offset += take;
+			len -= take;
+			
+			addToBlock(take);
+		}
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		while (input.hasRemaining())
+		{
+			int take = (int) Math.min(input.remaining(), blockSize - blockFill);
+			
+			int limit = input.limit();
+			input.limit(input.position() + take);
+			blockDigest.update(input);
+			input.limit(limit);
+			
+			addToBlock(take);
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		if (blockFill > 0 || blockHashes.isEmpty())
+		{
+			blockHashes.add(blockDigest.digest());
+		}
+		
+		byte[] root;
+		try
+		{
+			root = CryptUtilities.computeMerkleRoot(blockHashes, hashType);
+		}
+		catch (Exception ex)
+		{
+			// Can't happen because the block digest was already created
+			throw new RuntimeException(ex);
+		}
+		
+		lastBlockHashes = blockHashes;
+		lastRootHash = root;
+		blockHashes = new ArrayList<byte[]>();
+		blockFill = 0;
+		
+		return root;
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		blockDigest.reset();
+		blockHashes.clear();
+		blockFill = 0;
+	}
+	
+	/// <summary>
+	/// The hashes of each block, as of the last call to digest()
+	/// </summary>
+	public ArrayList<byte[]> getBlockHashes()
+	{
+		return lastBlockHashes;
+	}
+	
+	/// <summary>
+	/// The Merkle root, as of the last call to digest()
+	/// </summary>
+	public byte[] getRootHash()
+	{
+		return lastRootHash;
+	}
+	
+	public String getHashType()
+	{
+		return hashType;
+	}
+	
+	public long getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	private void addToBlock(int count)
+	{
+		blockFill += count;
+		
+		if (blockFill == blockSize)
+		{
+			blockHashes.add(blockDigest.digest());
+			blockFill = 0;
+		}
+	}
+
+	private String hashType;
+	private long blockSize;
+	private MessageDigest blockDigest;
+	private ArrayList<byte[]> blockHashes;
+	private ArrayList<byte[]> lastBlockHashes;
+	private byte[] lastRootHash;
+	private long blockFill;
+}
@@ -0,0 +1,47 @@
+package repotools.utilities;
+
+import java.security.MessageDigest;
+
+/// <summary>
+/// The hash methods which are always available
+/// </summary>
+public class BuiltInHashProvider implements HashProvider
+{
+	@Override
+	public String[] getHashTypes()
+	{
+		return new String[]
+		{
+			"MD5",
+			"SHA256",
+			Crc32cDigest.hashType,
+			Xxh64Digest.hashType,
+			Blake3Digest.hashType
+		};
+	}
+
+	@Override
+	public MessageDigest createDigest(String hashType) throws Exception
+	{
+		switch (hashType)
+		{
+			// Convert from .NET to Java names
+			case "SHA256":
+				return MessageDigest.getInstance("SHA-256");
+			 
+			case "MD5":
+				return MessageDigest.getInstance("MD5");
+				
+			case Crc32cDigest.hashType:
+				return new Crc32cDigest();
+				
+			case Xxh64Digest.hashType:
+				return new Xxh64Digest();
+				
+			case Blake3Digest.hashType:
+				return new Blake3Digest();
+		}
+		
+		throw new Exception("Unrecognized hash method: " + hashType);
+	}
+}
@@ -0,0 +1,213 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/// <summary>
+/// Common part of MD5 and SHA-256, which both process the input in 64 byte
+/// blocks, chaining a state of 32-bit words from one block to the next,
+/// and pad the last block with the length of the input.  Unlike the
+/// built-in implementations, the state can be saved and restored.  They
+/// give the same results, but the built-in ones are faster, so these are
+/// only used where the state is needed.
+/// </summary>
+public abstract class ChainedBlockDigest extends MessageDigest implements Cloneable, ResumableDigest
+{
+	protected ChainedBlockDigest(String algorithm, int stateWords, boolean bigEndian)
+	{
+		super(algorithm);
+		this.bigEndian = bigEndian;
+		state = new int[stateWords];
+		buffer = new byte[blockLength];
+		engineReset();
+	}
+
+	/// <summary>
+	/// Set the initial state
+	/// </summary>
+	protected abstract void initState(int[] state);
+
+	/// <summary>
+	/// Mix a block of input into the state
+	/// </summary>
+	protected abstract void processBlock(byte[] input, int offset);
+
+	@Override
+	protected void engineReset()
+	{
+		initState(state);
+		totalLength = 0;
+		bufferedLength = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		totalLength += len;
+
+		if (bufferedLength > 0)
+		{
+			int take = Math.min(len, blockLength - bufferedLength);
+			System.arraycopy(input, offset, buffer, bufferedLength, take);
+			bufferedLength += take;
+			offset += take;
+			len -= take;
+
+			if (bufferedLength < blockLength)
+			{
+				return;
+			}
+
+			processBlock(buffer, 0);
+			bufferedLength = 0;
+		}
+
+		while (len >= blockLength)
+		{
+			processBlock(input, offset);
+			offset += blockLength;
+			len -= blockLength;
+		}
+
+		if (len > 0)
+		{
+			System.arraycopy(input, offset, buffer, 0, len);
+			bufferedLength = len;
+		}
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return state.length * 4;
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		long bitLength = totalLength * 8;
+
+		// A 1 bit, zeros up to the last 8 bytes of a block, and the length
+		byte[] padding = new byte[
+			(bufferedLength < blockLength - 8 ? blockLength : 2 * blockLength) -
+			bufferedLength];
+
+		padding[0] = (byte) 0x80;
+
+		for (int i = 0; i < 8; i++)
+		{
+			int shift = bigEndian ? 56 - 8 * i : 8 * i;
+			padding[padding.length - 8 + i] = (byte) (bitLength >>> shift);
+		}
+
+		engineUpdate(padding, 0, padding.length);
+
+		byte[] digest = new byte[state.length * 4];
+		for (int i = 0; i < state.length; i++)
+		{
+			for (int j = 0; j < 4; j++)
+			{
+				int shift = bigEndian ? 24 - 8 * j : 8 * j;
+				digest[4 * i + j] = (byte) (state[i] >>> shift);
+			}
+		}
+
+		engineReset();
+
+		return digest;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		ChainedBlockDigest copy = (ChainedBlockDigest) super.clone();
+		copy.state = state.clone();
+		copy.buffer = buffer.clone();
+		return copy;
+	}
+
+	public byte[] saveState()
+	{
+		ByteBuffer stateData = ByteBuffer.allocate(getStateLength());
+
+		for (int nextWord : state)
+		{
+			stateData.putInt(nextWord);
+		}
+
+		stateData.putLong(totalLength);
+		stateData.putInt(bufferedLength);
+		stateData.put(buffer);
+		return stateData.array();
+	}
+
+	public void restoreState(byte[] stateData)
+	{
+		if (stateData.length != getStateLength())
+		{
+			throw new IllegalArgumentException("Not a saved " + getAlgorithm() + " state");
+		}
+
+		ByteBuffer saved = ByteBuffer.wrap(stateData);
+
+		for (int i = 0; i < state.length; i++)
+		{
+			state[i] = saved.getInt();
+		}
+
+		totalLength = saved.getLong();
+		bufferedLength = saved.getInt();
+		saved.get(buffer);
+
+		if (bufferedLength < 0 ||
+			bufferedLength >= blockLength ||
+			totalLength % blockLength != bufferedLength)
+		{
+			engineReset();
+			throw new IllegalArgumentException("Not a saved " + getAlgorithm() + " state");
+		}
+	}
+
+	/// <summary>
+	/// How many bytes of input have been processed
+	/// </summary>
+	public long getTotalLength()
+	{
+		return totalLength;
+	}
+
+	protected int getStateLength()
+	{
+		return state.length * 4 + 8 + 4 + blockLength;
+	}
+
+	protected static int readIntBigEndian(byte[] data, int offset)
+	{
+		return ((data[offset] & 0xFF) << 24) |
+			((data[offset + 1] & 0xFF) << 16) |
+			((data[offset + 2] & 0xFF) << 8) |
+			(data[offset + 3] & 0xFF);
+	}
+
+	protected static int readIntLittleEndian(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFF) |
+			((data[offset + 1] & 0xFF) << 8) |
+			((data[offset + 2] & 0xFF) << 16) |
+			((data[offset + 3] & 0xFF) << 24);
+	}
+
+	protected int[] state;
+	private boolean bigEndian;
+	private long totalLength;
+	private byte[] buffer;
+	private int bufferedLength;
+
+	protected static final int blockLength = 64;
+}
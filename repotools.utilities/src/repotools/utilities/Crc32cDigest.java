@@ -0,0 +1,69 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32C;
+
+/// <summary>
+/// CRC-32C as a MessageDigest.  The JDK implementation uses the SSE4.2 or
+/// ARMv8 CRC instructions where they are available, so this runs at close
+/// to memory bandwidth.  It detects corruption but is not cryptographic.
+/// </summary>
+public class Crc32cDigest extends MessageDigest
+{
+	public Crc32cDigest()
+	{
+		super(hashType);
+		crc = new CRC32C();
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		crc.update(input);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		crc.update(input, offset, len);
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		// CRC32C reads direct buffers without copying them
+		crc.update(input);
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return 4;
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		int value = (int) crc.getValue();
+		crc.reset();
+		
+		return new byte[]
+		{
+			(byte) (value >>> 24),
+			(byte) (value >>> 16),
+			(byte) (value >>> 8),
+			(byte) value
+		};
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		crc.reset();
+	}
+
+	private CRC32C crc;
+	
+	public static final String hashType = "CRC32C";
+}
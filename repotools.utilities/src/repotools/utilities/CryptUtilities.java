@@ -2,8 +2,18 @@ package repotools.utilities;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class CryptUtilities
@@ -13,8 +23,409 @@ public class CryptUtilities
 		String hashType) throws Exception
 	{
 		return computeHash(
-			new FileInputStream(file),
-			hashType);
+			file,
+			hashType,
+			defaultReadOptions);
+	}
+
+	static public byte[] computeHash(
+		File file,
+		String hashType,
+		HashReadOptions options) throws Exception
+	{
+		return computeHashes(
+			file,
+			new String[] { hashType },
+			options)[0];
+	}
+
+	/// <summary>
+	/// Compute several kinds of hash from a single read of the file
+	/// </summary>
+	/// <returns>
+	/// The hashes, in the same order as the hash types
+	/// </returns>
+	static public byte[][] computeHashes(
+		File file,
+		String[] hashTypes,
+		HashReadOptions options) throws Exception
+	{
+		MessageDigest[] digests = new MessageDigest[hashTypes.length];
+		
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			digests[i] = getHashAlgorithm(hashTypes[i]);
+		}
+		
+		readFile(file, digests, options);
+		
+		byte[][] hashes = new byte[hashTypes.length][];
+		
+		for (int i = 0; i < digests.length; i++)
+		{
+			hashes[i] = digests[i].digest();
+		}
+		
+		return hashes;
+	}
+	
+	/// <summary>
+	/// Read the whole file once, feeding every byte to each of the digests
+	/// </summary>
+	static public void readFile(
+		File file,
+		MessageDigest[] digests,
+		HashReadOptions options) throws Exception
+	{
+		readFile(file, digests, options, null);
+	}
+	
+	/// <param name="buffers">
+	/// Buffers to read into, or null to allocate new ones
+	/// </param>
+	static public void readFile(
+		File file,
+		MessageDigest[] digests,
+		HashReadOptions options,
+		ReadBuffers buffers) throws Exception
+	{
+		IoThrottle throttle = options.getThrottle();
+		
+		if (throttle != null)
+		{
+			throttle.acquireFile();
+		}
+		
+		if (options.isDirect())
+		{
+			readDirect(
+				file,
+				digests,
+				options.getBufferSize(),
+				throttle,
+				buffers,
+				options.isDropBehind());
+			return;
+		}
+		
+		switch (options.resolveStrategy(file.length()))
+		{
+			case MAPPED:
+				readMapped(file, digests, options.getBufferSize(), throttle);
+				break;
+				
+			case PIPELINED:
+				if (options.getPipeline() != null)
+				{
+					options.getPipeline().readFile(file, digests, throttle);
+					break;
+				}
+				
+				// Without reader threads this is just a channel read
+				readChannel(file, digests, options.getBufferSize(), throttle, buffers);
+				break;
+				
+			case CHANNEL:
+				readChannel(file, digests, options.getBufferSize(), throttle, buffers);
+				break;
+				
+			default:
+				readStream(
+					new FileInputStream(file),
+					digests,
+					getStreamBuffer(buffers),
+					throttle);
+				break;
+		}
+	}
+	
+	/// <summary>
+	/// Read the file from the given position to the end, feeding every byte
+	/// to each of the digests, and notifying the listener each time roughly
+	/// another interval of bytes has been consumed.  The digests must
+	/// already have consumed everything before the starting position.
+	/// </summary>
+	static public void readFileFrom(
+		File file,
+		MessageDigest[] digests,
+		HashReadOptions options,
+		long position,
+		ReadCheckpointListener listener,
+		long checkpointInterval) throws Exception
+	{
+		readFileFrom(
+			file,
+			digests,
+			options,
+			position,
+			listener,
+			checkpointInterval,
+			null);
+	}
+	
+	static public void readFileFrom(
+		File file,
+		MessageDigest[] digests,
+		HashReadOptions options,
+		long position,
+		ReadCheckpointListener listener,
+		long checkpointInterval,
+		ReadBuffers buffers) throws Exception
+	{
+		IoThrottle throttle = options.getThrottle();
+		
+		if (throttle != null)
+		{
+			throttle.acquireFile();
+		}
+		
+		ByteBuffer buffer = getChannelBuffer(buffers, options.getBufferSize());
+		
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			long nextCheckpoint = position + checkpointInterval;
+			int numRead;
+			
+			while ((numRead = channel.read(buffer, position)) != -1)
+			{
+				buffer.flip();
+				updateDigests(digests, buffer);
+				buffer.clear();
+				position += numRead;
+				
+				if (throttle != null)
+				{
+					throttle.acquireBytes(numRead);
+				}
+				
+				if (position >= nextCheckpoint)
+				{
+					listener.checkpoint(position);
+					nextCheckpoint = position + checkpointInterval;
+					
+					if (options.isDropBehind())
+					{
+						DropBehind.dropFile(file);
+					}
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		if (options.isDropBehind())
+		{
+			DropBehind.dropFile(file);
+		}
+	}
+	
+	/// <summary>
+	/// Hash just the first and last sampleSize bytes of the file, or the
+	/// whole file if it is no larger than the two samples.  Files with the
+	/// same contents always have the same partial hash, so this can rule
+	/// out a match much faster than a full hash for large files.
+	/// </summary>
+	static public byte[] computePartialHash(
+		File file,
+		String hashType,
+		long sampleSize) throws Exception
+	{
+		MessageDigest digest = getHashAlgorithm(hashType);
+		readPartial(file, digest, sampleSize, null);
+		return digest.digest();
+	}
+	
+	static public void readPartial(
+		File file,
+		MessageDigest digest,
+		long sampleSize,
+		ReadBuffers buffers) throws Exception
+	{
+		readPartial(file, digest, sampleSize, -1, buffers);
+	}
+	
+	/// <param name="size">
+	/// Treat the file as if it were this long, or -1 for its actual length
+	/// </param>
+	static public void readPartial(
+		File file,
+		MessageDigest digest,
+		long sampleSize,
+		long size,
+		ReadBuffers buffers) throws Exception
+	{
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			if (size < 0)
+			{
+				size = channel.size();
+			}
+			
+			if (size <= 2 * sampleSize)
+			{
+				readRange(channel, digest, 0, size, buffers);
+			}
+			else
+			{
+				readRange(channel, digest, 0, sampleSize, buffers);
+				readRange(channel, digest, size - sampleSize, sampleSize, buffers);
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	static protected void readRange(
+		FileChannel channel,
+		MessageDigest digest,
+		long position,
+		long length,
+		ReadBuffers buffers) throws Exception
+	{
+		ByteBuffer buffer = getChannelBuffer(
+			buffers,
+			(int) Math.min(length, HashReadOptions.defaultBufferSize));
+		
+		long end = position + length;
+		while (position < end)
+		{
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			
+			int numRead = channel.read(buffer, position);
+			if (numRead == -1)
+			{
+				break;
+			}
+			
+			buffer.flip();
+			digest.update(buffer);
+			position += numRead;
+		}
+	}
+	
+	/// <summary>
+	/// Read just the part of the file from position up to end, feeding
+	/// every byte to each of the digests
+	/// </summary>
+	static public void readFileRange(
+		File file,
+		MessageDigest[] digests,
+		HashReadOptions options,
+		long position,
+		long end,
+		ReadBuffers buffers) throws Exception
+	{
+		IoThrottle throttle = options.getThrottle();
+		
+		if (throttle != null)
+		{
+			throttle.acquireFile();
+		}
+		
+		ByteBuffer buffer = getChannelBuffer(buffers, options.getBufferSize());
+		
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			while (position < end)
+			{
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				
+				int numRead = channel.read(buffer, position);
+				if (numRead == -1)
+				{
+					throw new IOException("File is shorter than expected: " + file.getPath());
+				}
+				
+				buffer.flip();
+				updateDigests(digests, buffer);
+				position += numRead;
+				
+				if (throttle != null)
+				{
+					throttle.acquireBytes(numRead);
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		if (options.isDropBehind())
+		{
+			DropBehind.dropFile(file);
+		}
+	}
+	
+	/// <summary>
+	/// Read the whole of a small file into the buffer, which must have room
+	/// for at least its expected length
+	/// </summary>
+	/// <returns>
+	/// The number of bytes read, or -1 if the file turned out to be longer
+	/// than expected
+	/// </returns>
+	static public int readWhole(
+		File file,
+		byte[] buffer,
+		int length,
+		IoThrottle throttle) throws Exception
+	{
+		if (throttle != null)
+		{
+			throttle.acquireFile();
+		}
+		
+		InputStream stream = new FileInputStream(file);
+		
+		try
+		{
+			int position = 0;
+			while (position < length)
+			{
+				int numRead = stream.read(buffer, position, length - position);
+				if (numRead == -1)
+				{
+					break;
+				}
+				
+				position += numRead;
+			}
+			
+			if (position == length && stream.read() != -1)
+			{
+				return -1;
+			}
+			
+			if (throttle != null)
+			{
+				throttle.acquireBytes(position);
+			}
+			
+			return position;
+		}
+		finally
+		{
+			stream.close();
+		}
 	}
 	
 	static public byte[] computeHash(
@@ -22,50 +433,786 @@ public class CryptUtilities
 		String hashType) throws Exception
 	{
 		MessageDigest digest = getHashAlgorithm(hashType);
-	
-		byte[] buffer = new byte[1024];
+		readStream(stream, new MessageDigest[] { digest }, new byte[streamBufferSize], null);
+		return digest.digest();
+	}
+
+	static protected void readStream(
+		InputStream stream,
+		MessageDigest[] digests,
+		byte[] buffer,
+		IoThrottle throttle) throws Exception
+	{
 		int numRead;
 	
-		do
+		try
 		{
-			numRead = stream.read(buffer);
+			do
+			{
+				numRead = stream.read(buffer);
+				
+				if (numRead > 0)
+				{
+					for (MessageDigest digest : digests)
+					{
+						digest.update(buffer, 0, numRead);
+					}
+					
+					if (throttle != null)
+					{
+						throttle.acquireBytes(numRead);
+					}
+				}
+				
+			} while (numRead != -1);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	static protected void readChannel(
+		File file,
+		MessageDigest[] digests,
+		int bufferSize,
+		IoThrottle throttle,
+		ReadBuffers buffers) throws Exception
+	{
+		// A direct buffer lets the channel read without an extra copy
+		// through a temporary heap array.
+		ByteBuffer buffer = getChannelBuffer(buffers, bufferSize);
+		
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				int numRead = buffer.remaining();
+				updateDigests(digests, buffer);
+				buffer.clear();
+				
+				if (throttle != null)
+				{
+					throttle.acquireBytes(numRead);
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	static protected void readMapped(
+		File file,
+		MessageDigest[] digests,
+		int bufferSize,
+		IoThrottle throttle) throws Exception
+	{
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			long size = channel.size();
+			long position = 0;
 			
-			if (numRead > 0)
+			// A single mapping can't exceed 2GB, so map the file in windows
+			while (position < size)
 			{
-				digest.update(buffer, 0, numRead);
+				long windowSize = Math.min(mapWindowSize, size - position);
+				
+				MappedByteBuffer window = channel.map(
+					FileChannel.MapMode.READ_ONLY,
+					position,
+					windowSize);
+				
+				if (throttle == null)
+				{
+					updateDigests(digests, window);
+				}
+				else
+				{
+					// Pages are only read as they are touched, so pace the
+					// window a buffer at a time.
+					while (window.hasRemaining())
+					{
+						int sliceSize = Math.min(bufferSize, window.remaining());
+						ByteBuffer slice = window.slice();
+						slice.limit(sliceSize);
+						updateDigests(digests, slice);
+						window.position(window.position() + sliceSize);
+						throttle.acquireBytes(sliceSize);
+					}
+				}
+				
+				position += windowSize;
 			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	/// <summary>
+	/// Read the file without going through the page cache, so that a scrub
+	/// neither pushes other data out of the cache nor is satisfied from it.
+	/// Where the file system doesn't support direct I/O, the file is read
+	/// normally, and dropped from the cache as the read goes on if asked.
+	/// </summary>
+	static protected void readDirect(
+		File file,
+		MessageDigest[] digests,
+		int bufferSize,
+		IoThrottle throttle,
+		ReadBuffers buffers,
+		boolean dropBehind) throws Exception
+	{
+		int alignment = getDirectAlignment(file);
+		FileChannel channel = openDirect(file);
+		
+		if (channel == null)
+		{
+			readBuffered(file, digests, bufferSize, throttle, buffers, dropBehind);
+			return;
+		}
+		
+		// Direct reads must be to an aligned buffer, of a multiple of the
+		// block size, at an aligned position.
+		ByteBuffer buffer;
+		if (buffers == null)
+		{
+			buffer = allocateAligned(bufferSize, alignment);
+		}
+		else
+		{
+			buffer = buffers.getAlignedBuffer(bufferSize, alignment);
+		}
+		
+		try
+		{
+			long size = channel.size();
+			long position = 0;
 			
-		} while (numRead != -1);
+			while (position < size)
+			{
+				// After a short read the position is no longer aligned, so
+				// read again from the aligned position before it, and skip
+				// what was already hashed.
+				long readPosition = position / alignment * alignment;
+				int skip = (int) (position - readPosition);
+				
+				buffer.clear();
+				
+				int numRead;
+				try
+				{
+					numRead = channel.read(buffer, readPosition);
+				}
+				catch (IOException ex)
+				{
+					if (position > 0)
+					{
+						throw ex;
+					}
+					
+					// Some file systems accept the open but not the read
+					channel.close();
+					readBuffered(file, digests, bufferSize, throttle, buffers, dropBehind);
+					return;
+				}
+				
+				if (numRead <= skip)
+				{
+					break;
+				}
+				
+				buffer.flip();
+				buffer.position(skip);
+				updateDigests(digests, buffer);
+				position = readPosition + numRead;
+				
+				if (throttle != null)
+				{
+					throttle.acquireBytes(numRead - skip);
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
 	
-		stream.close();
+	/// <summary>
+	/// Read the file through the page cache, optionally dropping it from
+	/// the cache as the read goes on
+	/// </summary>
+	static protected void readBuffered(
+		File file,
+		MessageDigest[] digests,
+		int bufferSize,
+		IoThrottle throttle,
+		ReadBuffers buffers,
+		boolean dropBehind) throws Exception
+	{
+		ByteBuffer buffer = getChannelBuffer(buffers, bufferSize);
+		
+		FileChannel channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			long sinceDrop = 0;
+			int numRead;
+			
+			while ((numRead = channel.read(buffer)) != -1)
+			{
+				buffer.flip();
+				updateDigests(digests, buffer);
+				buffer.clear();
+				sinceDrop += numRead;
+				
+				if (throttle != null)
+				{
+					throttle.acquireBytes(numRead);
+				}
+				
+				if (dropBehind && sinceDrop >= dropBehindInterval)
+				{
+					DropBehind.dropFile(file);
+					sinceDrop = 0;
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		// Running a helper for every small file would cost more than the
+		// little cache it takes up.
+		if (dropBehind && file.length() >= dropBehindThreshold)
+		{
+			DropBehind.dropFile(file);
+		}
+	}
+	
+	/// <summary>
+	/// Open a file for direct I/O.  The option for it is specific to the
+	/// JDK, so it is looked up by name rather than linked to.
+	/// </summary>
+	/// <returns>
+	/// The channel, or null if direct I/O isn't supported
+	/// </returns>
+	static protected FileChannel openDirect(File file)
+	{
+		OpenOption directOption = getDirectOpenOption();
+		if (directOption == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			return FileChannel.open(
+				file.toPath(),
+				new OpenOption[]
+				{
+					StandardOpenOption.READ,
+					directOption
+				});
+		}
+		catch (Exception ex)
+		{
+			return null;
+		}
+	}
+	
+	/// <summary>
+	/// Whether the file can be read around the page cache, rather than
+	/// through it as a fallback
+	/// </summary>
+	static public boolean isDirectSupported(File file)
+	{
+		FileChannel channel = openDirect(file);
+		if (channel == null)
+		{
+			return false;
+		}
+		
+		try
+		{
+			ByteBuffer buffer = allocateAligned(
+				getDirectAlignment(file),
+				getDirectAlignment(file));
+			
+			// Some file systems accept the open but not the read
+			channel.read(buffer, 0);
+			return true;
+		}
+		catch (IOException ex)
+		{
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException ex)
+			{
+				// Only read from
+			}
+		}
+	}
+	
+	/// <returns>
+	/// com.sun.nio.file.ExtendedOpenOption.DIRECT, or null if this JDK
+	/// doesn't have it
+	/// </returns>
+	static protected synchronized OpenOption getDirectOpenOption()
+	{
+		if (directOptionChecked == false)
+		{
+			directOptionChecked = true;
+			
+			try
+			{
+				Class<?> optionClass = Class.forName(extendedOpenOptionClassName);
+				
+				for (Object nextOption : optionClass.getEnumConstants())
+				{
+					if (((Enum<?>) nextOption).name().equals("DIRECT"))
+					{
+						directOption = (OpenOption) nextOption;
+					}
+				}
+			}
+			catch (Exception ex)
+			{
+				// Not available
+			}
+		}
+		
+		return directOption;
+	}
+	
+	static protected int getDirectAlignment(File file)
+	{
+		try
+		{
+			return (int) Files.getFileStore(file.toPath()).getBlockSize();
+		}
+		catch (Exception ex)
+		{
+			return defaultDirectAlignment;
+		}
+	}
+	
+	/// <summary>
+	/// Allocate a direct buffer whose address and capacity are multiples of
+	/// the alignment, and which holds at least the given size.
+	/// </summary>
+	static protected ByteBuffer allocateAligned(int size, int alignment)
+	{
+		int alignedSize = (size + alignment - 1) / alignment * alignment;
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(alignedSize + alignment)
+			.alignedSlice(alignment);
+		
+		buffer.limit(alignedSize);
+		return buffer.slice();
+	}
+	
+	static protected byte[] getStreamBuffer(ReadBuffers buffers)
+	{
+		if (buffers == null)
+		{
+			return new byte[streamBufferSize];
+		}
+		
+		return buffers.getStreamBuffer(streamBufferSize);
+	}
+	
+	static protected ByteBuffer getChannelBuffer(ReadBuffers buffers, int size)
+	{
+		if (buffers == null)
+		{
+			return ByteBuffer.allocateDirect(size);
+		}
+		
+		return buffers.getChannelBuffer(size);
+	}
+	
+	/// <summary>
+	/// Feed the remaining bytes of the buffer to each digest.  The buffer
+	/// is left with no bytes remaining.
+	/// </summary>
+	static public void updateDigests(
+		MessageDigest[] digests,
+		ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		
+		for (MessageDigest digest : digests)
+		{
+			buffer.position(start);
+			digest.update(buffer);
+		}
+	}
+
+	/// <summary>
+	/// Hash each block of the file separately.  The blocks are read and
+	/// hashed in parallel by the threads of the block executor in the
+	/// options, if there is one, so this is much faster than a sequential
+	/// read for a large file on storage which can serve several reads at
+	/// once.
+	/// </summary>
+	/// <returns>
+	/// The hash of each block, in order.  An empty file has a single empty
+	/// block.
+	/// </returns>
+	static public byte[][] computeBlockHashes(
+		File file,
+		String hashType,
+		long blockSize) throws Exception
+	{
+		return computeBlockHashes(file, hashType, blockSize, defaultReadOptions);
+	}
+
+	static public byte[][] computeBlockHashes(
+		final File file,
+		final String hashType,
+		final long blockSize,
+		HashReadOptions options) throws Exception
+	{
+		// Fail early for an unrecognized hash method
+		getHashAlgorithm(hashType);
+		
+		final IoThrottle throttle = options.getThrottle();
+		if (throttle != null)
+		{
+			throttle.acquireFile();
+		}
+		
+		// Blocks can be read directly if they start at aligned positions
+		FileChannel directChannel = null;
+		final int alignment = getDirectAlignment(file);
+		if (options.isDirect() && blockSize % alignment == 0)
+		{
+			directChannel = openDirect(file);
+		}
+		
+		final boolean direct = directChannel != null;
+		final boolean dropBehind = options.isDropBehind() && direct == false;
+		final FileChannel channel = direct ? directChannel : FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.READ);
+		
+		try
+		{
+			long size = channel.size();
+			final int blockCount = (int) Math.max(1, (size + blockSize - 1) / blockSize);
+			final byte[][] blockHashes = new byte[blockCount][];
+			final AtomicInteger nextBlock = new AtomicInteger(0);
+			final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+			
+			// Each reader takes the next block until there are none left
+			final Runnable reader = new Runnable()
+			{
+				public void run()
+				{
+					int i;
+					while (failure.get() == null &&
+						(i = nextBlock.getAndIncrement()) < blockCount)
+					{
+						try
+						{
+							blockHashes[i] = computeBlockHash(
+								channel, hashType, i * blockSize, blockSize, throttle,
+								direct ? alignment : 0);
+						}
+						catch (Exception ex)
+						{
+							failure.compareAndSet(null, ex);
+						}
+					}
+				}
+			};
+			
+			// Threads of the pool which are free help out, but this thread
+			// reads the blocks itself rather than waiting for them, as they
+			// may be queued behind its own work, or waiting for a stream on
+			// the device which this thread holds.
+			final BlockHelpers helpers = new BlockHelpers();
+			BlockExecutor executor = options.getBlockExecutor();
+			if (executor != null)
+			{
+				int helperCount = Math.min(blockCount, options.getBlockThreads()) - 1;
+				for (int i = 0; i < helperCount; i++)
+				{
+					executor.execute(
+						new Runnable()
+						{
+							public void run()
+							{
+								if (helpers.start())
+								{
+									try
+									{
+										reader.run();
+									}
+									finally
+									{
+										helpers.stop();
+									}
+								}
+							}
+						},
+						file);
+				}
+			}
+			
+			try
+			{
+				reader.run();
+			}
+			finally
+			{
+				helpers.close();
+			}
+			
+			if (failure.get() != null)
+			{
+				throw failure.get();
+			}
+			
+			return blockHashes;
+		}
+		finally
+		{
+			channel.close();
+			
+			if (dropBehind)
+			{
+				DropBehind.dropFile(file);
+			}
+		}
+	}
+	
+	/// <summary>
+	/// The threads helping to read the blocks of a file.  Once the caller
+	/// has run out of blocks it waits for the helpers which started, and
+	/// those which haven't started yet do nothing when they do.
+	/// </summary>
+	private static class BlockHelpers
+	{
+		public synchronized boolean start()
+		{
+			if (closed)
+			{
+				return false;
+			}
+			
+			running++;
+			return true;
+		}
+		
+		public synchronized void stop()
+		{
+			running--;
+			notifyAll();
+		}
+		
+		public synchronized void close() throws InterruptedException
+		{
+			closed = true;
+			
+			while (running > 0)
+			{
+				wait();
+			}
+		}
+		
+		private int running;
+		private boolean closed;
+	}
+	
+	/// <param name="alignment">
+	/// Alignment needed for direct I/O, or 0 for a normal channel
+	/// </param>
+	static protected byte[] computeBlockHash(
+		FileChannel channel,
+		String hashType,
+		long position,
+		long blockSize,
+		IoThrottle throttle,
+		int alignment) throws Exception
+	{
+		MessageDigest digest = getHashAlgorithm(hashType);
+		int bufferSize = (int) Math.min(blockSize, HashReadOptions.defaultBufferSize);
+		
+		ByteBuffer buffer;
+		if (alignment > 0)
+		{
+			buffer = allocateAligned(bufferSize, alignment);
+		}
+		else
+		{
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+		
+		long end = position + blockSize;
+		while (position < end)
+		{
+			// A direct read after a short one starts again from the aligned
+			// position before, and skips what was already hashed
+			long readPosition = position;
+			if (alignment > 0)
+			{
+				readPosition = position / alignment * alignment;
+			}
+			
+			int skip = (int) (position - readPosition);
+			
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - readPosition));
+			
+			// Positional reads are safe to share between threads
+			int numRead = channel.read(buffer, readPosition);
+			if (numRead <= skip)
+			{
+				break;
+			}
+			
+			buffer.flip();
+			buffer.position(skip);
+			digest.update(buffer);
+			position = readPosition + numRead;
+			
+			if (throttle != null)
+			{
+				throttle.acquireBytes(numRead - skip);
+			}
+		}
+		
 		return digest.digest();
 	}
+	
+	/// <summary>
+	/// Combine block hashes into a single Merkle root.  Each block hash is
+	/// first hashed after a 0 byte, and then pairs of hashes are hashed
+	/// together after a 1 byte, level by level, so that a node can never be
+	/// taken for a leaf.  An odd hash at the end of a level is carried up
+	/// unchanged.  The root only depends on the file contents, the block
+	/// size and the hash method, so it can be compared between replicas.
+	/// </summary>
+	static public byte[] computeMerkleRoot(
+		List<byte[]> blockHashes,
+		String hashType) throws Exception
+	{
+		MessageDigest digest = getHashAlgorithm(hashType);
+		byte[][] level = new byte[blockHashes.size()][];
+		
+		for (int i = 0; i < level.length; i++)
+		{
+			digest.update(merkleLeafPrefix);
+			digest.update(blockHashes.get(i));
+			level[i] = digest.digest();
+		}
+		
+		while (level.length > 1)
+		{
+			byte[][] nextLevel = new byte[(level.length + 1) / 2][];
+			
+			for (int i = 0; i < nextLevel.length; i++)
+			{
+				if (2 * i + 1 < level.length)
+				{
+					digest.update(merkleNodePrefix);
+					digest.update(level[2 * i]);
+					digest.update(level[2 * i + 1]);
+					nextLevel[i] = digest.digest();
+				}
+				else
+				{
+					nextLevel[i] = level[2 * i];
+				}
+			}
+			
+			level = nextLevel;
+		}
+		
+		return level[0];
+	}
 
 	static public MessageDigest getHashAlgorithm(
 		String hashType) throws Exception
 	{
-		// Convert from .NET to Java names
+		// Hash methods are supplied by HashProviders, which also take
+		// care of converting from .NET to Java names.
+		return HashProviders.createDigest(hashType);
+	}
+	
+	/// <returns>
+	/// A digest for the hash method whose state can be saved and restored,
+	/// or null if there isn't one.  These are slower than the usual ones
+	/// for MD5 and SHA256.
+	/// </returns>
+	static public MessageDigest getResumableHashAlgorithm(
+		String hashType) throws Exception
+	{
 		switch (hashType)
 		{
-			case "SHA256":
-				hashType = "SHA-256";
-				break;
-			 
 			case "MD5":
-				break;
-		 		
-		 default:
-			 // Only support above two for right now
-			 throw new Exception("Unrecognized hash method: " + hashType);
+				return new Md5Digest();
+				
+			case "SHA256":
+				return new Sha256Digest();
 		}
 		
-		MessageDigest digest =
-			MessageDigest.getInstance(hashType);
+		MessageDigest digest = getHashAlgorithm(hashType);
+		
+		if (digest instanceof ResumableDigest)
+		{
+			return digest;
+		}
 		
-		return digest;
+		return null;
+	}
+	
+	static public boolean isSupportedHashType(String hashType)
+	{
+		return HashProviders.isSupported(hashType);
 	}
 
 	// I think I chose MD5 because SHA256 was less available on Mono,
 	// and MD5 is faster to compute.
 	public static final String defaultHashType = "MD5";
+	
+	public static final HashReadOptions defaultReadOptions = new HashReadOptions();
+	
+	protected static final int streamBufferSize = 64 * 1024;
+	protected static final long mapWindowSize = 256L * 1024 * 1024;
+	protected static final long dropBehindInterval = 256L * 1024 * 1024;
+	protected static final long dropBehindThreshold = 1024L * 1024;
+	protected static final int defaultDirectAlignment = 4096;
+	
+	private static final String extendedOpenOptionClassName =
+		"com.sun.nio.file.ExtendedOpenOption";
+	private static boolean directOptionChecked = false;
+	private static OpenOption directOption = null;
+	
+	private static final byte[] merkleLeafPrefix = new byte[] { 0x00 };
+	private static final byte[] merkleNodePrefix = new byte[] { 0x01 };
 }
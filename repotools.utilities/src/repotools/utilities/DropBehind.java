@@ -0,0 +1,105 @@
+package repotools.utilities;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/// <summary>
+/// Drops the pages of a file from the Linux page cache once it has been
+/// read, for file systems which don't support direct I/O.  Java has no way
+/// to call posix_fadvise, so this runs GNU dd, whose nocache flag with a
+/// count of 0 advises the kernel that the whole file is no longer needed.
+/// This starts a process for each file, and every so often while a large
+/// file is read, so it is only done when asked for.  Where dd isn't
+/// available, or doesn't understand the nocache flag, this does nothing.
+///
+/// It is only ever best effort.  The check that dd accepts the flag is made
+/// on /dev/null, which says nothing about whether the file system holding
+/// a file honours the advice, and the kernel is free to ignore it.
+/// </summary>
+public class DropBehind
+{
+	/// <summary>
+	/// Check, the first time only, that dd can be run with the nocache flag
+	/// </summary>
+	public static synchronized boolean isAvailable()
+	{
+		if (checked == false)
+		{
+			checked = true;
+
+			if (System.getProperty("os.name").startsWith("Linux"))
+			{
+				for (String nextPath : ddPaths)
+				{
+					if (new File(nextPath).canExecute() &&
+						runDd(nextPath, "/dev/null") == 0)
+					{
+						ddPath = nextPath;
+						break;
+					}
+				}
+			}
+		}
+
+		return ddPath != null;
+	}
+
+	/// <summary>
+	/// Drop whatever is cached of the file.  Failures are ignored, since
+	/// this is only advice to the kernel.
+	/// </summary>
+	public static void dropFile(File file)
+	{
+		if (isAvailable() == false)
+		{
+			return;
+		}
+
+		runDd(ddPath, file.getAbsolutePath());
+	}
+
+	/// <returns>
+	/// The exit code of dd, or -1 if it couldn't be run
+	/// </returns>
+	protected static int runDd(String path, String inputPath)
+	{
+		try
+		{
+			Process process = new ProcessBuilder(
+				path,
+				"if=" + inputPath,
+				"iflag=nocache",
+				"count=0",
+				"status=none")
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.DISCARD)
+				.start();
+
+			// A dd stuck on a hung network file system mustn't hold up the
+			// hashing, and the advice is worthless by then anyway
+			if (process.waitFor(ddTimeoutSeconds, TimeUnit.SECONDS) == false)
+			{
+				process.destroyForcibly();
+				return -1;
+			}
+
+			return process.exitValue();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (Exception ex)
+		{
+			// Just advice
+		}
+
+		return -1;
+	}
+
+	private static boolean checked = false;
+	private static String ddPath = null;
+
+	private static final String[] ddPaths = { "/bin/dd", "/usr/bin/dd" };
+	private static final long ddTimeoutSeconds = 10;
+}
@@ -0,0 +1,149 @@
+package repotools.utilities;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/// <summary>
+/// Identity and version of a file as seen by the filesystem: which device
+/// and inode it is, and its size, last modified time and change time.  If
+/// none of these have changed then the contents of the file haven't either,
+/// short of deliberate tampering with the timestamps.
+/// </summary>
+public class FileStamp
+{
+	public FileStamp(
+		long device,
+		long inode,
+		long size,
+		long modifiedNanos,
+		long changedNanos)
+	{
+		this.device = device;
+		this.inode = inode;
+		this.size = size;
+		this.modifiedNanos = modifiedNanos;
+		this.changedNanos = changedNanos;
+		linkCount = 1;
+	}
+	
+	/// <summary>
+	/// Read the stamp of a file
+	/// </summary>
+	/// <returns>
+	/// The stamp, or null if the filesystem doesn't supply the unix
+	/// attributes needed to identify the file
+	/// </returns>
+	public static FileStamp read(File file)
+	{
+		try
+		{
+			return fromAttributes(Files.readAttributes(
+				file.toPath(),
+				"unix:dev,ino,size,lastModifiedTime,ctime,nlink"));
+		}
+		catch (Exception ex)
+		{
+			return null;
+		}
+	}
+	
+	/// <summary>
+	/// Make the stamp from unix attributes which have already been read,
+	/// including at least dev, ino, size, lastModifiedTime, ctime and nlink
+	/// </summary>
+	public static FileStamp fromAttributes(Map<String, Object> attributes)
+	{
+		FileStamp stamp = new FileStamp(
+			(Long) attributes.get("dev"),
+			(Long) attributes.get("ino"),
+			(Long) attributes.get("size"),
+			toNanos((FileTime) attributes.get("lastModifiedTime")),
+			toNanos((FileTime) attributes.get("ctime")));
+		
+		stamp.linkCount = (Integer) attributes.get("nlink");
+		
+		return stamp;
+	}
+	
+	protected static long toNanos(FileTime time)
+	{
+		return time.to(TimeUnit.NANOSECONDS);
+	}
+
+	public long getDevice()
+	{
+		return device;
+	}
+
+	public long getInode()
+	{
+		return inode;
+	}
+
+	public long getSize()
+	{
+		return size;
+	}
+
+	public long getModifiedNanos()
+	{
+		return modifiedNanos;
+	}
+
+	public long getChangedNanos()
+	{
+		return changedNanos;
+	}
+
+	/// <summary>
+	/// How many hard links the file has.  This isn't part of the identity
+	/// of the stamp, and is 1 for a stamp which wasn't read from the file.
+	/// </summary>
+	public int getLinkCount()
+	{
+		return linkCount;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		long combined = device * 31 + inode;
+		combined = combined * 31 + size;
+		combined = combined * 31 + modifiedNanos;
+		combined = combined * 31 + changedNanos;
+		return (int) (combined ^ (combined >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (obj == this)
+		{
+			return true;
+		}
+		
+		if ((obj instanceof FileStamp) == false)
+		{
+			return false;
+		}
+		
+		FileStamp other = (FileStamp) obj;
+		
+		return
+			device == other.device &&
+			inode == other.inode &&
+			size == other.size &&
+			modifiedNanos == other.modifiedNanos &&
+			changedNanos == other.changedNanos;
+	}
+
+	private long device;
+	private long inode;
+	private long size;
+	private long modifiedNanos;
+	private long changedNanos;
+	private int linkCount;
+}
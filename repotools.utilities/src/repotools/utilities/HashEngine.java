@@ -0,0 +1,583 @@
+package repotools.utilities;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/// <summary>
+/// Hashes files for the length of a run.  Each thread which uses the
+/// engine keeps its own digests and read buffers, which are reused from
+/// one file to the next rather than looked up and allocated every time.
+/// The engine also keeps statistics of how many files and bytes were
+/// hashed with each method, how long that took, and which files were the
+/// slowest.
+/// </summary>
+public class HashEngine
+{
+	public HashEngine(HashReadOptions readOptions)
+	{
+		this.readOptions = readOptions;
+		slowFileCount = defaultSlowFileCount;
+
+		methodStatistics = new TreeMap<String, MethodStatistics>();
+		slowestFiles = new PriorityQueue<SlowFile>(
+			defaultSlowFileCount + 1,
+			new Comparator<SlowFile>()
+			{
+				public int compare(SlowFile a, SlowFile b)
+				{
+					return Long.compare(a.getNanos(), b.getNanos());
+				}
+			});
+
+		threadDigests = new ThreadLocal<Map<String, MessageDigest>>()
+		{
+			@Override
+			protected Map<String, MessageDigest> initialValue()
+			{
+				return new HashMap<String, MessageDigest>();
+			}
+		};
+
+		threadBuffers = new ThreadLocal<ReadBuffers>()
+		{
+			@Override
+			protected ReadBuffers initialValue()
+			{
+				return new ReadBuffers();
+			}
+		};
+
+		threadLanes = new ThreadLocal<Md5Lanes>()
+		{
+			@Override
+			protected Md5Lanes initialValue()
+			{
+				return new Md5Lanes();
+			}
+		};
+	}
+
+	/// <summary>
+	/// Get this thread's digests for the hash methods, ready to use.  They
+	/// stay valid until the next call on the same thread.
+	/// </summary>
+	public MessageDigest[] getDigests(String[] hashTypes) throws Exception
+	{
+		Map<String, MessageDigest> digestMap = threadDigests.get();
+		MessageDigest[] digests = new MessageDigest[hashTypes.length];
+
+		for (int i = 0; i < hashTypes.length; i++)
+		{
+			MessageDigest digest = digestMap.get(hashTypes[i]);
+
+			if (digest == null)
+			{
+				digest = CryptUtilities.getHashAlgorithm(hashTypes[i]);
+				digestMap.put(hashTypes[i], digest);
+			}
+			else
+			{
+				// A read which failed part way leaves its state behind
+				digest.reset();
+			}
+
+			// The same method twice needs two digests
+			for (int j = 0; j < i; j++)
+			{
+				if (digests[j] == digest)
+				{
+					digest = CryptUtilities.getHashAlgorithm(hashTypes[i]);
+					break;
+				}
+			}
+
+			digests[i] = digest;
+		}
+
+		return digests;
+	}
+
+	/// <summary>
+	/// Compute several kinds of hash from a single read of the file
+	/// </summary>
+	/// <returns>
+	/// The hashes, in the same order as the hash types
+	/// </returns>
+	public byte[][] computeHashes(File file, String[] hashTypes) throws Exception
+	{
+		MessageDigest[] digests = getDigests(hashTypes);
+
+		readFile(file, hashTypes, digests);
+
+		byte[][] hashes = new byte[hashTypes.length][];
+		for (int i = 0; i < digests.length; i++)
+		{
+			hashes[i] = digests[i].digest();
+		}
+
+		return hashes;
+	}
+
+	/// <summary>
+	/// Read the whole file once, feeding every byte to each of the digests
+	/// </summary>
+	/// <param name="hashTypes">
+	/// The hash methods the statistics are kept under
+	/// </param>
+	/// <param name="digests">
+	/// A digest for each of the hash methods, possibly followed by others
+	/// which are fed the same read, such as a block hash digest
+	/// </param>
+	public void readFile(
+		File file,
+		String[] hashTypes,
+		MessageDigest[] digests) throws Exception
+	{
+		long length = file.length();
+		long startNanos = System.nanoTime();
+
+		CryptUtilities.readFile(file, digests, readOptions, threadBuffers.get());
+
+		record(getMethodName(hashTypes), file, length, System.nanoTime() - startNanos);
+	}
+
+	/// <summary>
+	/// Read the file from the given position to the end, as for
+	/// CryptUtilities.readFileFrom
+	/// </summary>
+	public void readFileFrom(
+		File file,
+		String[] hashTypes,
+		MessageDigest[] digests,
+		long position,
+		ReadCheckpointListener listener,
+		long checkpointInterval) throws Exception
+	{
+		long length = file.length();
+		long startNanos = System.nanoTime();
+
+		CryptUtilities.readFileFrom(
+			file,
+			digests,
+			readOptions,
+			position,
+			listener,
+			checkpointInterval,
+			threadBuffers.get());
+
+		record(
+			getMethodName(hashTypes),
+			file,
+			Math.max(0, length - position),
+			System.nanoTime() - startNanos);
+	}
+
+	/// <summary>
+	/// Hash each block of the file separately, as for
+	/// CryptUtilities.computeBlockHashes
+	/// </summary>
+	public byte[][] computeBlockHashes(
+		File file,
+		String hashType,
+		long blockSize) throws Exception
+	{
+		long length = file.length();
+		long startNanos = System.nanoTime();
+
+		byte[][] blockHashes = CryptUtilities.computeBlockHashes(
+			file,
+			hashType,
+			blockSize,
+			readOptions);
+
+		record(hashType, file, length, System.nanoTime() - startNanos);
+
+		return blockHashes;
+	}
+
+	/// <summary>
+	/// Hash just the start and end of the file, as for
+	/// CryptUtilities.computePartialHash.  These are counted separately
+	/// from full hashes in the statistics.
+	/// </summary>
+	public byte[] computePartialHash(
+		File file,
+		String hashType,
+		long sampleSize) throws Exception
+	{
+		return computePartialHash(file, hashType, sampleSize, file.length());
+	}
+
+	/// <param name="length">
+	/// Hash as if the file were only this long
+	/// </param>
+	public byte[] computePartialHash(
+		File file,
+		String hashType,
+		long sampleSize,
+		long length) throws Exception
+	{
+		MessageDigest digest = getDigests(new String[] { hashType })[0];
+		long startNanos = System.nanoTime();
+
+		CryptUtilities.readPartial(file, digest, sampleSize, length, threadBuffers.get());
+
+		record(
+			hashType + " partial",
+			file,
+			Math.min(length, 2 * sampleSize),
+			System.nanoTime() - startNanos);
+
+		return digest.digest();
+	}
+
+	/// <summary>
+	/// Read just part of the file, as for CryptUtilities.readFileRange
+	/// </summary>
+	public void readFileRange(
+		File file,
+		String[] hashTypes,
+		MessageDigest[] digests,
+		long position,
+		long end) throws Exception
+	{
+		long startNanos = System.nanoTime();
+
+		CryptUtilities.readFileRange(
+			file,
+			digests,
+			readOptions,
+			position,
+			end,
+			threadBuffers.get());
+
+		record(
+			getMethodName(hashTypes),
+			file,
+			end - position,
+			System.nanoTime() - startNanos);
+	}
+
+	/// <summary>
+	/// Whether small files hashed with this method can be hashed together
+	/// by computeSmallFileHashes
+	/// </summary>
+	public static boolean isBatchable(String hashType)
+	{
+		return "MD5".equals(hashType);
+	}
+
+	/// <summary>
+	/// Hash a batch of small files together.  Each file is read whole, and
+	/// then they are all hashed at once in the lanes of an Md5Lanes.
+	/// </summary>
+	/// <returns>
+	/// The hash of each file, or null for any file which couldn't be read
+	/// or was larger than smallFileThreshold, which should be hashed on
+	/// its own instead so that any error is reported as usual
+	/// </returns>
+	public byte[][] computeSmallFileHashes(File[] files, String hashType)
+	{
+		if (isBatchable(hashType) == false)
+		{
+			return new byte[files.length][];
+		}
+
+		byte[][] messages = new byte[files.length][];
+		int[] lengths = new int[files.length];
+		long totalLength = 0;
+		long startNanos = System.nanoTime();
+
+		for (int i = 0; i < files.length; i++)
+		{
+			long length = files[i].length();
+			if (length > smallFileThreshold)
+			{
+				continue;
+			}
+
+			try
+			{
+				byte[] message = Md5Lanes.allocate((int) length);
+
+				lengths[i] = CryptUtilities.readWhole(
+					files[i],
+					message,
+					(int) length,
+					readOptions.getThrottle());
+
+				if (lengths[i] >= 0)
+				{
+					Md5Lanes.pad(message, lengths[i]);
+					messages[i] = message;
+					totalLength += lengths[i];
+				}
+			}
+			catch (Exception ex)
+			{
+				messages[i] = null;
+			}
+		}
+
+		byte[][] hashes = threadLanes.get().digest(messages, lengths);
+
+		// Share the time out between the files by length
+		long nanos = System.nanoTime() - startNanos;
+		for (int i = 0; i < files.length; i++)
+		{
+			if (hashes[i] != null)
+			{
+				record(
+					hashType + " batched",
+					files[i],
+					lengths[i],
+					totalLength > 0 ? nanos * lengths[i] / totalLength : 0);
+			}
+		}
+
+		return hashes;
+	}
+
+	protected synchronized void record(
+		String hashMethod,
+		File file,
+		long byteCount,
+		long nanos)
+	{
+		MethodStatistics statistics = methodStatistics.get(hashMethod);
+		if (statistics == null)
+		{
+			statistics = new MethodStatistics(hashMethod);
+			methodStatistics.put(hashMethod, statistics);
+		}
+
+		statistics.add(byteCount, nanos);
+
+		if (slowFileCount <= 0)
+		{
+			return;
+		}
+
+		// The queue holds the slowest files so far, fastest first
+		if (slowestFiles.size() < slowFileCount)
+		{
+			slowestFiles.add(new SlowFile(file.getPath(), byteCount, nanos));
+		}
+		else if (nanos > slowestFiles.peek().getNanos())
+		{
+			slowestFiles.poll();
+			slowestFiles.add(new SlowFile(file.getPath(), byteCount, nanos));
+		}
+	}
+
+	/// <summary>
+	/// Hash methods computed from a single read are timed together, under
+	/// a name like "MD5+SHA256".
+	/// </summary>
+	protected static String getMethodName(String[] hashTypes)
+	{
+		if (hashTypes.length == 1)
+		{
+			return hashTypes[0];
+		}
+
+		StringBuilder name = new StringBuilder();
+		for (String nextType : hashTypes)
+		{
+			if (name.length() > 0)
+			{
+				name.append('+');
+			}
+
+			name.append(nextType);
+		}
+
+		return name.toString();
+	}
+
+	/// <returns>
+	/// A copy of the statistics for each hash method, in order of name
+	/// </returns>
+	public synchronized List<MethodStatistics> getMethodStatistics()
+	{
+		List<MethodStatistics> copy = new ArrayList<MethodStatistics>();
+
+		for (MethodStatistics nextStatistics : methodStatistics.values())
+		{
+			copy.add(new MethodStatistics(nextStatistics));
+		}
+
+		return copy;
+	}
+
+	/// <returns>
+	/// The slowest files, slowest first
+	/// </returns>
+	public synchronized List<SlowFile> getSlowestFiles()
+	{
+		List<SlowFile> files = new ArrayList<SlowFile>(slowestFiles);
+		Collections.sort(files, Collections.reverseOrder(slowestFiles.comparator()));
+
+		return files;
+	}
+
+	public synchronized void clearStatistics()
+	{
+		methodStatistics.clear();
+		slowestFiles.clear();
+	}
+
+	public HashReadOptions getReadOptions()
+	{
+		return readOptions;
+	}
+
+	/// <summary>
+	/// How many of the slowest files to remember
+	/// </summary>
+	public synchronized int getSlowFileCount()
+	{
+		return slowFileCount;
+	}
+
+	public synchronized void setSlowFileCount(int slowFileCount)
+	{
+		this.slowFileCount = slowFileCount;
+
+		while (slowestFiles.size() > Math.max(0, slowFileCount))
+		{
+			slowestFiles.poll();
+		}
+	}
+
+	private HashReadOptions readOptions;
+	private int slowFileCount;
+	private Map<String, MethodStatistics> methodStatistics;
+	private PriorityQueue<SlowFile> slowestFiles;
+	private ThreadLocal<Map<String, MessageDigest>> threadDigests;
+	private ThreadLocal<ReadBuffers> threadBuffers;
+	private ThreadLocal<Md5Lanes> threadLanes;
+
+	public static final int defaultSlowFileCount = 10;
+
+	/// <summary>
+	/// Files up to this long can be hashed in a batch
+	/// </summary>
+	public static final long smallFileThreshold = HashReadOptions.streamThreshold;
+
+	/// <summary>
+	/// How many small files to hash in each batch.  More files than lanes
+	/// lets a lane which finishes a short file start on another.
+	/// </summary>
+	public static final int smallFileBatchSize = 4 * Md5Lanes.defaultLaneCount;
+
+
+	/// <summary>
+	/// Running totals for one hash method
+	/// </summary>
+	public static class MethodStatistics
+	{
+		public MethodStatistics(String hashMethod)
+		{
+			this.hashMethod = hashMethod;
+			fileCount = 0;
+			byteCount = 0;
+			nanos = 0;
+		}
+
+		public MethodStatistics(MethodStatistics original)
+		{
+			hashMethod = original.hashMethod;
+			fileCount = original.fileCount;
+			byteCount = original.byteCount;
+			nanos = original.nanos;
+		}
+
+		protected void add(long byteCount, long nanos)
+		{
+			fileCount++;
+			this.byteCount += byteCount;
+			this.nanos += nanos;
+		}
+
+		/// <summary>
+		/// Bytes hashed per second of time spent hashing.  With several
+		/// threads this is the rate of each thread rather than the total.
+		/// </summary>
+		public double getBytesPerSecond()
+		{
+			if (nanos == 0)
+			{
+				return 0;
+			}
+
+			return byteCount * 1e9 / nanos;
+		}
+
+		public String getHashMethod()
+		{
+			return hashMethod;
+		}
+
+		public long getFileCount()
+		{
+			return fileCount;
+		}
+
+		public long getByteCount()
+		{
+			return byteCount;
+		}
+
+		/// <summary>
+		/// Time spent hashing, summed over all threads
+		/// </summary>
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		private String hashMethod;
+		private long fileCount;
+		private long byteCount;
+		private long nanos;
+	}
+
+
+	public static class SlowFile
+	{
+		public SlowFile(String path, long length, long nanos)
+		{
+			this.path = path;
+			this.length = length;
+			this.nanos = nanos;
+		}
+
+		public String getPath()
+		{
+			return path;
+		}
+
+		public long getLength()
+		{
+			return length;
+		}
+
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		private String path;
+		private long length;
+		private long nanos;
+	}
+}
@@ -0,0 +1,24 @@
+package repotools.utilities;
+
+import java.security.MessageDigest;
+
+/// <summary>
+/// Service interface for supplying hash methods by name.  Implementations
+/// are discovered with java.util.ServiceLoader, so a new hash method can be
+/// added by putting a jar on the classpath which lists its provider in
+/// META-INF/services/repotools.utilities.HashProvider.
+/// </summary>
+public interface HashProvider
+{
+	/// <summary>
+	/// The names of the hash methods supplied by this provider, as they are
+	/// stored in the manifest and given to -hashMethod.
+	/// </summary>
+	String[] getHashTypes();
+	
+	/// <summary>
+	/// Make a new digest for one of the hash methods named by
+	/// getHashTypes().
+	/// </summary>
+	MessageDigest createDigest(String hashType) throws Exception;
+}
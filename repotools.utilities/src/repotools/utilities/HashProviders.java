@@ -0,0 +1,80 @@
+package repotools.utilities;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/// <summary>
+/// Registry of the hash methods supplied by all of the HashProviders
+/// </summary>
+public class HashProviders
+{
+	static public boolean isSupported(String hashType)
+	{
+		return hashType != null && getProviders().containsKey(hashType);
+	}
+	
+	static public MessageDigest createDigest(String hashType) throws Exception
+	{
+		HashProvider provider = null;
+		
+		if (hashType != null)
+		{
+			provider = getProviders().get(hashType);
+		}
+		
+		if (provider == null)
+		{
+			throw new Exception("Unrecognized hash method: " + hashType);
+		}
+		
+		return provider.createDigest(hashType);
+	}
+	
+	static public ArrayList<String> getHashTypes()
+	{
+		return new ArrayList<String>(getProviders().keySet());
+	}
+	
+	static protected synchronized Map<String, HashProvider> getProviders()
+	{
+		if (providers == null)
+		{
+			Map<String, HashProvider> loaded =
+				new LinkedHashMap<String, HashProvider>();
+			
+			// The built-in methods can't be replaced, because manifests
+			// written with them must always validate the same way.
+			register(new BuiltInHashProvider(), loaded);
+			
+			for (HashProvider nextProvider : ServiceLoader.load(HashProvider.class))
+			{
+				if ((nextProvider instanceof BuiltInHashProvider) == false)
+				{
+					register(nextProvider, loaded);
+				}
+			}
+			
+			providers = loaded;
+		}
+		
+		return providers;
+	}
+	
+	static private void register(
+		HashProvider provider,
+		Map<String, HashProvider> loaded)
+	{
+		for (String nextType : provider.getHashTypes())
+		{
+			if (loaded.containsKey(nextType) == false)
+			{
+				loaded.put(nextType, provider);
+			}
+		}
+	}
+	
+	static private Map<String, HashProvider> providers = null;
+}
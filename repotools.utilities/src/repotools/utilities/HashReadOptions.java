@@ -0,0 +1,176 @@
+package repotools.utilities;
+
+/// <summary>
+/// Settings which control how CryptUtilities reads files while hashing
+/// </summary>
+public class HashReadOptions
+{
+	public HashReadOptions()
+	{
+		strategy = ReadStrategy.AUTO;
+		bufferSize = defaultBufferSize;
+		mapThreshold = defaultMapThreshold;
+		throttle = null;
+		pipeline = null;
+		direct = false;
+		dropBehind = false;
+		blockExecutor = null;
+		blockThreads = 1;
+	}
+	
+	/// <summary>
+	/// Choose the strategy that will actually be used for a file of the
+	/// given length.
+	/// </summary>
+	public ReadStrategy resolveStrategy(long fileLength)
+	{
+		// A batched strategy reads files which aren't in a batch as usual
+		if (strategy != ReadStrategy.AUTO &&
+			strategy != ReadStrategy.BATCHED)
+		{
+			return strategy;
+		}
+		
+		if (fileLength >= mapThreshold)
+		{
+			return ReadStrategy.MAPPED;
+		}
+		
+		if (fileLength > streamThreshold)
+		{
+			return ReadStrategy.CHANNEL;
+		}
+		
+		// Setting up a channel and direct buffer costs more than it
+		// saves for small files.
+		return ReadStrategy.STREAM;
+	}
+
+	public ReadStrategy getStrategy()
+	{
+		return strategy;
+	}
+
+	public void setStrategy(ReadStrategy strategy)
+	{
+		this.strategy = strategy;
+	}
+
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize)
+	{
+		this.bufferSize = bufferSize;
+	}
+
+	public long getMapThreshold()
+	{
+		return mapThreshold;
+	}
+
+	public void setMapThreshold(long mapThreshold)
+	{
+		this.mapThreshold = mapThreshold;
+	}
+
+	/// <summary>
+	/// Limits on the rate of reading, or null for no limits
+	/// </summary>
+	public IoThrottle getThrottle()
+	{
+		return throttle;
+	}
+
+	public void setThrottle(IoThrottle throttle)
+	{
+		this.throttle = throttle;
+	}
+
+	/// <summary>
+	/// Reader threads for the pipelined strategy, or null
+	/// </summary>
+	public ReadPipeline getPipeline()
+	{
+		return pipeline;
+	}
+
+	public void setPipeline(ReadPipeline pipeline)
+	{
+		this.pipeline = pipeline;
+	}
+
+	/// <summary>
+	/// Whether to read around the page cache.  This takes the place of the
+	/// strategy.
+	/// </summary>
+	public boolean isDirect()
+	{
+		return direct;
+	}
+
+	public void setDirect(boolean direct)
+	{
+		this.direct = direct;
+	}
+
+	/// <summary>
+	/// Whether to drop files of 1MB or more from the page cache as they are
+	/// read, with DropBehind, where they can't be read around it
+	/// </summary>
+	public boolean isDropBehind()
+	{
+		return dropBehind;
+	}
+
+	public void setDropBehind(boolean dropBehind)
+	{
+		this.dropBehind = dropBehind;
+	}
+
+	/// <summary>
+	/// Threads which may help to read the blocks of a file in parallel, or
+	/// null to read them on the calling thread only.  The helpers go through
+	/// the executor so that they count towards any limit on the streams
+	/// reading each device.
+	/// </summary>
+	public BlockExecutor getBlockExecutor()
+	{
+		return blockExecutor;
+	}
+
+	public void setBlockExecutor(BlockExecutor blockExecutor)
+	{
+		this.blockExecutor = blockExecutor;
+	}
+
+	/// <summary>
+	/// The most blocks of a file to read at once, including the calling
+	/// thread
+	/// </summary>
+	public int getBlockThreads()
+	{
+		return blockThreads;
+	}
+
+	public void setBlockThreads(int blockThreads)
+	{
+		this.blockThreads = blockThreads;
+	}
+
+	private ReadStrategy strategy;
+	private int bufferSize;
+	private long mapThreshold;
+	private IoThrottle throttle;
+	private ReadPipeline pipeline;
+	private boolean direct;
+	private boolean dropBehind;
+	private BlockExecutor blockExecutor;
+	private int blockThreads;
+	
+	public static final int defaultBufferSize = 1024 * 1024;
+	public static final long defaultMapThreshold = 64L * 1024 * 1024;
+	public static final long streamThreshold = 64L * 1024;
+}
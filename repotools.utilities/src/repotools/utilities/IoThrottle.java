@@ -0,0 +1,242 @@
+package repotools.utilities;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/// <summary>
+/// Limits how hard hashing reads from the disks, so that a scrub can run
+/// alongside other work.  There are fixed limits on bytes and files per
+/// second, and an adaptive limit which pauses reading while the system
+/// load average or I/O pressure is above a threshold.  One throttle is
+/// shared by all of the threads which are reading.
+/// </summary>
+public class IoThrottle
+{
+	public IoThrottle()
+	{
+		maxBytesPerSecond = 0;
+		maxFilesPerSecond = 0;
+		maxLoad = 0;
+		maxIoPressure = 0;
+
+		nextByteNanos = System.nanoTime();
+		nextFileNanos = nextByteNanos;
+		lastLoadCheckNanos = 0;
+		overloaded = false;
+	}
+
+	/// <summary>
+	/// Wait until it is time to start reading another file
+	/// </summary>
+	public void acquireFile() throws InterruptedException
+	{
+		waitForLoad();
+
+		if (maxFilesPerSecond > 0)
+		{
+			pace(reserveFile());
+		}
+	}
+
+	/// <summary>
+	/// Account for bytes which have just been read, waiting if they put us
+	/// over the limit.
+	/// </summary>
+	public void acquireBytes(long byteCount) throws InterruptedException
+	{
+		waitForLoad();
+
+		if (maxBytesPerSecond > 0)
+		{
+			pace(reserveBytes(byteCount));
+		}
+	}
+
+	public boolean isActive()
+	{
+		return
+			maxBytesPerSecond > 0 ||
+			maxFilesPerSecond > 0 ||
+			maxLoad > 0 ||
+			maxIoPressure > 0;
+	}
+
+	protected synchronized long reserveBytes(long byteCount)
+	{
+		long now = System.nanoTime();
+
+		// Unused time doesn't accumulate beyond a short burst
+		nextByteNanos = Math.max(nextByteNanos, now - burstNanos);
+		nextByteNanos += (long) (byteCount * 1e9 / maxBytesPerSecond);
+
+		return nextByteNanos - now;
+	}
+
+	protected synchronized long reserveFile()
+	{
+		long now = System.nanoTime();
+
+		nextFileNanos = Math.max(nextFileNanos, now - burstNanos);
+		nextFileNanos += (long) (1e9 / maxFilesPerSecond);
+
+		return nextFileNanos - now;
+	}
+
+	protected static void pace(long waitNanos) throws InterruptedException
+	{
+		if (waitNanos > 0)
+		{
+			Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+		}
+	}
+
+	protected void waitForLoad() throws InterruptedException
+	{
+		if (maxLoad <= 0 && maxIoPressure <= 0)
+		{
+			return;
+		}
+
+		while (checkOverloaded())
+		{
+			Thread.sleep(loadBackoffMillis);
+		}
+	}
+
+	protected synchronized boolean checkOverloaded()
+	{
+		long now = System.nanoTime();
+
+		// Don't read /proc for every buffer
+		if (now - lastLoadCheckNanos >= loadCheckIntervalNanos)
+		{
+			lastLoadCheckNanos = now;
+
+			overloaded =
+				(maxLoad > 0 && readLoadAverage() > maxLoad) ||
+				(maxIoPressure > 0 && readIoPressure() > maxIoPressure);
+		}
+
+		return overloaded;
+	}
+
+	/// <summary>
+	/// The one minute load average, or 0 if it isn't available
+	/// </summary>
+	public static double readLoadAverage()
+	{
+		String[] fields = readProcFile(loadAveragePath).split("\\s+");
+
+		try
+		{
+			return Double.parseDouble(fields[0]);
+		}
+		catch (Exception ex)
+		{
+			return 0;
+		}
+	}
+
+	/// <summary>
+	/// The percentage of the last ten seconds in which some task was
+	/// stalled waiting for I/O, or 0 if it isn't available.  This needs
+	/// Linux 4.20 or later.
+	/// </summary>
+	public static double readIoPressure()
+	{
+		for (String nextLine : readProcFile(ioPressurePath).split("\n"))
+		{
+			if (nextLine.startsWith("some ") == false)
+			{
+				continue;
+			}
+
+			for (String nextField : nextLine.split("\\s+"))
+			{
+				if (nextField.startsWith("avg10="))
+				{
+					try
+					{
+						return Double.parseDouble(nextField.substring(6));
+					}
+					catch (NumberFormatException ex)
+					{
+						return 0;
+					}
+				}
+			}
+		}
+
+		return 0;
+	}
+
+	protected static String readProcFile(Path path)
+	{
+		try
+		{
+			return new String(Files.readAllBytes(path));
+		}
+		catch (Exception ex)
+		{
+			return "";
+		}
+	}
+
+	public double getMaxBytesPerSecond()
+	{
+		return maxBytesPerSecond;
+	}
+
+	public void setMaxBytesPerSecond(double maxBytesPerSecond)
+	{
+		this.maxBytesPerSecond = maxBytesPerSecond;
+	}
+
+	public double getMaxFilesPerSecond()
+	{
+		return maxFilesPerSecond;
+	}
+
+	public void setMaxFilesPerSecond(double maxFilesPerSecond)
+	{
+		this.maxFilesPerSecond = maxFilesPerSecond;
+	}
+
+	public double getMaxLoad()
+	{
+		return maxLoad;
+	}
+
+	public void setMaxLoad(double maxLoad)
+	{
+		this.maxLoad = maxLoad;
+	}
+
+	public double getMaxIoPressure()
+	{
+		return maxIoPressure;
+	}
+
+	public void setMaxIoPressure(double maxIoPressure)
+	{
+		this.maxIoPressure = maxIoPressure;
+	}
+
+	private double maxBytesPerSecond;
+	private double maxFilesPerSecond;
+	private double maxLoad;
+	private double maxIoPressure;
+
+	private long nextByteNanos;
+	private long nextFileNanos;
+	private long lastLoadCheckNanos;
+	private boolean overloaded;
+
+	private static final long burstNanos = 1000000000L;
+	private static final long loadCheckIntervalNanos = 1000000000L;
+	private static final long loadBackoffMillis = 1000;
+
+	private static final Path loadAveragePath = Paths.get("/proc/loadavg");
+	private static final Path ioPressurePath = Paths.get("/proc/pressure/io");
+}
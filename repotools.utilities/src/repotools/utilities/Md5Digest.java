@@ -0,0 +1,103 @@
+package repotools.utilities;
+
+/// <summary>
+/// MD5 (RFC 1321) with a state which can be saved and restored
+/// </summary>
+public class Md5Digest extends ChainedBlockDigest
+{
+	public Md5Digest()
+	{
+		super("MD5", 4, false);
+		words = new int[16];
+	}
+
+	@Override
+	protected void initState(int[] state)
+	{
+		state[0] = 0x67452301;
+		state[1] = 0xEFCDAB89;
+		state[2] = 0x98BADCFE;
+		state[3] = 0x10325476;
+	}
+
+	@Override
+	protected void processBlock(byte[] input, int offset)
+	{
+		int[] x = words;
+		for (int i = 0; i < 16; i++)
+		{
+			x[i] = readIntLittleEndian(input, offset + 4 * i);
+		}
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+
+		for (int i = 0; i < 64; i++)
+		{
+			int f;
+			int g;
+
+			if (i < 16)
+			{
+				f = (b & c) | (~b & d);
+				g = i;
+			}
+			else if (i < 32)
+			{
+				f = (d & b) | (~d & c);
+				g = (5 * i + 1) & 15;
+			}
+			else if (i < 48)
+			{
+				f = b ^ c ^ d;
+				g = (3 * i + 5) & 15;
+			}
+			else
+			{
+				f = c ^ (b | ~d);
+				g = (7 * i) & 15;
+			}
+
+			int rotated = Integer.rotateLeft(a + f + k[i] + x[g], shifts[i]);
+			a = d;
+			d = c;
+			c = b;
+			b = b + rotated;
+		}
+
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		Md5Digest copy = (Md5Digest) super.clone();
+		copy.words = new int[16];
+		return copy;
+	}
+
+	private int[] words;
+
+	private static final int[] shifts =
+	{
+		7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+		5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+		4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+		6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+	};
+
+	private static final int[] k = new int[64];
+
+	static
+	{
+		for (int i = 0; i < 64; i++)
+		{
+			k[i] = (int) (long) Math.floor(Math.abs(Math.sin(i + 1)) * 4294967296.0);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package repotools.utilities;
+
+/// <summary>
+/// Computes MD5 (RFC 1321) of several independent messages at once.  Each
+/// message has a lane, and every step of the compression function is done
+/// for all of the lanes together in a loop over arrays of lanes, which the
+/// JIT compiler can turn into SIMD instructions.  When a message is
+/// finished its lane is given the next one, so that messages of different
+/// lengths keep all of the lanes busy.  This pays off for many small
+/// messages, where a single MD5 spends its time waiting on the chain of
+/// dependencies from one step to the next.
+///
+/// Messages are given already padded, in buffers from allocate(), so that
+/// small files can be read straight into them.
+/// </summary>
+public class Md5Lanes
+{
+	public Md5Lanes()
+	{
+		this(defaultLaneCount);
+	}
+
+	public Md5Lanes(int laneCount)
+	{
+		this.laneCount = laneCount;
+
+		a = new int[laneCount];
+		b = new int[laneCount];
+		c = new int[laneCount];
+		d = new int[laneCount];
+		startA = new int[laneCount];
+		startB = new int[laneCount];
+		startC = new int[laneCount];
+		startD = new int[laneCount];
+		words = new int[16][laneCount];
+
+		laneMessage = new int[laneCount];
+		laneOffset = new int[laneCount];
+	}
+
+	/// <returns>
+	/// A buffer large enough for a message of the given length and its
+	/// padding
+	/// </returns>
+	public static byte[] allocate(int length)
+	{
+		return new byte[getPaddedLength(length)];
+	}
+
+	public static int getPaddedLength(int length)
+	{
+		// A 1 bit, and the length in the last 8 bytes of a block
+		return (length + 8 + blockLength) & ~(blockLength - 1);
+	}
+
+	/// <summary>
+	/// Pad a message of the given length in a buffer from allocate()
+	/// </summary>
+	public static void pad(byte[] buffer, int length)
+	{
+		int paddedLength = getPaddedLength(length);
+
+		buffer[length] = (byte) 0x80;
+		for (int i = length + 1; i < paddedLength - 8; i++)
+		{
+			buffer[i] = 0;
+		}
+
+		long bitLength = (long) length * 8;
+		for (int i = 0; i < 8; i++)
+		{
+			buffer[paddedLength - 8 + i] = (byte) (bitLength >>> (8 * i));
+		}
+	}
+
+	/// <summary>
+	/// Compute the MD5 of each of the messages
+	/// </summary>
+	/// <param name="messages">
+	/// Padded messages.  Null entries are skipped.
+	/// </param>
+	/// <param name="lengths">
+	/// The length of each message before padding
+	/// </param>
+	/// <returns>
+	/// The hash of each message, or null for the null ones
+	/// </returns>
+	public byte[][] digest(byte[][] messages, int[] lengths)
+	{
+		byte[][] results = new byte[messages.length][];
+
+		int nextMessage = 0;
+		int activeLanes = 0;
+
+		for (int lane = 0; lane < laneCount; lane++)
+		{
+			nextMessage = startLane(lane, messages, nextMessage);
+			if (laneMessage[lane] >= 0)
+			{
+				activeLanes++;
+			}
+		}
+
+		while (activeLanes > 0)
+		{
+			loadBlock(messages);
+			compress();
+
+			for (int lane = 0; lane < laneCount; lane++)
+			{
+				int message = laneMessage[lane];
+				if (message < 0)
+				{
+					continue;
+				}
+
+				laneOffset[lane] += blockLength;
+
+				if (laneOffset[lane] >= getPaddedLength(lengths[message]))
+				{
+					results[message] = getDigest(lane);
+
+					nextMessage = startLane(lane, messages, nextMessage);
+					if (laneMessage[lane] < 0)
+					{
+						activeLanes--;
+					}
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/// <summary>
+	/// Give the lane the next message, or mark it as idle if there are
+	/// none left
+	/// </summary>
+	/// <returns>
+	/// The index of the message after the one given to the lane
+	/// </returns>
+	protected int startLane(int lane, byte[][] messages, int nextMessage)
+	{
+		while (nextMessage < messages.length && messages[nextMessage] == null)
+		{
+			nextMessage++;
+		}
+
+		if (nextMessage >= messages.length)
+		{
+			laneMessage[lane] = -1;
+			return nextMessage;
+		}
+
+		laneMessage[lane] = nextMessage;
+		laneOffset[lane] = 0;
+
+		a[lane] = initA;
+		b[lane] = initB;
+		c[lane] = initC;
+		d[lane] = initD;
+
+		return nextMessage + 1;
+	}
+
+	/// <summary>
+	/// Load the next block of each lane's message into the words, lane by
+	/// lane.  Idle lanes keep whatever they had, and their results are
+	/// never used.
+	/// </summary>
+	protected void loadBlock(byte[][] messages)
+	{
+		for (int lane = 0; lane < laneCount; lane++)
+		{
+			int message = laneMessage[lane];
+			if (message < 0)
+			{
+				continue;
+			}
+
+			byte[] input = messages[message];
+			int offset = laneOffset[lane];
+
+			for (int i = 0; i < 16; i++)
+			{
+				int pos = offset + 4 * i;
+				words[i][lane] =
+					(input[pos] & 0xFF) |
+					((input[pos + 1] & 0xFF) << 8) |
+					((input[pos + 2] & 0xFF) << 16) |
+					((input[pos + 3] & 0xFF) << 24);
+			}
+		}
+	}
+
+	/// <summary>
+	/// Mix the current block into the state of every lane.  The arrays for
+	/// a, b, c and d are rotated between steps rather than their values.
+	/// </summary>
+	protected void compress()
+	{
+		System.arraycopy(a, 0, startA, 0, laneCount);
+		System.arraycopy(b, 0, startB, 0, laneCount);
+		System.arraycopy(c, 0, startC, 0, laneCount);
+		System.arraycopy(d, 0, startD, 0, laneCount);
+
+		int[] va = a;
+		int[] vb = b;
+		int[] vc = c;
+		int[] vd = d;
+
+		for (int i = 0; i < 64; i++)
+		{
+			int constant = k[i];
+			int shift = shifts[i];
+
+			if (i < 16)
+			{
+				int[] x = words[i];
+				for (int lane = 0; lane < laneCount; lane++)
+				{
+					int f = (vb[lane] & vc[lane]) | (~vb[lane] & vd[lane]);
+					va[lane] = vb[lane] + Integer.rotateLeft(
+						va[lane] + f + constant + x[lane], shift);
+				}
+			}
+			else if (i < 32)
+			{
+				int[] x = words[(5 * i + 1) & 15];
+				for (int lane = 0; lane < laneCount; lane++)
+				{
+					int f = (vd[lane] & vb[lane]) | (~vd[lane] & vc[lane]);
+					va[lane] = vb[lane] + Integer.rotateLeft(
+						va[lane] + f + constant + x[lane], shift);
+				}
+			}
+			else if (i < 48)
+			{
+				int[] x = words[(3 * i + 5) & 15];
+				for (int lane = 0; lane < laneCount; lane++)
+				{
+					int f = vb[lane] ^ vc[lane] ^ vd[lane];
+					va[lane] = vb[lane] + Integer.rotateLeft(
+						va[lane] + f + constant + x[lane], shift);
+				}
+			}
+			else
+			{
+				int[] x = words[(7 * i) & 15];
+				for (int lane = 0; lane < laneCount; lane++)
+				{
+					int f = vc[lane] ^ (vb[lane] | ~vd[lane]);
+					va[lane] = vb[lane] + Integer.rotateLeft(
+						va[lane] + f + constant + x[lane], shift);
+				}
+			}
+
+			// The new b is in va, and the others move along by one
+			int[] newB = va;
+			va = vd;
+			vd = vc;
+			vc = vb;
+			vb = newB;
+		}
+
+		// After 64 steps the arrays are back where they started
+		for (int lane = 0; lane < laneCount; lane++)
+		{
+			a[lane] = startA[lane] + va[lane];
+			b[lane] = startB[lane] + vb[lane];
+			c[lane] = startC[lane] + vc[lane];
+			d[lane] = startD[lane] + vd[lane];
+		}
+	}
+
+	protected byte[] getDigest(int lane)
+	{
+		byte[] digest = new byte[16];
+		int[] state = { a[lane], b[lane], c[lane], d[lane] };
+
+		for (int i = 0; i < 4; i++)
+		{
+			for (int j = 0; j < 4; j++)
+			{
+				digest[4 * i + j] = (byte) (state[i] >>> (8 * j));
+			}
+		}
+
+		return digest;
+	}
+
+	public int getLaneCount()
+	{
+		return laneCount;
+	}
+
+	private int laneCount;
+	private int[] a;
+	private int[] b;
+	private int[] c;
+	private int[] d;
+	private int[] startA;
+	private int[] startB;
+	private int[] startC;
+	private int[] startD;
+	private int[][] words;
+	private int[] laneMessage;
+	private int[] laneOffset;
+
+	public static final int defaultLaneCount = 32;
+
+	private static final int blockLength = 64;
+	private static final int initA = 0x67452301;
+	private static final int initB = 0xEFCDAB89;
+	private static final int initC = 0x98BADCFE;
+	private static final int initD = 0x10325476;
+
+	private static final int[] shifts =
+	{
+		7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+		5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+		4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+		6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+	};
+
+	// The table from RFC 1321, the integer part of abs(sin(i + 1)) * 2^32
+	private static final int[] k =
+	{
+		0xD76AA478, 0xE8C7B756, 0x242070DB, 0xC1BDCEEE,
+		0xF57C0FAF, 0x4787C62A, 0xA8304613, 0xFD469501,
+		0x698098D8, 0x8B44F7AF, 0xFFFF5BB1, 0x895CD7BE,
+		0x6B901122, 0xFD987193, 0xA679438E, 0x49B40821,
+		0xF61E2562, 0xC040B340, 0x265E5A51, 0xE9B6C7AA,
+		0xD62F105D, 0x02441453, 0xD8A1E681, 0xE7D3FBC8,
+		0x21E1CDE6, 0xC33707D6, 0xF4D50D87, 0x455A14ED,
+		0xA9E3E905, 0xFCEFA3F8, 0x676F02D9, 0x8D2A4C8A,
+		0xFFFA3942, 0x8771F681, 0x6D9D6122, 0xFDE5380C,
+		0xA4BEEA44, 0x4BDECFA9, 0xF6BB4B60, 0xBEBFBC70,
+		0x289B7EC6, 0xEAA127FA, 0xD4EF3085, 0x04881D05,
+		0xD9D4D039, 0xE6DB99E5, 0x1FA27CF8, 0xC4AC5665,
+		0xF4292244, 0x432AFF97, 0xAB9423A7, 0xFC93A039,
+		0x655B59C3, 0x8F0CCC92, 0xFFEFF47D, 0x85845DD1,
+		0x6FA87E4F, 0xFE2CE6E0, 0xA3014314, 0x4E0811A1,
+		0xF7537E82, 0xBD3AF235, 0x2AD7D2BB, 0xEB86D391
+	};
+}
@@ -0,0 +1,148 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/// <summary>
+/// A digest which keeps the first and last sampleSize bytes of its input,
+/// so that the partial hash of a file can be computed from the same read as
+/// its full hash, rather than by reading the samples again.  The partial
+/// hash is the same as CryptUtilities.computePartialHash for the file.
+/// </summary>
+public class PartialSampleDigest extends MessageDigest
+{
+	public PartialSampleDigest(int sampleSize)
+	{
+		super("PartialSamples");
+
+		this.sampleSize = sampleSize;
+
+		head = new byte[sampleSize];
+		tail = new byte[sampleSize];
+		length = -1;
+		position = 0;
+	}
+
+	/// <summary>
+	/// Start sampling a file of the given length, which must be larger
+	/// than the two samples together
+	/// </summary>
+	public void start(long length)
+	{
+		this.length = length;
+		position = 0;
+	}
+
+	/// <returns>
+	/// Whether exactly the length given to start() has been read
+	/// </returns>
+	public boolean isComplete()
+	{
+		return length > 2L * sampleSize && position == length;
+	}
+
+	/// <returns>
+	/// The partial hash of the samples, or null if they weren't all read
+	/// </returns>
+	public byte[] computePartialHash(String hashType) throws Exception
+	{
+		if (isComplete() == false)
+		{
+			return null;
+		}
+
+		MessageDigest digest = CryptUtilities.getHashAlgorithm(hashType);
+		digest.update(head, 0, sampleSize);
+		digest.update(tail, 0, sampleSize);
+
+		return digest.digest();
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		long end = position + len;
+
+		if (position < sampleSize)
+		{
+			int count = (int) (Math.min(end, sampleSize) - position);
+			System.arraycopy(input, offset, head, (int) position, count);
+		}
+
+		long tailStart = length - sampleSize;
+		if (end > tailStart && position < length)
+		{
+			long from = Math.max(position, tailStart);
+			int count = (int) (Math.min(end, length) - from);
+
+			System.arraycopy(
+				input,
+				offset + (int) (from - position),
+				tail,
+				(int) (from - tailStart),
+				count);
+		}
+
+		position = end;
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		int len = input.remaining();
+		long end = position + len;
+		int start = input.position();
+
+		if (position < sampleSize)
+		{
+			int count = (int) (Math.min(end, sampleSize) - position);
+
+			input.position(start);
+			input.get(head, (int) position, count);
+		}
+
+		long tailStart = length - sampleSize;
+		if (end > tailStart && position < length)
+		{
+			long from = Math.max(position, tailStart);
+			int count = (int) (Math.min(end, length) - from);
+
+			input.position(start + (int) (from - position));
+			input.get(tail, (int) (from - tailStart), count);
+		}
+
+		input.position(start + len);
+		position = end;
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		// Only the samples are of any use
+		engineReset();
+		return new byte[0];
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		position = 0;
+	}
+
+	public int getSampleSize()
+	{
+		return sampleSize;
+	}
+
+	private int sampleSize;
+	private byte[] head;
+	private byte[] tail;
+	private long length;
+	private long position;
+}
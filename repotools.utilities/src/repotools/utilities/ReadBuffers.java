@@ -0,0 +1,72 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+
+/// <summary>
+/// Buffers kept by one thread for reading file after file, so that a run
+/// over many small files doesn't allocate a new buffer for each one.
+/// Direct buffers in particular are slow to allocate and are only freed
+/// by the garbage collector.  Not thread safe.
+/// </summary>
+public class ReadBuffers
+{
+	public ReadBuffers()
+	{
+		streamBuffer = null;
+		channelBuffer = null;
+		alignedBuffer = null;
+		alignment = 0;
+	}
+
+	/// <summary>
+	/// A heap buffer of the given size
+	/// </summary>
+	public byte[] getStreamBuffer(int size)
+	{
+		if (streamBuffer == null || streamBuffer.length != size)
+		{
+			streamBuffer = new byte[size];
+		}
+
+		return streamBuffer;
+	}
+
+	/// <summary>
+	/// A cleared direct buffer of the given size
+	/// </summary>
+	public ByteBuffer getChannelBuffer(int size)
+	{
+		if (channelBuffer == null || channelBuffer.capacity() != size)
+		{
+			channelBuffer = ByteBuffer.allocateDirect(size);
+		}
+
+		channelBuffer.clear();
+		return channelBuffer;
+	}
+
+	/// <summary>
+	/// A cleared direct buffer for direct I/O, holding at least the given
+	/// size
+	/// </summary>
+	public ByteBuffer getAlignedBuffer(int size, int alignment)
+	{
+		int alignedSize = (size + alignment - 1) / alignment * alignment;
+
+		if (alignedBuffer == null ||
+			alignedBuffer.capacity() != alignedSize ||
+			this.alignment != alignment)
+		{
+			alignedBuffer = CryptUtilities.allocateAligned(size, alignment);
+			this.alignment = alignment;
+		}
+
+		alignedBuffer.clear();
+		return alignedBuffer;
+	}
+
+	private byte[] streamBuffer;
+	private ByteBuffer channelBuffer;
+	private ByteBuffer alignedBuffer;
+	private int alignment;
+}
@@ -0,0 +1,10 @@
+package repotools.utilities;
+
+/// <summary>
+/// Notified periodically while CryptUtilities reads a file, at points where
+/// the digests have consumed everything before the given position.
+/// </summary>
+public interface ReadCheckpointListener
+{
+	void checkpoint(long position) throws Exception;
+}
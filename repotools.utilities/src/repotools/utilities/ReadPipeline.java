@@ -0,0 +1,379 @@
+package repotools.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/// <summary>
+/// Reads files on background reader threads into a fixed pool of buffers,
+/// while the thread which asked for the file computes the digests.  The
+/// disk is kept busy while the digest is being computed and the other way
+/// around, so hashing runs at close to the speed of the slower of the two
+/// rather than their combined time.
+///
+/// A file can also be prefetched before it is asked for, so that reading
+/// it starts while the digest of the previous file is being finished.  The
+/// number of buffers held for any one file is limited so that a prefetch
+/// can never starve a file which is being hashed.
+/// </summary>
+public class ReadPipeline
+{
+	/// <param name="readerCount">
+	/// Number of reader threads, normally one for each hashing thread
+	/// </param>
+	/// <param name="buffersPerFile">
+	/// Maximum number of filled buffers waiting for each file
+	/// </param>
+	/// <param name="bufferSize">
+	/// Size of each buffer
+	/// </param>
+	public ReadPipeline(int readerCount, int buffersPerFile, int bufferSize)
+	{
+		this.buffersPerFile = buffersPerFile;
+
+		// One spare file's worth of buffers for a prefetch
+		maxRequests = readerCount + 1;
+
+		requests = new ArrayList<ReadRequest>();
+		freeBuffers = new ArrayDeque<ByteBuffer>();
+		for (int i = 0; i < maxRequests * buffersPerFile; i++)
+		{
+			freeBuffers.push(ByteBuffer.allocateDirect(bufferSize));
+		}
+
+		closed = false;
+		for (int i = 0; i < readerCount; i++)
+		{
+			Thread reader = new Thread(
+				new Runnable()
+				{
+					public void run()
+					{
+						readLoop();
+					}
+				},
+				"repotool-read");
+
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+
+	/// <summary>
+	/// Start reading a file which is expected to be hashed soon.  Does
+	/// nothing if the pipeline already has enough files in hand.
+	/// </summary>
+	public synchronized void prefetch(File file, IoThrottle throttle)
+	{
+		if (closed || requests.size() >= maxRequests || findRequest(file) != null)
+		{
+			return;
+		}
+
+		requests.add(new ReadRequest(file, throttle));
+		notifyAll();
+	}
+
+	/// <summary>
+	/// Stop reading a file which was prefetched but turned out not to be
+	/// needed
+	/// </summary>
+	public synchronized void release(File file)
+	{
+		ReadRequest request = findRequest(file);
+
+		if (request != null)
+		{
+			cancel(request);
+		}
+	}
+
+	/// <summary>
+	/// Read the whole file, feeding every byte to each of the digests
+	/// </summary>
+	public void readFile(
+		File file,
+		MessageDigest[] digests,
+		IoThrottle throttle) throws Exception
+	{
+		ReadRequest request = claimRequest(file, throttle);
+
+		try
+		{
+			ByteBuffer buffer;
+			while ((buffer = takeBuffer(request)) != null)
+			{
+				try
+				{
+					CryptUtilities.updateDigests(digests, buffer);
+				}
+				finally
+				{
+					recycleBuffer(buffer);
+				}
+			}
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				cancel(request);
+			}
+		}
+	}
+
+	/// <summary>
+	/// Stop the reader threads.  Any reads in progress are abandoned.
+	/// </summary>
+	public synchronized void close()
+	{
+		closed = true;
+
+		while (requests.isEmpty() == false)
+		{
+			cancel(requests.get(0));
+		}
+
+		notifyAll();
+	}
+
+	protected synchronized ReadRequest claimRequest(File file, IoThrottle throttle)
+	{
+		ReadRequest request = findRequest(file);
+
+		if (request == null)
+		{
+			request = new ReadRequest(file, throttle);
+			requests.add(request);
+			notifyAll();
+		}
+
+		request.claimed = true;
+		return request;
+	}
+
+	/// <returns>
+	/// The next buffer of the file, or null at the end of the file
+	/// </returns>
+	protected synchronized ByteBuffer takeBuffer(ReadRequest request) throws Exception
+	{
+		while (request.filled.isEmpty())
+		{
+			if (request.complete)
+			{
+				if (request.error != null)
+				{
+					throw request.error;
+				}
+
+				return null;
+			}
+
+			wait();
+		}
+
+		ByteBuffer buffer = request.filled.remove();
+
+		// There is room for the reader to go on with this file
+		notifyAll();
+		return buffer;
+	}
+
+	protected synchronized void recycleBuffer(ByteBuffer buffer)
+	{
+		freeBuffers.push(buffer);
+		notifyAll();
+	}
+
+	/// <summary>
+	/// Find an outstanding request for a file which nobody has claimed yet
+	/// </summary>
+	protected ReadRequest findRequest(File file)
+	{
+		for (ReadRequest nextRequest : requests)
+		{
+			if (nextRequest.claimed == false && nextRequest.file.equals(file))
+			{
+				return nextRequest;
+			}
+		}
+
+		return null;
+	}
+
+	protected void cancel(ReadRequest request)
+	{
+		requests.remove(request);
+		request.cancelled = true;
+
+		while (request.filled.isEmpty() == false)
+		{
+			freeBuffers.push(request.filled.remove());
+		}
+
+		// The reader closes the channel itself if it's in the middle of
+		// reading.
+		if (request.reading == false)
+		{
+			closeChannel(request);
+		}
+
+		notifyAll();
+	}
+
+	protected void readLoop()
+	{
+		while (true)
+		{
+			ReadRequest request;
+			ByteBuffer buffer;
+
+			synchronized (this)
+			{
+				while (true)
+				{
+					if (closed)
+					{
+						return;
+					}
+
+					request = findReadable();
+					if (request != null && freeBuffers.isEmpty() == false)
+					{
+						break;
+					}
+
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException ex)
+					{
+						return;
+					}
+				}
+
+				buffer = freeBuffers.pop();
+				request.reading = true;
+			}
+
+			int numRead = -1;
+			Exception error = null;
+
+			try
+			{
+				// The file itself is paced by CryptUtilities.readFile
+				if (request.channel == null)
+				{
+					request.channel = FileChannel.open(
+						request.file.toPath(),
+						StandardOpenOption.READ);
+				}
+
+				buffer.clear();
+				numRead = request.channel.read(buffer, request.position);
+
+				if (numRead > 0 && request.throttle != null)
+				{
+					request.throttle.acquireBytes(numRead);
+				}
+			}
+			catch (Exception ex)
+			{
+				error = ex;
+			}
+
+			synchronized (this)
+			{
+				request.reading = false;
+
+				if (request.cancelled || error != null || numRead == -1)
+				{
+					freeBuffers.push(buffer);
+					request.error = error;
+					request.complete = true;
+					closeChannel(request);
+				}
+				else
+				{
+					buffer.flip();
+					request.position += numRead;
+					request.filled.add(buffer);
+				}
+
+				notifyAll();
+			}
+		}
+	}
+
+	/// <summary>
+	/// The oldest request which still has room for another buffer and isn't
+	/// already being read.  The file being hashed is always older than any
+	/// prefetch, so it is served first.
+	/// </summary>
+	protected ReadRequest findReadable()
+	{
+		for (ReadRequest nextRequest : requests)
+		{
+			if (nextRequest.complete == false &&
+				nextRequest.reading == false &&
+				nextRequest.filled.size() < buffersPerFile)
+			{
+				return nextRequest;
+			}
+		}
+
+		return null;
+	}
+
+	protected static void closeChannel(ReadRequest request)
+	{
+		if (request.channel != null)
+		{
+			try
+			{
+				request.channel.close();
+			}
+			catch (IOException ex)
+			{
+				// Nothing more to read from it anyway
+			}
+
+			request.channel = null;
+		}
+	}
+
+	protected static class ReadRequest
+	{
+		ReadRequest(File file, IoThrottle throttle)
+		{
+			this.file = file;
+			this.throttle = throttle;
+			filled = new ArrayDeque<ByteBuffer>();
+		}
+
+		File file;
+		IoThrottle throttle;
+		FileChannel channel;
+		long position;
+		ArrayDeque<ByteBuffer> filled;
+		boolean claimed;
+		boolean reading;
+		boolean complete;
+		boolean cancelled;
+		Exception error;
+	}
+
+	private int buffersPerFile;
+	private int maxRequests;
+	private ArrayList<ReadRequest> requests;
+	private ArrayDeque<ByteBuffer> freeBuffers;
+	private boolean closed;
+
+	public static final int defaultBuffersPerFile = 4;
+}
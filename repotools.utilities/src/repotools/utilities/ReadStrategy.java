@@ -0,0 +1,52 @@
+package repotools.utilities;
+
+/// <summary>
+/// How file contents are read when computing a hash
+/// </summary>
+public enum ReadStrategy
+{
+	/// <summary>
+	/// Pick a strategy based on the size of the file
+	/// </summary>
+	AUTO,
+	
+	/// <summary>
+	/// FileInputStream into a heap buffer
+	/// </summary>
+	STREAM,
+	
+	/// <summary>
+	/// FileChannel into a large direct buffer
+	/// </summary>
+	CHANNEL,
+	
+	/// <summary>
+	/// Memory-mapped FileChannel regions
+	/// </summary>
+	MAPPED,
+	
+	/// <summary>
+	/// FileChannel read by a separate reader thread, so that reading and
+	/// computing the digest overlap.  Needs a ReadPipeline in the options.
+	/// </summary>
+	PIPELINED,
+	
+	/// <summary>
+	/// Like AUTO, except that small files hashed with MD5 are read whole
+	/// and hashed together in batches with Md5Lanes
+	/// </summary>
+	BATCHED;
+	
+	public static ReadStrategy fromName(String name)
+	{
+		for (ReadStrategy next : values())
+		{
+			if (next.name().equalsIgnoreCase(name))
+			{
+				return next;
+			}
+		}
+		
+		return null;
+	}
+}
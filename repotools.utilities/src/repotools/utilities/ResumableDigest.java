@@ -0,0 +1,22 @@
+package repotools.utilities;
+
+/// <summary>
+/// A digest whose intermediate state can be saved and restored later,
+/// possibly by another process, so that hashing a very large file can
+/// continue from where it was interrupted.
+/// </summary>
+public interface ResumableDigest
+{
+	/// <summary>
+	/// Save the state after all of the input so far
+	/// </summary>
+	byte[] saveState();
+
+	/// <summary>
+	/// Replace the state with one previously saved by saveState()
+	/// </summary>
+	/// <exception cref="IllegalArgumentException">
+	/// The state is not valid for this kind of digest
+	/// </exception>
+	void restoreState(byte[] state);
+}
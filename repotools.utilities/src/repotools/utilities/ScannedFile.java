@@ -0,0 +1,244 @@
+package repotools.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/// <summary>
+/// A file found by a directory scan, along with its attributes as they
+/// were when it was scanned.  The attributes are read with a single call,
+/// and length(), lastModified(), isDirectory(), isFile() and exists()
+/// answer from them rather than asking the filesystem again each time.
+/// On a network filesystem, with many files, those calls otherwise take
+/// most of the time of a status.
+///
+/// The FileStamp of the file can be read along with the attributes, from
+/// the same call, where it is needed for each file.
+/// </summary>
+public class ScannedFile extends File
+{
+	/// <param name="attributes">
+	/// The attributes of the file, or null if it couldn't be read, for
+	/// example because it is a broken symbolic link
+	/// </param>
+	public ScannedFile(Path path, BasicFileAttributes attributes)
+	{
+		super(path.toString());
+		this.attributes = attributes;
+		stamp = null;
+		withStamp = false;
+	}
+
+	/// <summary>
+	/// Read the attributes of a file, following symbolic links as File
+	/// does
+	/// </summary>
+	public static ScannedFile scan(Path path)
+	{
+		return new ScannedFile(path, readAttributes(path));
+	}
+
+	/// <summary>
+	/// Read the attributes of a file, and its stamp too if asked
+	/// </summary>
+	public static ScannedFile scan(Path path, boolean withStamp)
+	{
+		if (withStamp == false)
+		{
+			return scan(path);
+		}
+		
+		ScannedFile file = new ScannedFile(path, null);
+		file.withStamp = true;
+		file.refresh();
+		
+		return file;
+	}
+
+	protected static BasicFileAttributes readAttributes(Path path)
+	{
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		catch (IOException ex)
+		{
+			return null;
+		}
+	}
+
+	/// <summary>
+	/// Read the attributes again
+	/// </summary>
+	public void refresh()
+	{
+		if (withStamp)
+		{
+			readAttributesWithStamp();
+		}
+		else
+		{
+			attributes = readAttributes(toPath());
+		}
+	}
+	
+	/// <summary>
+	/// Read all of the unix attributes, which come from a single stat of
+	/// the file, and make both the basic attributes and the stamp from them
+	/// </summary>
+	protected void readAttributesWithStamp()
+	{
+		try
+		{
+			Map<String, Object> unixAttributes =
+				Files.readAttributes(toPath(), "unix:*");
+			
+			attributes = new MapAttributes(unixAttributes);
+			stamp = FileStamp.fromAttributes(unixAttributes);
+		}
+		catch (UnsupportedOperationException ex)
+		{
+			// Not a unix filesystem
+			attributes = readAttributes(toPath());
+			stamp = null;
+		}
+		catch (IOException ex)
+		{
+			attributes = null;
+			stamp = null;
+		}
+	}
+
+	/// <summary>
+	/// Set the date, and keep the attributes up to date with it
+	/// </summary>
+	@Override
+	public boolean setLastModified(long time)
+	{
+		boolean set = super.setLastModified(time);
+		refresh();
+		return set;
+	}
+
+	@Override
+	public boolean exists()
+	{
+		return attributes != null;
+	}
+
+	@Override
+	public boolean isDirectory()
+	{
+		return attributes != null && attributes.isDirectory();
+	}
+
+	@Override
+	public boolean isFile()
+	{
+		return attributes != null && attributes.isRegularFile();
+	}
+
+	@Override
+	public long length()
+	{
+		if (attributes == null)
+		{
+			return 0;
+		}
+
+		return attributes.size();
+	}
+
+	@Override
+	public long lastModified()
+	{
+		if (attributes == null)
+		{
+			return 0;
+		}
+
+		return attributes.lastModifiedTime().toMillis();
+	}
+
+	public BasicFileAttributes getAttributes()
+	{
+		return attributes;
+	}
+
+	/// <summary>
+	/// The stamp of the file as it was scanned, or null if it wasn't read
+	/// with the attributes or couldn't be
+	/// </summary>
+	public FileStamp getStamp()
+	{
+		return stamp;
+	}
+
+	/// <summary>
+	/// Basic attributes taken from a map of unix attributes
+	/// </summary>
+	protected static class MapAttributes implements BasicFileAttributes
+	{
+		public MapAttributes(Map<String, Object> attributes)
+		{
+			this.attributes = attributes;
+		}
+
+		public FileTime lastModifiedTime()
+		{
+			return (FileTime) attributes.get("lastModifiedTime");
+		}
+
+		public FileTime lastAccessTime()
+		{
+			return (FileTime) attributes.get("lastAccessTime");
+		}
+
+		public FileTime creationTime()
+		{
+			return (FileTime) attributes.get("creationTime");
+		}
+
+		public boolean isRegularFile()
+		{
+			return (Boolean) attributes.get("isRegularFile");
+		}
+
+		public boolean isDirectory()
+		{
+			return (Boolean) attributes.get("isDirectory");
+		}
+
+		public boolean isSymbolicLink()
+		{
+			return (Boolean) attributes.get("isSymbolicLink");
+		}
+
+		public boolean isOther()
+		{
+			return (Boolean) attributes.get("isOther");
+		}
+
+		public long size()
+		{
+			return (Long) attributes.get("size");
+		}
+
+		public Object fileKey()
+		{
+			return attributes.get("fileKey");
+		}
+
+		private Map<String, Object> attributes;
+	}
+
+	private transient BasicFileAttributes attributes;
+	private transient FileStamp stamp;
+	private boolean withStamp;
+
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,123 @@
+package repotools.utilities;
+
+/// <summary>
+/// SHA-256 (FIPS 180-4) with a state which can be saved and restored
+/// </summary>
+public class Sha256Digest extends ChainedBlockDigest
+{
+	public Sha256Digest()
+	{
+		super("SHA-256", 8, true);
+		schedule = new int[64];
+	}
+
+	@Override
+	protected void initState(int[] state)
+	{
+		state[0] = 0x6A09E667;
+		state[1] = 0xBB67AE85;
+		state[2] = 0x3C6EF372;
+		state[3] = 0xA54FF53A;
+		state[4] = 0x510E527F;
+		state[5] = 0x9B05688C;
+		state[6] = 0x1F83D9AB;
+		state[7] = 0x5BE0CD19;
+	}
+
+	@Override
+	protected void processBlock(byte[] input, int offset)
+	{
+		int[] w = schedule;
+		for (int i = 0; i < 16; i++)
+		{
+			w[i] = readIntBigEndian(input, offset + 4 * i);
+		}
+
+		for (int i = 16; i < 64; i++)
+		{
+			int s0 = Integer.rotateRight(w[i - 15], 7) ^
+				Integer.rotateRight(w[i - 15], 18) ^
+				(w[i - 15] >>> 3);
+
+			int s1 = Integer.rotateRight(w[i - 2], 17) ^
+				Integer.rotateRight(w[i - 2], 19) ^
+				(w[i - 2] >>> 10);
+
+			w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+		}
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+		int f = state[5];
+		int g = state[6];
+		int h = state[7];
+
+		for (int i = 0; i < 64; i++)
+		{
+			int s1 = Integer.rotateRight(e, 6) ^
+				Integer.rotateRight(e, 11) ^
+				Integer.rotateRight(e, 25);
+
+			int choice = (e & f) ^ (~e & g);
+			int temp1 = h + s1 + choice + k[i] + w[i];
+
+			int s0 = Integer.rotateRight(a, 2) ^
+				Integer.rotateRight(a, 13) ^
+				Integer.rotateRight(a, 22);
+
+			int majority = (a & b) ^ (a & c) ^ (b & c);
+			int temp2 = s0 + majority;
+
+			h = g;
+			g = f;
+			f = e;
+			e = d + temp1;
+			d = c;
+			c = b;
+			b = a;
+			a = temp1 + temp2;
+		}
+
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+		state[5] += f;
+		state[6] += g;
+		state[7] += h;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		Sha256Digest copy = (Sha256Digest) super.clone();
+		copy.schedule = new int[64];
+		return copy;
+	}
+
+	private int[] schedule;
+
+	private static final int[] k =
+	{
+		0x428A2F98, 0x71374491, 0xB5C0FBCF, 0xE9B5DBA5,
+		0x3956C25B, 0x59F111F1, 0x923F82A4, 0xAB1C5ED5,
+		0xD807AA98, 0x12835B01, 0x243185BE, 0x550C7DC3,
+		0x72BE5D74, 0x80DEB1FE, 0x9BDC06A7, 0xC19BF174,
+		0xE49B69C1, 0xEFBE4786, 0x0FC19DC6, 0x240CA1CC,
+		0x2DE92C6F, 0x4A7484AA, 0x5CB0A9DC, 0x76F988DA,
+		0x983E5152, 0xA831C66D, 0xB00327C8, 0xBF597FC7,
+		0xC6E00BF3, 0xD5A79147, 0x06CA6351, 0x14292967,
+		0x27B70A85, 0x2E1B2138, 0x4D2C6DFC, 0x53380D13,
+		0x650A7354, 0x766A0ABB, 0x81C2C92E, 0x92722C85,
+		0xA2BFE8A1, 0xA81A664B, 0xC24B8B70, 0xC76C51A3,
+		0xD192E819, 0xD6990624, 0xF40E3585, 0x106AA070,
+		0x19A4C116, 0x1E376C08, 0x2748774C, 0x34B0BCB5,
+		0x391C0CB3, 0x4ED8AA4A, 0x5B9CCA4F, 0x682E6FF3,
+		0x748F82EE, 0x78A5636F, 0x84C87814, 0x8CC70208,
+		0x90BEFFFA, 0xA4506CEB, 0xBEF9A3F7, 0xC67178F2
+	};
+}
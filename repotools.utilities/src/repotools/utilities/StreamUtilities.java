@@ -1,6 +1,7 @@
 package repotools.utilities;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -34,4 +35,21 @@ public class StreamUtilities
 
 		return sb.toString();
 	}
+
+	/// <summary>
+	/// Read everything up to the end of a stream, which is left open
+	/// </summary>
+	public static byte[] readAllBytes(InputStream is) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+
+		int count;
+		while ((count = is.read(buffer)) >= 0)
+		{
+			output.write(buffer, 0, count);
+		}
+
+		return output.toByteArray();
+	}
 }
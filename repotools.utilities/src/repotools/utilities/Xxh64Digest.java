@@ -0,0 +1,243 @@
+package repotools.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/// <summary>
+/// xxHash64 (seed 0) as a MessageDigest.  This is a very fast
+/// non-cryptographic hash which is good for detecting corruption.  The
+/// digest is the canonical big-endian form of the 64-bit result.
+/// </summary>
+public class Xxh64Digest extends MessageDigest implements Cloneable, ResumableDigest
+{
+	public Xxh64Digest()
+	{
+		super(hashType);
+		buffer = new byte[stripeLength];
+		engineReset();
+	}
+
+	@Override
+	protected void engineReset()
+	{
+		v1 = prime1 + prime2;
+		v2 = prime2;
+		v3 = 0;
+		v4 = -prime1;
+		totalLength = 0;
+		bufferedLength = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		totalLength += len;
+		
+		if (bufferedLength > 0)
+		{
+			int take = Math.min(len, stripeLength - bufferedLength);
+			System.arraycopy(input, offset, buffer, bufferedLength, take);
+			bufferedLength += take;
+			offset += take;
+			len -= take;
+			
+			if (bufferedLength < stripeLength)
+			{
+				return;
+			}
+			
+			processStripe(buffer, 0);
+			bufferedLength = 0;
+		}
+		
+		while (len >= stripeLength)
+		{
+			processStripe(input, offset);
+			offset += stripeLength;
+			len -= stripeLength;
+		}
+		
+		if (len > 0)
+		{
+			System.arraycopy(input, offset, buffer, 0, len);
+			bufferedLength = len;
+		}
+	}
+
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return 8;
+	}
+
+	@Override
+	protected byte[] engineDigest()
+	{
+		long hash;
+		
+		if (totalLength >= stripeLength)
+		{
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) +
+				Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		}
+		else
+		{
+			hash = prime5;
+		}
+		
+		hash += totalLength;
+		
+		int position = 0;
+		while (position + 8 <= bufferedLength)
+		{
+			hash ^= round(0, readLong(buffer, position));
+			hash = Long.rotateLeft(hash, 27) * prime1 + prime4;
+			position += 8;
+		}
+		
+		if (position + 4 <= bufferedLength)
+		{
+			hash ^= (readInt(buffer, position) & 0xFFFFFFFFL) * prime1;
+			hash = Long.rotateLeft(hash, 23) * prime2 + prime3;
+			position += 4;
+		}
+		
+		while (position < bufferedLength)
+		{
+			hash ^= (buffer[position] & 0xFFL) * prime5;
+			hash = Long.rotateLeft(hash, 11) * prime1;
+			position++;
+		}
+		
+		hash ^= hash >>> 33;
+		hash *= prime2;
+		hash ^= hash >>> 29;
+		hash *= prime3;
+		hash ^= hash >>> 32;
+		
+		engineReset();
+		
+		byte[] digest = new byte[8];
+		for (int i = 0; i < 8; i++)
+		{
+			digest[i] = (byte) (hash >>> (56 - 8 * i));
+		}
+		
+		return digest;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		Xxh64Digest copy = (Xxh64Digest) super.clone();
+		copy.buffer = buffer.clone();
+		return copy;
+	}
+
+	public byte[] saveState()
+	{
+		ByteBuffer state = ByteBuffer.allocate(stateLength);
+		state.putLong(v1);
+		state.putLong(v2);
+		state.putLong(v3);
+		state.putLong(v4);
+		state.putLong(totalLength);
+		state.putInt(bufferedLength);
+		state.put(buffer);
+		return state.array();
+	}
+
+	public void restoreState(byte[] stateData)
+	{
+		if (stateData.length != stateLength)
+		{
+			throw new IllegalArgumentException("Not a saved " + hashType + " state");
+		}
+		
+		ByteBuffer state = ByteBuffer.wrap(stateData);
+		v1 = state.getLong();
+		v2 = state.getLong();
+		v3 = state.getLong();
+		v4 = state.getLong();
+		totalLength = state.getLong();
+		bufferedLength = state.getInt();
+		state.get(buffer);
+		
+		if (bufferedLength < 0 || bufferedLength >= stripeLength)
+		{
+			engineReset();
+			throw new IllegalArgumentException("Not a saved " + hashType + " state");
+		}
+	}
+
+	private void processStripe(byte[] input, int offset)
+	{
+		v1 = round(v1, readLong(input, offset));
+		v2 = round(v2, readLong(input, offset + 8));
+		v3 = round(v3, readLong(input, offset + 16));
+		v4 = round(v4, readLong(input, offset + 24));
+	}
+	
+	private static long round(long accumulator, long input)
+	{
+		accumulator += input * prime2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * prime1;
+	}
+	
+	private static long mergeRound(long accumulator, long value)
+	{
+		accumulator ^= round(0, value);
+		return accumulator * prime1 + prime4;
+	}
+	
+	private static long readLong(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFFL) |
+			((data[offset + 1] & 0xFFL) << 8) |
+			((data[offset + 2] & 0xFFL) << 16) |
+			((data[offset + 3] & 0xFFL) << 24) |
+			((data[offset + 4] & 0xFFL) << 32) |
+			((data[offset + 5] & 0xFFL) << 40) |
+			((data[offset + 6] & 0xFFL) << 48) |
+			((data[offset + 7] & 0xFFL) << 56);
+	}
+	
+	private static int readInt(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFF) |
+			((data[offset + 1] & 0xFF) << 8) |
+			((data[offset + 2] & 0xFF) << 16) |
+			((data[offset + 3] & 0xFF) << 24);
+	}
+
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+	private long totalLength;
+	private byte[] buffer;
+	private int bufferedLength;
+	
+	private static final int stripeLength = 32;
+	private static final int stateLength = 5 * 8 + 4 + stripeLength;
+	
+	private static final long prime1 = 0x9E3779B185EBCA87L;
+	private static final long prime2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long prime3 = 0x165667B19E3779F9L;
+	private static final long prime4 = 0x85EBCA77C2B2AE63L;
+	private static final long prime5 = 0x27D4EB2F165667C5L;
+	
+	public static final String hashType = "XXH64";
+}
@@ -0,0 +1,178 @@
+package repotools.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// <summary>
+/// Known answers for the Merkle roots of block hashes.  Replicas compare
+/// these roots, so they must never change for the same contents, block
+/// size and hash method.  The expected values were computed separately
+/// from the definition in CryptUtilities.computeMerkleRoot.
+/// </summary>
+public class BlockHashDigestTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void emptyFileHasOneEmptyBlock() throws Exception
+	{
+		checkRoot(0, 4096, 1,
+			"4E59BF27372B1304BC0B137D1BE9D566AD58B154B6A6B5778AF7F414B1D4B84C");
+	}
+
+	@Test
+	public void singlePartialBlock() throws Exception
+	{
+		checkRoot(100, 65536, 1,
+			"DE7CC0B5D2EC906FB811207A78A7C23E12CDA5B0FC4ED6FE686822DC5A7048FA");
+	}
+
+	@Test
+	public void wholeBlocks() throws Exception
+	{
+		checkRoot(8192, 1024, 8,
+			"CB169592703A0DDF74C38E3A5322ABA25C9F0A457653018B9912DFA939DDD80B");
+		
+		checkRoot(5 * 4096, 4096, 5,
+			"B0AA0035CB4DDFDD56B25DF19AAF02716632F8ADEC0158B124BCC545C62A49E1");
+	}
+
+	@Test
+	public void partialLastBlock() throws Exception
+	{
+		checkRoot(10000, 4096, 3,
+			"8122312B53AD747D7D655BA8CB49125BE38835B3D7B5D9DAD2EC30290D579372");
+		
+		checkRoot(10000, 1000, 10,
+			"D47B557D4D46E8A817A614FF33829D27A875733336F76078CADFA976277F96FB");
+	}
+
+	@Test
+	public void singleBlockRootIsNotTheBlockHash() throws Exception
+	{
+		byte[] blockHash = CryptUtilities.getHashAlgorithm("SHA256").digest(
+			makeContents(100));
+		
+		List<byte[]> blockHashes = new ArrayList<byte[]>();
+		blockHashes.add(blockHash);
+		
+		byte[] root = CryptUtilities.computeMerkleRoot(blockHashes, "SHA256");
+		
+		assertFalse(Arrays.equals(blockHash, root));
+	}
+
+	@Test
+	public void digestCanBeReused() throws Exception
+	{
+		BlockHashDigest digest = new BlockHashDigest("SHA256", 4096);
+		
+		digest.update(makeContents(20000));
+		digest.digest();
+		
+		digest.update(makeContents(10000));
+		byte[] root = digest.digest();
+		
+		assertEquals(
+			"8122312B53AD747D7D655BA8CB49125BE38835B3D7B5D9DAD2EC30290D579372",
+			toHex(root));
+		assertEquals(3, digest.getBlockHashes().size());
+	}
+
+	/// <summary>
+	/// The root must be the same however the contents are fed to the
+	/// digest, and when the blocks are read from a file
+	/// </summary>
+	protected void checkRoot(
+		int length,
+		long blockSize,
+		int blockCount,
+		String expectedRoot) throws Exception
+	{
+		byte[] contents = makeContents(length);
+		
+		// All at once
+		BlockHashDigest digest = new BlockHashDigest("SHA256", blockSize);
+		digest.update(contents);
+		assertEquals(expectedRoot, toHex(digest.digest()));
+		assertEquals(blockCount, digest.getBlockHashes().size());
+		assertEquals(expectedRoot, toHex(digest.getRootHash()));
+		
+		// In pieces which don't line up with the blocks
+		digest = new BlockHashDigest("SHA256", blockSize);
+		for (int position = 0; position < length; position += 333)
+		{
+			digest.update(contents, position, Math.min(333, length - position));
+		}
+		assertEquals(expectedRoot, toHex(digest.digest()));
+		
+		// From a direct buffer
+		digest = new BlockHashDigest("SHA256", blockSize);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, length));
+		buffer.put(contents);
+		buffer.flip();
+		digest.update(buffer);
+		assertEquals(expectedRoot, toHex(digest.digest()));
+		
+		// From the file, block by block
+		File file = folder.newFile("blocks-" + length + "-" + blockSize);
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(contents);
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		byte[][] blockHashes = CryptUtilities.computeBlockHashes(
+			file,
+			"SHA256",
+			blockSize);
+		
+		assertEquals(blockCount, blockHashes.length);
+		assertArrayEquals(
+			digest.getBlockHashes().get(blockCount - 1),
+			blockHashes[blockCount - 1]);
+		assertEquals(
+			expectedRoot,
+			toHex(CryptUtilities.computeMerkleRoot(
+				Arrays.asList(blockHashes),
+				"SHA256")));
+	}
+
+	protected static byte[] makeContents(int length)
+	{
+		byte[] contents = new byte[length];
+		for (int i = 0; i < length; i++)
+		{
+			contents[i] = (byte) (i * 31 + 7);
+		}
+		
+		return contents;
+	}
+
+	protected static String toHex(byte[] data)
+	{
+		StringBuilder hex = new StringBuilder();
+		for (byte nextByte : data)
+		{
+			hex.append(String.format("%02X", nextByte));
+		}
+		
+		return hex.toString();
+	}
+}
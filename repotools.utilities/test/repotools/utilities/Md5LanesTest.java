@@ -0,0 +1,192 @@
+package repotools.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/// <summary>
+/// Md5Lanes must give exactly the same hashes as the MD5 from the JDK, for
+/// any number of lanes and any mix of message lengths, including those
+/// where the padding only just fits in the last block or spills into
+/// another one.
+/// </summary>
+public class Md5LanesTest
+{
+	@Test
+	public void paddingEdges() throws Exception
+	{
+		int[] lengths = new int[]
+		{
+			0, 1, 54, 55, 56, 57, 63, 64, 65,
+			118, 119, 120, 121, 127, 128, 129
+		};
+
+		for (int nextLaneCount : laneCounts)
+		{
+			checkLengths(nextLaneCount, lengths);
+		}
+	}
+
+	@Test
+	public void everyShortLength() throws Exception
+	{
+		int[] lengths = new int[300];
+		for (int i = 0; i < lengths.length; i++)
+		{
+			lengths[i] = i;
+		}
+
+		for (int nextLaneCount : laneCounts)
+		{
+			checkLengths(nextLaneCount, lengths);
+		}
+	}
+
+	@Test
+	public void mixedLengthsUpTo64K() throws Exception
+	{
+		// Long and short messages together, so that lanes which finish
+		// early are given new messages while others are still running
+		int[] lengths = new int[]
+		{
+			65536, 0, 4096, 55, 65535, 1000, 56, 64, 16384, 1,
+			4095, 120, 32768, 63, 12345, 65472, 65473, 8191
+		};
+
+		for (int nextLaneCount : laneCounts)
+		{
+			checkLengths(nextLaneCount, lengths);
+		}
+	}
+
+	@Test
+	public void nullMessagesAreSkipped() throws Exception
+	{
+		byte[][] messages = new byte[5][];
+		int[] lengths = new int[5];
+
+		for (int i = 1; i < messages.length; i += 2)
+		{
+			lengths[i] = 100 * i;
+			messages[i] = makeMessage(lengths[i], i);
+		}
+
+		byte[][] hashes = new Md5Lanes(2).digest(messages, lengths);
+
+		assertEquals(messages.length, hashes.length);
+		for (int i = 0; i < messages.length; i++)
+		{
+			if (messages[i] == null)
+			{
+				assertNull(hashes[i]);
+			}
+			else
+			{
+				assertArrayEquals(
+					expectedHash(messages[i], lengths[i]),
+					hashes[i]);
+			}
+		}
+	}
+
+	@Test
+	public void knownAnswers() throws Exception
+	{
+		// From the test suite in RFC 1321
+		String[] inputs = new String[]
+		{
+			"",
+			"a",
+			"abc",
+			"message digest",
+			"abcdefghijklmnopqrstuvwxyz",
+			"12345678901234567890123456789012345678901234567890123456789012345678901234567890"
+		};
+		String[] hashes = new String[]
+		{
+			"D41D8CD98F00B204E9800998ECF8427E",
+			"0CC175B9C0F1B6A831C399E269772661",
+			"900150983CD24FB0D6963F7D28E17F72",
+			"F96B697D7CB7938D525A2F31AAF161D0",
+			"C3FCD3D76192E4007DFB496CCA67E13B",
+			"57EDF4A22BE3C955AC49DA2E2107B67A"
+		};
+
+		byte[][] messages = new byte[inputs.length][];
+		int[] lengths = new int[inputs.length];
+		for (int i = 0; i < inputs.length; i++)
+		{
+			byte[] bytes = inputs[i].getBytes("US-ASCII");
+
+			lengths[i] = bytes.length;
+			messages[i] = Md5Lanes.allocate(bytes.length);
+			System.arraycopy(bytes, 0, messages[i], 0, bytes.length);
+			Md5Lanes.pad(messages[i], bytes.length);
+		}
+
+		byte[][] results = new Md5Lanes(4).digest(messages, lengths);
+		for (int i = 0; i < inputs.length; i++)
+		{
+			assertEquals(inputs[i], hashes[i], toHex(results[i]));
+		}
+	}
+
+	protected void checkLengths(int laneCount, int[] lengths) throws Exception
+	{
+		ArrayList<byte[]> messages = new ArrayList<byte[]>();
+		for (int i = 0; i < lengths.length; i++)
+		{
+			messages.add(makeMessage(lengths[i], i));
+		}
+
+		byte[][] hashes = new Md5Lanes(laneCount).digest(
+			messages.toArray(new byte[0][]),
+			lengths);
+
+		for (int i = 0; i < lengths.length; i++)
+		{
+			assertArrayEquals(
+				laneCount + " lanes, length " + lengths[i],
+				expectedHash(messages.get(i), lengths[i]),
+				hashes[i]);
+		}
+	}
+
+	protected static byte[] makeMessage(int length, int seed)
+	{
+		byte[] message = Md5Lanes.allocate(length);
+		for (int i = 0; i < length; i++)
+		{
+			message[i] = (byte) (i * 31 + seed * 7 + (i >> 8));
+		}
+
+		Md5Lanes.pad(message, length);
+		return message;
+	}
+
+	protected static String toHex(byte[] bytes)
+	{
+		StringBuilder builder = new StringBuilder();
+		for (byte nextByte : bytes)
+		{
+			builder.append(String.format("%02X", nextByte & 0xFF));
+		}
+
+		return builder.toString();
+	}
+
+	protected static byte[] expectedHash(byte[] message, int length)
+		throws Exception
+	{
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		digest.update(message, 0, length);
+		return digest.digest();
+	}
+
+	private static final int[] laneCounts = new int[] { 1, 2, 3, 8, 32, 33 };
+}
@@ -0,0 +1,86 @@
+package repotools.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+/// <summary>
+/// A digest restored from a saved state, as when a validate is resumed from
+/// its journal, must finish with the same hash as one which read the whole
+/// input at once.
+/// </summary>
+public class ResumableDigestTest
+{
+	@Test
+	public void md5() throws Exception
+	{
+		checkResume("MD5");
+	}
+
+	@Test
+	public void sha256() throws Exception
+	{
+		checkResume("SHA256");
+	}
+
+	@Test
+	public void xxh64() throws Exception
+	{
+		checkResume(Xxh64Digest.hashType);
+	}
+
+	@Test
+	public void damagedStateIsRefused() throws Exception
+	{
+		for (String nextType : new String[] { "MD5", "SHA256", Xxh64Digest.hashType })
+		{
+			ResumableDigest digest = (ResumableDigest)
+				CryptUtilities.getResumableHashAlgorithm(nextType);
+			
+			try
+			{
+				digest.restoreState(new byte[3]);
+				fail("Restored a damaged " + nextType + " state");
+			}
+			catch (IllegalArgumentException ex)
+			{
+				// Expected
+			}
+		}
+	}
+
+	protected void checkResume(String hashType) throws Exception
+	{
+		byte[] input = new byte[5000];
+		for (int i = 0; i < input.length; i++)
+		{
+			input[i] = (byte) (i * 13 + 5);
+		}
+		
+		byte[] expected = CryptUtilities.getHashAlgorithm(hashType).digest(input);
+		
+		int[] splits = new int[] { 0, 1, 31, 32, 33, 63, 64, 65, 127, 128, 1000, 4999, 5000 };
+		
+		for (int split : splits)
+		{
+			MessageDigest first = CryptUtilities.getResumableHashAlgorithm(hashType);
+			assertNotNull(first);
+			
+			first.update(input, 0, split);
+			byte[] state = ((ResumableDigest) first).saveState();
+			
+			MessageDigest second = CryptUtilities.getResumableHashAlgorithm(hashType);
+			((ResumableDigest) second).restoreState(state);
+			second.update(input, split, input.length - split);
+			
+			assertArrayEquals(
+				hashType + " resumed at " + split,
+				expected,
+				second.digest());
+		}
+	}
+}